@@ -3,6 +3,7 @@ package org.jenkinsci.plugins.saml;
 import static java.util.logging.Level.SEVERE;
 import static java.util.logging.Level.WARNING;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.XmlFile;
 import hudson.util.Secret;
 import java.io.File;
@@ -11,6 +12,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
@@ -61,6 +63,18 @@ public class BundleKeyStore {
     public static final String PROVIDER = "BC";
     public static final String KEY_VALIDITY_PROPERTY = BundleKeyStore.class.getName() + ".validity";
     public static final Long KEY_VALIDITY = 365L;
+    /**
+     * property to set the days before the key expires when the successor key is generated and published.
+     * -Dorg.jenkinsci.plugins.saml.BundleKeyStore.overlap=DAYS
+     */
+    public static final String OVERLAP_PROPERTY = BundleKeyStore.class.getName() + ".overlap";
+
+    public static final Long OVERLAP = 30L;
+
+    /**
+     * days of {@link #OVERLAP_PROPERTY}, read once, not final for the tests.
+     */
+    static long overlapDays = NumberUtils.toLong(System.getProperty(OVERLAP_PROPERTY), OVERLAP);
 
     private static final Logger LOG = Logger.getLogger(BundleKeyStore.class.getName());
     public static final String SAML_JENKINS_KEYSTORE_XML = "saml-jenkins-keystore.xml";
@@ -74,7 +88,17 @@ public class BundleKeyStore {
     private String ksPkAlias = PAC4J_DEMO_ALIAS;
     private Date dateValidity;
     private File keystore;
+    /**
+     * alias of the key that replaces the current one when it expires, it is published in the SP metadata meanwhile.
+     */
+    private String successorAlias;
+
+    private Date successorValidity;
     private transient XmlFile config = null;
+    /**
+     * stamp of the keystore file and alias of the active key the last time the key was found in it.
+     */
+    private transient String keyFoundIn;
 
     public BundleKeyStore() {
         Jenkins jenkins = Jenkins.get();
@@ -98,7 +122,23 @@ public class BundleKeyStore {
      * initialized the keystore, it tries to create a keystore in a file,
      * if it fails load the settings of the demo keystore.
      */
-    public synchronized void init() {
+    public void init() {
+        KeyPair keypair;
+        X509Certificate[] chain;
+        try {
+            // the key is generated without holding the key store, the logins keep reading it meanwhile
+            keypair = generate();
+            chain = createCertificateChain(keypair);
+        } catch (GeneralSecurityException | IOException | OperatorCreationException e) {
+            useDemoKeyStore(e);
+            return;
+        }
+        synchronized (this) {
+            init(keypair, chain);
+        }
+    }
+
+    private void init(KeyPair keypair, X509Certificate[] chain) {
         try {
             if (keystore == null || !keystoreFileExists()) {
                 String jenkinsHome = jenkins.model.Jenkins.get().getRootDir().getPath();
@@ -113,32 +153,133 @@ public class BundleKeyStore {
             }
             ksPkAlias = DEFAULT_KEY_ALIAS;
             KeyStore ks = loadKeyStore(keystore, ksPassword.getPlainText());
-            KeyPair keypair = generate();
-            X509Certificate[] chain = createCertificateChain(keypair);
             ks.setKeyEntry(
                     ksPkAlias, keypair.getPrivate(), ksPkPassword.getPlainText().toCharArray(), chain);
             saveKeyStore(keystore, ks, ksPassword.getPlainText());
+            dateValidity = chain[0].getNotAfter();
+            successorAlias = null;
+            successorValidity = null;
             LOG.warning("Using automatic generated keystore : " + keystorePath);
-            try {
-                config.write(this);
-            } catch (IOException e) {
-                LOG.log(
-                        WARNING,
-                        "It is not possible to write the configuration file "
-                                + config.getFile().getAbsolutePath(),
-                        e);
-            }
+            save();
         } catch (Exception e) {
+            useDemoKeyStore(e);
+        }
+    }
+
+    private synchronized void useDemoKeyStore(Exception e) {
+        LOG.log(
+                SEVERE,
+                "Error accessing to " + SAML_JENKINS_KEYSTORE_JKS + " keystore file, check the "
+                        + "troubleshooting guide https://github.com/jenkinsci/saml-plugin/blob/master/doc/TROUBLESHOOTING.md",
+                e);
+        LOG.warning("Using bundled keystore : " + PAC4J_DEMO_KEYSTORE);
+        ksPassword = Secret.fromString(PAC4J_DEMO_PASSWD);
+        ksPkPassword = Secret.fromString(PAC4J_DEMO_PASSWD);
+        keystorePath = PAC4J_DEMO_KEYSTORE;
+        ksPkAlias = PAC4J_DEMO_ALIAS;
+    }
+
+    /**
+     * Generate the key that replaces the current one when it expires. Until then both are published in the SP
+     * metadata, so the IdP can learn the new certificate before it is used.
+     */
+    public void rotate() {
+        synchronized (this) {
+            if (isUsingDemoKeyStore() || successorAlias != null) {
+                return;
+            }
+        }
+        try {
+            // the key is generated without holding the key store, the logins keep reading it meanwhile
+            KeyPair keypair = generate();
+            X509Certificate[] chain = createCertificateChain(keypair);
+            synchronized (this) {
+                if (successorAlias != null) {
+                    return;
+                }
+                KeyStore ks = loadKeyStore(keystore, ksPassword.getPlainText());
+                String alias = DEFAULT_KEY_ALIAS + "-" + System.currentTimeMillis();
+                ks.setKeyEntry(alias, keypair.getPrivate(), ksPkPassword.getPlainText().toCharArray(), chain);
+                saveKeyStore(keystore, ks, ksPassword.getPlainText());
+                successorAlias = alias;
+                successorValidity = chain[0].getNotAfter();
+                save();
+                LOG.info("Generated the SP key " + alias + ", it replaces the current one on " + dateValidity);
+            }
+        } catch (GeneralSecurityException | IOException | OperatorCreationException e) {
+            LOG.log(SEVERE, "Error generating the successor key in " + keystorePath, e);
+        }
+    }
+
+    /**
+     * Make the successor key the active one if the current one has expired, the expired key is removed.
+     * A certificate is never used once it has expired, even if the successor was published late.
+     *
+     * @return true if the successor key is the active one now.
+     */
+    public synchronized boolean promote() {
+        if (successorAlias == null || !isExpired()) {
+            return false;
+        }
+        try {
+            KeyStore ks = loadKeyStore(keystore, ksPassword.getPlainText());
+            if (!ksPkAlias.equals(successorAlias) && ks.containsAlias(ksPkAlias)) {
+                ks.deleteEntry(ksPkAlias);
+                saveKeyStore(keystore, ks, ksPassword.getPlainText());
+            }
+        } catch (GeneralSecurityException | IOException e) {
+            LOG.log(WARNING, "Could not remove the expired key " + ksPkAlias + " from " + keystorePath, e);
+        }
+        LOG.info("Using the SP key " + successorAlias + " instead of the expired " + ksPkAlias);
+        ksPkAlias = successorAlias;
+        dateValidity = successorValidity;
+        successorAlias = null;
+        successorValidity = null;
+        save();
+        return true;
+    }
+
+    /**
+     * @return true if the key expires within the overlap window and there is no successor key yet.
+     */
+    public synchronized boolean isRotationDue() {
+        if (isUsingDemoKeyStore() || successorAlias != null || dateValidity == null) {
+            return false;
+        }
+        return System.currentTimeMillis() >= dateValidity.getTime() - TimeUnit.DAYS.toMillis(overlapDays);
+    }
+
+    /**
+     * @return true if the active key has expired.
+     */
+    public synchronized boolean isExpired() {
+        return !isUsingDemoKeyStore() && dateValidity != null && !new Date().before(dateValidity);
+    }
+
+    /**
+     * @return the alias of the successor key, null if there is no rotation in progress.
+     */
+    @CheckForNull
+    public synchronized String getSuccessorAlias() {
+        return successorAlias;
+    }
+
+    /**
+     * @return the date the active key expires.
+     */
+    @CheckForNull
+    public synchronized Date getDateValidity() {
+        return dateValidity != null ? new Date(dateValidity.getTime()) : null;
+    }
+
+    private void save() {
+        try {
+            config.write(this);
+        } catch (IOException e) {
             LOG.log(
-                    SEVERE,
-                    "Error accessing to " + SAML_JENKINS_KEYSTORE_JKS + " keystore file, check the "
-                            + "troubleshooting guide https://github.com/jenkinsci/saml-plugin/blob/master/doc/TROUBLESHOOTING.md",
+                    WARNING,
+                    "It is not possible to write the configuration file " + config.getFile().getAbsolutePath(),
                     e);
-            LOG.warning("Using bundled keystore : " + PAC4J_DEMO_KEYSTORE);
-            ksPassword = Secret.fromString(PAC4J_DEMO_PASSWD);
-            ksPkPassword = Secret.fromString(PAC4J_DEMO_PASSWD);
-            keystorePath = PAC4J_DEMO_KEYSTORE;
-            ksPkAlias = PAC4J_DEMO_ALIAS;
         }
     }
 
@@ -193,6 +334,8 @@ public class BundleKeyStore {
             throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException {
         try (FileOutputStream fos = new FileOutputStream(keystore)) {
             ks.store(fos, password.toCharArray());
+        } finally {
+            SamlFileResourceMemory.touched(keystore.toPath());
         }
     }
 
@@ -259,7 +402,6 @@ public class BundleKeyStore {
 
         X500Name dn = new X500Name(BundleKeyStore.CN_SAML_JENKINS);
         Date notAfter = new Date(notBefore.getTime() + validity * 1000L);
-        dateValidity = notAfter;
         X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(
                 dn, new BigInteger(160, new SecureRandom()), notBefore, notAfter, dn, keyPair.getPublic());
 
@@ -305,29 +447,41 @@ public class BundleKeyStore {
      */
     public synchronized boolean isValid() {
         boolean notExpired = false;
-        boolean fileExists = keystoreFileExists();
-        boolean keysExists = false;
 
         if (dateValidity != null) {
             Calendar validity = Calendar.getInstance();
             validity.setTime(dateValidity);
             notExpired = Calendar.getInstance().compareTo(validity) <= 0;
         }
-        if (fileExists) {
-            try {
-                KeyStore ks = loadKeyStore(keystore, ksPassword.getPlainText());
-                keysExists = ks.getKey(ksPkAlias, ksPkPassword.getPlainText().toCharArray()) != null;
-            } catch (KeyStoreException
-                    | IOException
-                    | CertificateException
-                    | NoSuchAlgorithmException
-                    | UnrecoverableKeyException e) {
-                LOG.log(WARNING, "THe keystore is not accessible", e);
-                //noinspection ConstantConditions
-                keysExists = false;
-            }
+        return notExpired && hasKey();
+    }
+
+    /**
+     * @return true if the key store file has the active key, expired or not. The key store is only read again if
+     * the file or the alias changed since the key was found.
+     */
+    public synchronized boolean hasKey() {
+        if (!keystoreFileExists()) {
+            return false;
+        }
+        String stamp = SamlKeyRing.getFileStamp(keystore.getPath()) + "#" + ksPkAlias;
+        if (stamp.equals(keyFoundIn)) {
+            return true;
+        }
+        boolean keysExists;
+        try {
+            KeyStore ks = loadKeyStore(keystore, ksPassword.getPlainText());
+            keysExists = ks.getKey(ksPkAlias, ksPkPassword.getPlainText().toCharArray()) != null;
+        } catch (KeyStoreException
+                | IOException
+                | CertificateException
+                | NoSuchAlgorithmException
+                | UnrecoverableKeyException e) {
+            LOG.log(WARNING, "THe keystore is not accessible", e);
+            keysExists = false;
         }
-        return notExpired && fileExists && keysExists;
+        keyFoundIn = keysExists ? stamp : null;
+        return keysExists;
     }
 
     /**
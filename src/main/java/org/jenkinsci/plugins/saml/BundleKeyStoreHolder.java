@@ -0,0 +1,103 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Holds the {@link BundleKeyStore} used when no key store is set in the encryption settings.
+ * <p>
+ * It is created the first time it is needed, so Jenkins does not read JENKINS_HOME/saml-jenkins-keystore.xml
+ * when it starts or when a custom key store is configured, and it is read again after {@link #reload()}.
+ * The keys are only generated, rotated and promoted by {@link #maintain()}, in the background, the logins only read
+ * the current key.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class BundleKeyStoreHolder {
+    private static final Logger LOG = Logger.getLogger(BundleKeyStoreHolder.class.getName());
+
+    private BundleKeyStore keyStore;
+
+    /**
+     * only one maintenance at a time, the logins do not wait for it.
+     */
+    private final Object maintenance = new Object();
+
+    @NonNull
+    public static BundleKeyStoreHolder get() {
+        return ExtensionList.lookupSingleton(BundleKeyStoreHolder.class);
+    }
+
+    /**
+     * @return the bundled key store with its current key. Until {@link #maintain()} generates the first key it uses
+     * the demo key store of pac4j.
+     */
+    @NonNull
+    public synchronized BundleKeyStore getKeyStore() {
+        if (keyStore == null) {
+            keyStore = new BundleKeyStore();
+        }
+        return keyStore;
+    }
+
+    /**
+     * Generate the key if there is none, generate the successor key if it is due or if the current key expired
+     * without one, and promote the successor once the current key has expired.
+     */
+    public void maintain() {
+        synchronized (maintenance) {
+            BundleKeyStore ks = getKeyStore();
+            if (!ks.hasKey()) {
+                ks.init();
+            }
+            if (ks.isRotationDue()) {
+                // also due if the key expired without a successor, then the successor is used at once
+                ks.rotate();
+            }
+            ks.promote();
+        }
+    }
+
+    /**
+     * Run {@link #maintain()} in the background.
+     */
+    public void maintainLater() {
+        Timer.get().submit(() -> {
+            try {
+                maintain();
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Could not maintain the bundled key store", e);
+            }
+        });
+    }
+
+    /**
+     * Forget the bundled key store, it is read again from JENKINS_HOME the next time it is needed.
+     */
+    public synchronized void reload() {
+        keyStore = null;
+    }
+}
@@ -0,0 +1,77 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * <p>This periodic work generates and rotates the key of the bundled key store, the login never generates keys.
+ * It runs at startup to catch up a rotation missed while Jenkins was stopped.</p>
+ * <p>When the key is about to expire (see {@link BundleKeyStore#OVERLAP_PROPERTY}) the successor key is generated and
+ * published in the SP metadata along with the current one, once the current key expires the successor is promoted.
+ * It does nothing if a key store is set in the encryption settings.</p>
+ */
+@Extension
+public class BundleKeyStoreRotation extends AsyncPeriodicWork {
+
+    /**
+     * {@inheritDoc}
+     */
+    @SuppressWarnings("unused")
+    public BundleKeyStoreRotation() {
+        super("SAML bundled key store rotation");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.HOURS.toMillis(1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getInitialDelay() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Generate the first key if there is none, the successor key if it is due, and promote it if the current
+     * key has expired.</p>
+     */
+    @Override
+    protected void execute(TaskListener listener) {
+        if (!(Jenkins.get().getSecurityRealm() instanceof SamlSecurityRealm samlSecurityRealm)) {
+            return;
+        }
+        SamlEncryptionData encryptionData = samlSecurityRealm.getEncryptionData();
+        if (encryptionData != null && StringUtils.isNotBlank(encryptionData.getKeystorePath())) {
+            return;
+        }
+        BundleKeyStoreHolder.get().maintain();
+    }
+}
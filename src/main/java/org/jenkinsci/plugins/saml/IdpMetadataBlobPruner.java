@@ -0,0 +1,84 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Remove the IdP Metadata documents of {@link IdpMetadataBlobStore} that are not used anymore, once the Jenkins
+ * configuration is saved.
+ * <p>
+ * The document of the previous configuration is kept, so the previous config.xml can be restored, and the other
+ * documents are kept for {@link IdpMetadataBlobStore#RETENTION_PROPERTY} days.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class IdpMetadataBlobPruner extends SaveableListener {
+
+    /**
+     * Digest of the IdP Metadata in the saved configuration.
+     */
+    private static String saved;
+
+    /**
+     * Digest of the IdP Metadata in the configuration saved before.
+     */
+    private static String previous;
+
+    /**
+     * Record the IdP Metadata of the configuration loaded from disk.
+     *
+     * @param digest digest of the IdP Metadata, null if it is not stored out of the configuration.
+     */
+    static synchronized void loaded(String digest) {
+        saved = digest;
+        previous = null;
+    }
+
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+        if (o instanceof Jenkins jenkins
+                && jenkins.getSecurityRealm() instanceof SamlSecurityRealm realm
+                && realm.getIdpMetadataConfiguration() != null) {
+            saved(realm.getIdpMetadataConfiguration().getXmlDigest());
+        }
+    }
+
+    /**
+     * @param digest digest of the IdP Metadata in the configuration just saved.
+     */
+    static synchronized void saved(String digest) {
+        if (!Objects.equals(digest, saved)) {
+            previous = saved;
+            saved = digest;
+        }
+        Set<String> keep = new HashSet<>();
+        keep.add(saved);
+        keep.add(previous);
+        IdpMetadataBlobStore.prune(keep);
+    }
+}
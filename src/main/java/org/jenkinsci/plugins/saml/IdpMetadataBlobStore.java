@@ -0,0 +1,150 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.model.Jenkins;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Stores the inline IdP Metadata out of the Jenkins configuration, in JENKINS_HOME/saml-idp-metadata/.
+ * <p>
+ * Each document is saved compressed in a file named by the SHA-256 digest of its content, so a file never changes
+ * once written, and the configuration only keeps the digest. The documents that are not used anymore are removed
+ * after the configuration is saved, see {@link IdpMetadataBlobPruner}.
+ */
+@Restricted(NoExternalUse.class)
+final class IdpMetadataBlobStore {
+    private static final Logger LOG = Logger.getLogger(IdpMetadataBlobStore.class.getName());
+
+    static final String FOLDER_NAME = "saml-idp-metadata";
+    private static final String EXTENSION = ".xml.gz";
+
+    /**
+     * property to set the days an unused IdP Metadata file is kept, to restore a backup of the configuration.
+     * -Dorg.jenkinsci.plugins.saml.IdpMetadataBlobStore.retentionDays=DAYS
+     */
+    public static final String RETENTION_PROPERTY = IdpMetadataBlobStore.class.getName() + ".retentionDays";
+
+    public static final long RETENTION = 30;
+
+    static long retentionDays = NumberUtils.toLong(System.getProperty(RETENTION_PROPERTY), RETENTION);
+
+    private IdpMetadataBlobStore() {}
+
+    /**
+     * @param xml IdP Metadata XML.
+     * @return the digest of the content, used to load it.
+     * @throws IOException in case of error writing the file.
+     */
+    @NonNull
+    static String store(@NonNull String xml) throws IOException {
+        byte[] data = xml.getBytes(StandardCharsets.UTF_8);
+        String digest = DigestUtils.sha256Hex(data);
+        Path file = getFile(digest);
+        if (Files.exists(file)) {
+            // in use again, it starts a new retention period
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return digest;
+        }
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), digest, ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                out.write(data);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        LOG.log(Level.FINE, "IdP Metadata stored in {0}", file);
+        return digest;
+    }
+
+    /**
+     * @param digest digest returned by {@link #store(String)}.
+     * @return the IdP Metadata XML.
+     * @throws IOException if the file can not be read or its content does not match the digest.
+     */
+    @NonNull
+    static String load(@NonNull String digest) throws IOException {
+        byte[] data;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(getFile(digest)))) {
+            data = in.readAllBytes();
+        }
+        if (!digest.equals(DigestUtils.sha256Hex(data))) {
+            throw new IOException("The IdP Metadata file " + getFile(digest) + " is corrupted");
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Remove the stored documents that are not referenced anymore and were not used in the retention period.
+     *
+     * @param keep digests in use, it can contain null.
+     */
+    static void prune(@NonNull Set<String> keep) {
+        Path folder = Jenkins.get().getRootDir().toPath().resolve(FOLDER_NAME);
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        long limit = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!keep.contains(name.substring(0, name.length() - EXTENSION.length()))
+                        && Files.getLastModifiedTime(file).toMillis() <= limit) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not remove the unused IdP Metadata files", e);
+        }
+    }
+
+    @NonNull
+    private static Path getFile(@NonNull String digest) {
+        if (!digest.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("Invalid IdP Metadata digest " + digest);
+        }
+        return Jenkins.get().getRootDir().toPath().resolve(FOLDER_NAME).resolve(digest + EXTENSION);
+    }
+}
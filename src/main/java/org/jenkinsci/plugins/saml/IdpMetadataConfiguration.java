@@ -2,38 +2,31 @@ package org.jenkinsci.plugins.saml;
 
 import static org.jenkinsci.plugins.saml.SamlSecurityRealm.ERROR_IDP_METADATA_EMPTY;
 import static org.jenkinsci.plugins.saml.SamlSecurityRealm.ERROR_MALFORMED_URL;
+import static org.jenkinsci.plugins.saml.SamlSecurityRealm.ERROR_MDQ_NOT_SET;
 import static org.jenkinsci.plugins.saml.SamlSecurityRealm.NOT_POSSIBLE_TO_GET_THE_METADATA;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
-import hudson.ProxyConfiguration;
+import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
 import hudson.util.FormValidation;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 import jenkins.model.Jenkins;
-import jenkins.util.xml.XMLUtils;
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.interceptor.RequirePOST;
-import org.xml.sax.SAXException;
 
 /**
  * Class to store the info about how to manage the IdP Metadata.
@@ -41,15 +34,55 @@ import org.xml.sax.SAXException;
 public class IdpMetadataConfiguration extends AbstractDescribableImpl<IdpMetadataConfiguration> {
     private static final Logger LOG = Logger.getLogger(IdpMetadataConfiguration.class.getName());
 
+    /**
+     * property to set the connection timeout of the IdP Metadata download.
+     * -Dorg.jenkinsci.plugins.saml.IdpMetadataConfiguration.connectTimeout=MILLISECONDS
+     */
+    public static final String CONNECT_TIMEOUT_PROPERTY = IdpMetadataConfiguration.class.getName() + ".connectTimeout";
+
+    public static final int CONNECT_TIMEOUT = Integer.parseInt(System.getProperty(CONNECT_TIMEOUT_PROPERTY, "10000"));
+
+    /**
+     * property to set the read timeout of the IdP Metadata download.
+     * -Dorg.jenkinsci.plugins.saml.IdpMetadataConfiguration.readTimeout=MILLISECONDS
+     */
+    public static final String READ_TIMEOUT_PROPERTY = IdpMetadataConfiguration.class.getName() + ".readTimeout";
+
+    public static final int READ_TIMEOUT = Integer.parseInt(System.getProperty(READ_TIMEOUT_PROPERTY, "30000"));
+
     /**
      * IdP Metadata on XML format, it implies there are not automatic updates.
+     * Only set on configurations saved by older versions, or if the metadata could not be stored out of the
+     * configuration, it is moved to {@link IdpMetadataBlobStore} on load.
      */
     private String xml;
 
+    /**
+     * Digest of the IdP Metadata XML stored in {@link IdpMetadataBlobStore}.
+     */
+    private String xmlDigest;
+
+    /**
+     * IdP Metadata XML loaded from {@link IdpMetadataBlobStore}.
+     */
+    private transient String xmlCache;
+
     /**
      * URL to update the IdP Metadata from.
      */
     private String url;
+    /**
+     * Other URLs with the same IdP Metadata, one per line, used when the URL is slow or down.
+     */
+    private String mirrorUrls;
+    /**
+     * Base URL of a Metadata Query Protocol (MDQ) server to take the IdP entity descriptor from.
+     */
+    private String mdqUrl;
+    /**
+     * entityID of the IdP to request to the MDQ server.
+     */
+    private String mdqEntityId;
     /**
      * Period in minutes between each IdP Metadata update.
      */
@@ -63,7 +96,7 @@ public class IdpMetadataConfiguration extends AbstractDescribableImpl<IdpMetadat
      */
     @DataBoundConstructor
     public IdpMetadataConfiguration(String xml, String url, Long period) {
-        this.xml = xml;
+        setXmlContent(xml);
         this.url = url;
         if (StringUtils.isBlank(url) || period == null) {
             this.period = 0L;
@@ -77,7 +110,7 @@ public class IdpMetadataConfiguration extends AbstractDescribableImpl<IdpMetadat
      * @param xml IdP Metadata XML.
      */
     public IdpMetadataConfiguration(@NonNull String xml) {
-        this.xml = xml;
+        setXmlContent(xml);
         this.period = 0L;
     }
 
@@ -91,37 +124,174 @@ public class IdpMetadataConfiguration extends AbstractDescribableImpl<IdpMetadat
         this.period = period;
     }
 
+    private IdpMetadataConfiguration(@NonNull IdpMetadataConfiguration other) {
+        this.xml = other.xml;
+        this.xmlDigest = other.xmlDigest;
+        this.xmlCache = other.xmlCache;
+        this.url = other.url;
+        this.mirrorUrls = other.mirrorUrls;
+        this.mdqUrl = other.mdqUrl;
+        this.mdqEntityId = other.mdqEntityId;
+        this.period = other.period;
+    }
+
+    /**
+     * @return a copy, the settings of the security realm can not change through it.
+     */
+    @NonNull
+    IdpMetadataConfiguration copy() {
+        return new IdpMetadataConfiguration(this);
+    }
+
+    /**
+     * Keep the IdP Metadata XML out of the configuration, inline only if it can not be stored.
+     */
+    private void setXmlContent(String xml) {
+        this.xml = xml;
+        if (StringUtils.isBlank(xml)) {
+            return;
+        }
+        try {
+            xmlDigest = IdpMetadataBlobStore.store(xml);
+            xmlCache = xml;
+            this.xml = null;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not store the IdP Metadata out of the configuration", e);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private Object readResolve() {
+        if (StringUtils.isNotBlank(xml)) {
+            setXmlContent(xml);
+        }
+        return this;
+    }
+
     public String getXml() {
-        return xml;
+        if (xml != null || xmlDigest == null) {
+            return xml;
+        }
+        String ret = xmlCache;
+        if (ret == null) {
+            try {
+                ret = IdpMetadataBlobStore.load(xmlDigest);
+                xmlCache = ret;
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Could not load the IdP Metadata " + xmlDigest, e);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the digest of the IdP Metadata XML stored out of the configuration, null if there is none.
+     */
+    String getXmlDigest() {
+        return xml == null ? xmlDigest : null;
     }
 
     public String getUrl() {
         return url;
     }
 
+    public String getMirrorUrls() {
+        return mirrorUrls;
+    }
+
+    @DataBoundSetter
+    public void setMirrorUrls(String mirrorUrls) {
+        this.mirrorUrls = Util.fixEmptyAndTrim(mirrorUrls);
+    }
+
+    public String getMdqUrl() {
+        return mdqUrl;
+    }
+
+    @DataBoundSetter
+    public void setMdqUrl(String mdqUrl) {
+        this.mdqUrl = Util.fixEmptyAndTrim(mdqUrl);
+    }
+
+    public String getMdqEntityId() {
+        return mdqEntityId;
+    }
+
+    @DataBoundSetter
+    public void setMdqEntityId(String mdqEntityId) {
+        this.mdqEntityId = Util.fixEmptyAndTrim(mdqEntityId);
+    }
+
+    /**
+     * @return true if the IdP Metadata comes from a MDQ server.
+     */
+    boolean isMdq() {
+        return mdqUrl != null && mdqEntityId != null;
+    }
+
+    /**
+     * @return the URL and the mirror URLs, in the configured order.
+     */
+    @NonNull
+    List<String> getUrls() {
+        List<String> ret = new ArrayList<>();
+        if (StringUtils.isNotBlank(url)) {
+            ret.add(url.trim());
+        }
+        for (String mirror : StringUtils.split(StringUtils.defaultString(mirrorUrls), "\n\r")) {
+            if (StringUtils.isNotBlank(mirror) && !ret.contains(mirror.trim())) {
+                ret.add(mirror.trim());
+            }
+        }
+        return ret;
+    }
+
     public Long getPeriod() {
         return period;
     }
 
+    /**
+     * @return the period between updates of the IdP Metadata in milliseconds, 0 if it is not updated.
+     * The entity from a MDQ server is always revalidated, by default as its cacheDuration says.
+     */
+    long getPeriodMillis() {
+        if (isMdq()) {
+            return period != null && period > 0
+                    ? TimeUnit.MINUTES.toMillis(period)
+                    : IdpMetadataRefreshSchedule.MAX_DELAY;
+        }
+        return period != null && StringUtils.isNotBlank(url) ? TimeUnit.MINUTES.toMillis(period) : 0;
+    }
+
+    /**
+     * @return when the IdP Metadata will be downloaded again, null if it is not downloaded from an URL.
+     */
+    @CheckForNull
+    public String getRefreshSchedule() {
+        return getPeriodMillis() > 0 ? IdpMetadataRefreshSchedule.get().getDescription() : null;
+    }
+
     /**
      * @return Return the Idp Metadata from the XML file JENKINS_HOME/saml-idp.metadata.xml.
      * @throws IOException in case it can not read the IdP Metadata file.
      */
     public String getIdpMetadata() throws IOException {
-        return FileUtils.readFileToString(new File(SamlSecurityRealm.getIDPMetadataFilePath()), StandardCharsets.UTF_8);
+        return new String(SamlFileResource.read(SamlSecurityRealm.getIDPMetadataFilePath()), StandardCharsets.UTF_8);
     }
 
     /**
      * Creates the IdP Metadata file (saml-idp.metadata.xml) in JENKINS_HOME using the configuration.
+     * If the IdP Metadata comes from an URL it is downloaded in the background, see {@link IdpMetadataRefresher}.
      * @throws IOException in case of error writing the file.
      */
     public void createIdPMetadataFile() throws IOException {
         try {
-            if (StringUtils.isNotBlank(xml)) {
-                Files.write(
-                        new File(SamlSecurityRealm.getIDPMetadataFilePath()).toPath(),
-                        List.of(xml),
-                        StandardCharsets.UTF_8);
+            String metadata = getXml();
+            if (StringUtils.isNotBlank(metadata)) {
+                SamlFileResource.write(SamlSecurityRealm.getIDPMetadataFilePath(), metadata + System.lineSeparator());
+            } else if (StringUtils.isNotBlank(url) || isMdq()) {
+                checkUrls();
+                IdpMetadataRefresher.schedule(this);
             } else {
                 updateIdPMetadata();
             }
@@ -130,30 +300,92 @@ public class IdpMetadataConfiguration extends AbstractDescribableImpl<IdpMetadat
         }
     }
 
+    /**
+     * Check the URLs before the download in the background, so a malformed URL fails when the configuration is saved.
+     *
+     * @throws IOException if an URL is malformed.
+     */
+    private void checkUrls() throws IOException {
+        List<String> urls = isMdq() ? List.of(mdqUrl) : getUrls();
+        for (String candidate : urls) {
+            try {
+                new URL(candidate.trim());
+            } catch (MalformedURLException e) {
+                throw new IOException(ERROR_MALFORMED_URL + " " + candidate, e);
+            }
+        }
+    }
+
     /**
      * Gets the IdP Metadata from an URL, then validate it and write it to a file (JENKINS_HOME/saml-idp.metadata.xml).
+     * If there are mirror URLs they are tried in the order given by {@link IdpMetadataMirrors} until one works.
+     * If a MDQ server is set, only the IdP entity is requested to it, see {@link IdpMetadataMdq}.
      * @throws IOException in case of error writing the file or validating the content.
      */
     public void updateIdPMetadata() throws IOException {
+        List<String> urls = getUrls();
+        if (!isMdq()) {
+            IdpMetadataMirrors.retain(urls);
+        }
+        String idpXml = null;
         try {
-            URLConnection urlConnection = ProxyConfiguration.open(new URL(url));
-            try (InputStream in = urlConnection.getInputStream()) {
-                StringWriter writer = new StringWriter();
-                XMLUtils.safeTransform(new StreamSource(in), new StreamResult(writer));
-                String idpXml = writer.toString();
-
-                FormValidation validation = new SamlValidateIdPMetadata(idpXml).get();
-                if (FormValidation.Kind.OK == validation.kind) {
-                    Files.write(
-                            new File(SamlSecurityRealm.getIDPMetadataFilePath()).toPath(),
-                            List.of(idpXml),
-                            StandardCharsets.UTF_8);
-                } else {
-                    throw new IllegalArgumentException(validation.getMessage());
+            if (isMdq()) {
+                idpXml = IdpMetadataMdq.fetch(mdqUrl, mdqEntityId);
+            } else if (urls.isEmpty()) {
+                throw new IOException("There is no IdP Metadata URL to update the IdP Metadata from");
+            } else if (urls.size() == 1) {
+                idpXml = download(urls.get(0));
+            } else {
+                IOException failure = new IOException("Was not possible to update the IdP Metadata from any URL");
+                for (String mirror : IdpMetadataMirrors.order(urls)) {
+                    try {
+                        idpXml = download(mirror);
+                        break;
+                    } catch (IOException | IllegalArgumentException e) {
+                        LOG.log(Level.WARNING, e.getMessage() + ", trying the next URL", e);
+                        failure.addSuppressed(e);
+                    }
+                }
+                if (idpXml == null) {
+                    throw failure;
                 }
             }
-        } catch (IOException | TransformerException | SAXException e) {
-            throw new IOException("Was not possible to update the IdP Metadata from the URL " + url, e);
+        } catch (IOException | IllegalArgumentException e) {
+            IdpMetadataRefreshSchedule.get().onFailure(getPeriodMillis());
+            throw e;
+        }
+        if (SamlFileResource.write(SamlSecurityRealm.getIDPMetadataFilePath(), idpXml + System.lineSeparator())) {
+            IdpMetadataSnapshot.save();
+        }
+        IdpMetadataRefreshSchedule.get().onSuccess(idpXml, getPeriodMillis());
+    }
+
+    /**
+     * Gets the IdP Metadata from one of the URLs and validate it.
+     * @param source URL to download.
+     * @return the IdP Metadata XML.
+     * @throws IOException in case of error downloading the content.
+     * @throws IllegalArgumentException if the content is not valid.
+     */
+    private String download(String source) throws IOException {
+        long start = System.currentTimeMillis();
+        try {
+            String idpXml = IdpMetadataHttpClient.get(source, in -> {
+                SamlValidateIdPMetadata validator = new SamlValidateIdPMetadata(in);
+                FormValidation validation = validator.get();
+                if (FormValidation.Kind.OK != validation.kind) {
+                    throw new IllegalArgumentException(validation.getMessage());
+                }
+                return validator.getValidatedIdpMetadata();
+            });
+            IdpMetadataMirrors.success(StringUtils.defaultString(source), System.currentTimeMillis() - start);
+            return idpXml;
+        } catch (IllegalArgumentException e) {
+            IdpMetadataMirrors.failure(StringUtils.defaultString(source), System.currentTimeMillis() - start);
+            throw e;
+        } catch (IOException e) {
+            IdpMetadataMirrors.failure(StringUtils.defaultString(source), System.currentTimeMillis() - start);
+            throw new IOException("Was not possible to update the IdP Metadata from the URL " + source, e);
         }
     }
 
@@ -165,10 +397,19 @@ public class IdpMetadataConfiguration extends AbstractDescribableImpl<IdpMetadat
         final StringBuilder sb = new StringBuilder("IdpMetadataConfiguration{");
         if (xml != null) {
             sb.append("xml='…").append(xml.length()).append(" chars…'");
+        } else if (xmlDigest != null) {
+            sb.append("xmlDigest='").append(xmlDigest).append('\'');
         } else {
             sb.append("xml=null");
         }
         sb.append(", url='").append(url).append('\'');
+        if (mirrorUrls != null) {
+            sb.append(", mirrorUrls='").append(mirrorUrls).append('\'');
+        }
+        if (isMdq()) {
+            sb.append(", mdqUrl='").append(mdqUrl).append('\'');
+            sb.append(", mdqEntityId='").append(mdqEntityId).append('\'');
+        }
         sb.append(", period=").append(period);
         sb.append('}');
         return sb.toString();
@@ -208,9 +449,12 @@ public class IdpMetadataConfiguration extends AbstractDescribableImpl<IdpMetadat
         }
 
         @RequirePOST
-        public FormValidation doCheckXml(@QueryParameter("xml") String xml, @QueryParameter("url") String url) {
+        public FormValidation doCheckXml(
+                @QueryParameter("xml") String xml,
+                @QueryParameter("url") String url,
+                @QueryParameter("mdqUrl") String mdqUrl) {
             Jenkins.get().checkPermission(Jenkins.ADMINISTER);
-            if (StringUtils.isBlank(xml) && StringUtils.isBlank(url)) {
+            if (StringUtils.isBlank(xml) && StringUtils.isBlank(url) && StringUtils.isBlank(mdqUrl)) {
                 return FormValidation.error(ERROR_IDP_METADATA_EMPTY);
             }
 
@@ -232,22 +476,44 @@ public class IdpMetadataConfiguration extends AbstractDescribableImpl<IdpMetadat
         }
 
         @RequirePOST
-        public FormValidation doTestIdpMetadataURL(@QueryParameter("url") String url) {
-            URLConnection urlConnection;
+        public FormValidation doCheckMirrorUrls(@QueryParameter("mirrorUrls") String mirrorUrls) {
             Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            for (String mirror : StringUtils.split(StringUtils.defaultString(mirrorUrls), "\n\r")) {
+                try {
+                    new URL(mirror.trim());
+                } catch (MalformedURLException e) {
+                    return FormValidation.error(ERROR_MALFORMED_URL + " " + mirror, e);
+                }
+            }
+            return FormValidation.ok();
+        }
+
+        @RequirePOST
+        public FormValidation doTestMdq(
+                @QueryParameter("mdqUrl") String mdqUrl, @QueryParameter("mdqEntityId") String mdqEntityId) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            if (StringUtils.isBlank(mdqUrl) || StringUtils.isBlank(mdqEntityId)) {
+                return FormValidation.error(ERROR_MDQ_NOT_SET);
+            }
+            String entityUrl = IdpMetadataMdq.getEntityUrl(mdqUrl, mdqEntityId);
             try {
-                urlConnection = ProxyConfiguration.open(new URL(url));
+                return IdpMetadataHttpClient.get(entityUrl, in -> new SamlValidateIdPMetadata(in).get());
             } catch (IOException e) {
                 LOG.log(Level.SEVERE, e.getMessage(), e);
-                return FormValidation.error(NOT_POSSIBLE_TO_GET_THE_METADATA + url);
+                return FormValidation.error(NOT_POSSIBLE_TO_GET_THE_METADATA + entityUrl);
             }
+        }
 
-            try (InputStream in = urlConnection.getInputStream()) {
-                String xml =
-                        IOUtils.toString(in, StringUtils.defaultIfEmpty(urlConnection.getContentEncoding(), "UTF-8"));
-                return new SamlValidateIdPMetadata(xml).get();
+        @RequirePOST
+        public FormValidation doTestIdpMetadataURL(@QueryParameter("url") String url) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            try {
+                new URL(url);
             } catch (MalformedURLException e) {
                 return FormValidation.error(ERROR_MALFORMED_URL);
+            }
+            try {
+                return IdpMetadataHttpClient.get(url, in -> new SamlValidateIdPMetadata(in).get());
             } catch (IOException e) {
                 LOG.log(Level.SEVERE, e.getMessage(), e);
                 return FormValidation.error(NOT_POSSIBLE_TO_GET_THE_METADATA + url);
@@ -0,0 +1,52 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Shows in Manage Jenkins that the IdP Metadata could not be downloaded, the configuration is saved without waiting
+ * for the download. It goes away once a download works.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class IdpMetadataDownloadMonitor extends AdministrativeMonitor {
+
+    @Override
+    public String getDisplayName() {
+        return "SAML IdP Metadata download";
+    }
+
+    @Override
+    public boolean isActivated() {
+        return IdpMetadataRefresher.getFailure() != null;
+    }
+
+    /**
+     * @return the message of the last download if it failed.
+     */
+    @CheckForNull
+    public String getFailure() {
+        return IdpMetadataRefresher.getFailure();
+    }
+}
@@ -0,0 +1,287 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.jenkinsci.plugins.saml.IdpMetadataConfiguration.CONNECT_TIMEOUT;
+import static org.jenkinsci.plugins.saml.IdpMetadataConfiguration.READ_TIMEOUT;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import hudson.init.Terminator;
+import hudson.util.Secret;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.Credentials;
+import org.apache.hc.client5.http.auth.CredentialsProvider;
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.routing.DefaultRoutePlanner;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Shared HTTP client to download the IdP Metadata.
+ * <p>
+ * The connections are pooled, the responses are decompressed if the server sends them compressed (the client
+ * asks for gzip and deflate), the Jenkins proxy configuration is read on each request, and the connection,
+ * the read and the wait for a pooled connection have a timeout. The body is given to the caller as a stream, so it
+ * can be parsed while it is downloaded. URLs that are not http or https are opened with {@link ProxyConfiguration}.
+ */
+@Restricted(NoExternalUse.class)
+public final class IdpMetadataHttpClient {
+    private static final Logger LOG = Logger.getLogger(IdpMetadataHttpClient.class.getName());
+
+    /**
+     * timeouts of the client in milliseconds, not final for the tests, the client is built again after
+     * {@link #shutdown()}.
+     */
+    static int connectTimeout = CONNECT_TIMEOUT;
+
+    static int readTimeout = READ_TIMEOUT;
+
+    private static CloseableHttpClient client;
+
+    private IdpMetadataHttpClient() {}
+
+    /**
+     * Process the content of an URL as it is downloaded.
+     *
+     * @param <T> process return type
+     */
+    @FunctionalInterface
+    interface ContentHandler<T> {
+        T handle(@NonNull InputStream in) throws IOException;
+    }
+
+    /**
+     * @param url URL to download.
+     * @param handler process of the content.
+     * @param <T> process return type
+     * @return the value returned by the handler.
+     * @throws IOException if the URL can not be downloaded or the server does not return 200.
+     */
+    static <T> T get(@CheckForNull String url, @NonNull ContentHandler<T> handler) throws IOException {
+        URI uri;
+        try {
+            uri = new URI(StringUtils.trimToEmpty(url));
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url, e);
+        }
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            URLConnection urlConnection = ProxyConfiguration.open(new URL(url));
+            urlConnection.setConnectTimeout(connectTimeout);
+            urlConnection.setReadTimeout(readTimeout);
+            try (InputStream in = urlConnection.getInputStream()) {
+                return handler.handle(in);
+            }
+        }
+        return getClient().execute(new HttpGet(uri), response -> {
+            if (response.getCode() != HttpStatus.SC_OK) {
+                throw new HttpResponseException(response.getCode(), response.getReasonPhrase());
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("The response from " + url + " is empty");
+            }
+            try (InputStream in = entity.getContent()) {
+                return handler.handle(in);
+            }
+        });
+    }
+
+    /**
+     * Download an URL only if it changed since the last download.
+     *
+     * @param url http or https URL to download.
+     * @param etag ETag of the last download.
+     * @param lastModified Last-Modified of the last download.
+     * @param handler process of the content.
+     * @param <T> process return type
+     * @return the value returned by the handler, or a not modified response.
+     * @throws IOException if the URL can not be downloaded or the server does not return 200 or 304.
+     */
+    @NonNull
+    static <T> ConditionalResponse<T> getIfModified(
+            @NonNull String url,
+            @CheckForNull String etag,
+            @CheckForNull String lastModified,
+            @NonNull ContentHandler<T> handler)
+            throws IOException {
+        HttpGet get;
+        try {
+            get = new HttpGet(new URI(url));
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + url, e);
+        }
+        get.setHeader(HttpHeaders.ACCEPT, "application/samlmetadata+xml, application/xml;q=0.9, */*;q=0.1");
+        if (etag != null) {
+            get.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+        return getClient().execute(get, response -> {
+            if (response.getCode() == HttpStatus.SC_NOT_MODIFIED) {
+                return new ConditionalResponse<T>(true, null, etag, lastModified);
+            }
+            if (response.getCode() != HttpStatus.SC_OK) {
+                throw new HttpResponseException(response.getCode(), response.getReasonPhrase());
+            }
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("The response from " + url + " is empty");
+            }
+            T value;
+            try (InputStream in = entity.getContent()) {
+                value = handler.handle(in);
+            }
+            Header newEtag = response.getFirstHeader(HttpHeaders.ETAG);
+            Header newLastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+            return new ConditionalResponse<>(
+                    false,
+                    value,
+                    newEtag != null ? newEtag.getValue() : null,
+                    newLastModified != null ? newLastModified.getValue() : null);
+        });
+    }
+
+    /**
+     * Result of {@link #getIfModified(String, String, String, ContentHandler)}.
+     *
+     * @param notModified true if the server answered 304, there is no value then.
+     * @param value the value returned by the handler.
+     * @param etag ETag to send in the next download.
+     * @param lastModified Last-Modified to send in the next download.
+     * @param <T> process return type
+     */
+    record ConditionalResponse<T>(
+            boolean notModified, @CheckForNull T value, @CheckForNull String etag, @CheckForNull String lastModified) {}
+
+    @NonNull
+    private static synchronized CloseableHttpClient getClient() {
+        if (client == null) {
+            PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                    .setDefaultConnectionConfig(ConnectionConfig.custom()
+                            .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout))
+                            .setSocketTimeout(Timeout.ofMilliseconds(readTimeout))
+                            .setTimeToLive(TimeValue.ofMinutes(10))
+                            .build())
+                    .setMaxConnTotal(4)
+                    .setMaxConnPerRoute(2)
+                    .build();
+            client = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeout))
+                            .setResponseTimeout(Timeout.ofMilliseconds(readTimeout))
+                            .build())
+                    .setRoutePlanner(new JenkinsProxyRoutePlanner())
+                    .setDefaultCredentialsProvider(new JenkinsProxyCredentialsProvider())
+                    .evictIdleConnections(TimeValue.ofMinutes(1))
+                    .evictExpiredConnections()
+                    .build();
+        }
+        return client;
+    }
+
+    @SuppressWarnings("unused")
+    @Terminator
+    public static synchronized void shutdown() {
+        if (client != null) {
+            client.close(CloseMode.GRACEFUL);
+            client = null;
+        }
+    }
+
+    @CheckForNull
+    private static ProxyConfiguration getProxy() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null ? jenkins.getProxy() : null;
+    }
+
+    /**
+     * Route through the Jenkins proxy unless the host is in its "No Proxy Host" list.
+     */
+    private static class JenkinsProxyRoutePlanner extends DefaultRoutePlanner {
+        JenkinsProxyRoutePlanner() {
+            super(null);
+        }
+
+        @Override
+        protected HttpHost determineProxy(HttpHost target, HttpContext context) throws HttpException {
+            ProxyConfiguration proxy = getProxy();
+            if (proxy == null || proxy.getName() == null) {
+                return null;
+            }
+            for (Pattern pattern : proxy.getNoProxyHostPatterns()) {
+                if (pattern.matcher(target.getHostName()).matches()) {
+                    return null;
+                }
+            }
+            return new HttpHost(proxy.getName(), proxy.getPort());
+        }
+    }
+
+    /**
+     * Credentials of the Jenkins proxy.
+     */
+    private static class JenkinsProxyCredentialsProvider implements CredentialsProvider {
+        @Override
+        public Credentials getCredentials(AuthScope authScope, HttpContext context) {
+            ProxyConfiguration proxy = getProxy();
+            if (proxy == null
+                    || proxy.getName() == null
+                    || proxy.getUserName() == null
+                    || !proxy.getName().equalsIgnoreCase(authScope.getHost())
+                    || authScope.getPort() != proxy.getPort()) {
+                return null;
+            }
+            LOG.log(Level.FINEST, "Using the Jenkins proxy credentials");
+            return new UsernamePasswordCredentials(
+                    proxy.getUserName(), Secret.toString(proxy.getSecretPassword()).toCharArray());
+        }
+    }
+}
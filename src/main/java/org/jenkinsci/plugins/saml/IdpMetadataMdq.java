@@ -0,0 +1,95 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.FormValidation;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Gets the IdP entity descriptor from a Metadata Query Protocol (MDQ) server, instead of a whole federation aggregate.
+ * <p>
+ * The entity is requested as <code>BASE/entities/{sha1}HEX</code>. The last document, with its ETag and
+ * Last-Modified, is kept in memory, so the periodic revalidation is a conditional request that downloads nothing
+ * if the entity did not change. The document on disk is the IdP Metadata file. The revalidation period comes from
+ * the <code>cacheDuration</code> and <code>validUntil</code> of the entity, see {@link IdpMetadataRefreshSchedule}.
+ *
+ * @see <a href="https://datatracker.ietf.org/doc/draft-young-md-query/">Metadata Query Protocol</a>
+ */
+@Restricted(NoExternalUse.class)
+final class IdpMetadataMdq {
+
+    private static Entry last;
+
+    private IdpMetadataMdq() {}
+
+    /**
+     * @param baseUrl MDQ server base URL.
+     * @param entityId entityID of the IdP.
+     * @return the URL of the IdP entity descriptor.
+     */
+    @NonNull
+    static String getEntityUrl(@NonNull String baseUrl, @NonNull String entityId) {
+        return StringUtils.removeEnd(baseUrl.trim(), "/") + "/entities/%7Bsha1%7D"
+                + DigestUtils.sha1Hex(entityId.trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param baseUrl MDQ server base URL.
+     * @param entityId entityID of the IdP.
+     * @return the IdP entity descriptor XML, validated.
+     * @throws IOException if it can not be downloaded.
+     * @throws IllegalArgumentException if it is not valid or it is not the requested entity.
+     */
+    @NonNull
+    static synchronized String fetch(@NonNull String baseUrl, @NonNull String entityId) throws IOException {
+        String url = getEntityUrl(baseUrl, entityId);
+        Entry cached = last != null && last.url.equals(url) ? last : null;
+        IdpMetadataHttpClient.ConditionalResponse<String> response = IdpMetadataHttpClient.getIfModified(
+                url, cached != null ? cached.etag : null, cached != null ? cached.lastModified : null, in -> {
+                    SamlValidateIdPMetadata validator = new SamlValidateIdPMetadata(in);
+                    FormValidation validation = validator.get();
+                    if (FormValidation.Kind.OK != validation.kind) {
+                        throw new IllegalArgumentException(validation.getMessage());
+                    }
+                    if (!entityId.trim().equals(validator.getEntityId())) {
+                        throw new IllegalArgumentException("The MDQ server returned the entity "
+                                + validator.getEntityId() + " instead of " + entityId);
+                    }
+                    return validator.getValidatedIdpMetadata();
+                });
+        if (response.notModified() && cached != null) {
+            last = new Entry(url, cached.xml, response.etag(), response.lastModified());
+        } else if (response.value() != null) {
+            last = new Entry(url, response.value(), response.etag(), response.lastModified());
+        } else {
+            throw new IOException("The MDQ server answered Not Modified to an unconditional request " + url);
+        }
+        return last.xml;
+    }
+
+    /**
+     * Entity descriptor downloaded and its validators for the next conditional request.
+     */
+    private record Entry(String url, String xml, String etag, String lastModified) {}
+}
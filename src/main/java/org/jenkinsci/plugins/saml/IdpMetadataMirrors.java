@@ -0,0 +1,165 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps the latency and the error rate of each IdP Metadata URL, and orders them for the next download.
+ * <p>
+ * The healthy URLs go first, the fastest first; the URLs that failed recently go next, and the local
+ * <code>file:</code> URLs always go last. URLs without measurements keep the configured order among them.
+ * The latency is measured on the successful downloads only, a fast failure does not make a mirror look fast.
+ * The gauges are named after the position of the URL in the configuration and show only its host, as the URL may
+ * carry credentials.
+ */
+@Restricted(NoExternalUse.class)
+final class IdpMetadataMirrors {
+
+    /**
+     * weight of the last measurement in the moving averages.
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * a mirror with an error rate over this value is not healthy.
+     */
+    private static final double MAX_ERROR_RATE = 0.5;
+
+    /**
+     * time during which a mirror that failed is not healthy, whatever its error rate.
+     */
+    private static final long RECENT_FAILURE = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * time after which a mirror that is not healthy is tried again as a healthy one.
+     */
+    private static final long RETRY_UNHEALTHY = TimeUnit.MINUTES.toMillis(30);
+
+    private static final Map<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    private static final String GAUGE_PREFIX = "idpMetadata.mirror.";
+
+    private IdpMetadataMirrors() {}
+
+    /**
+     * Forget the measurements of the URLs that are no longer configured, and expose the configured ones.
+     *
+     * @param urls the configured URLs, the primary first.
+     */
+    static synchronized void retain(@NonNull List<String> urls) {
+        STATS.keySet().retainAll(urls);
+        SamlMetrics.removeGauges(GAUGE_PREFIX);
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            Stats stats = stats(url);
+            String host = host(url);
+            SamlMetrics.gauge(GAUGE_PREFIX + i + ".host", () -> host);
+            SamlMetrics.gauge(GAUGE_PREFIX + i + ".latency", () -> Math.round(stats.latency));
+            SamlMetrics.gauge(GAUGE_PREFIX + i + ".errorRate", () -> stats.errorRate);
+        }
+    }
+
+    /**
+     * @param urls the configured URLs, the primary first.
+     * @return the URLs in the order they should be tried.
+     */
+    @NonNull
+    static List<String> order(@NonNull List<String> urls) {
+        long now = System.currentTimeMillis();
+        List<String> ret = new ArrayList<>(urls);
+        ret.sort(Comparator.comparingInt((String url) -> isLocal(url) ? 1 : 0)
+                .thenComparingInt(url -> stats(url).isHealthy(now) ? 0 : 1)
+                .thenComparingDouble(url -> stats(url).latency));
+        return ret;
+    }
+
+    /**
+     * @param url URL downloaded.
+     * @param millis time spent downloading and validating it.
+     */
+    static void success(@NonNull String url, long millis) {
+        stats(url).record(true, millis);
+    }
+
+    /**
+     * @param url URL that could not be downloaded.
+     * @param millis time spent until the failure.
+     */
+    static void failure(@NonNull String url, long millis) {
+        stats(url).record(false, millis);
+    }
+
+    private static boolean isLocal(@NonNull String url) {
+        return url.regionMatches(true, 0, "file:", 0, 5);
+    }
+
+    /**
+     * @return the host of the URL, without the credentials, the path or the query.
+     */
+    @NonNull
+    private static String host(@NonNull String url) {
+        if (isLocal(url)) {
+            return "file";
+        }
+        try {
+            String host = new URI(url).getHost();
+            return host != null ? host : "unknown";
+        } catch (URISyntaxException e) {
+            return "unknown";
+        }
+    }
+
+    @NonNull
+    private static Stats stats(@NonNull String url) {
+        return STATS.computeIfAbsent(url, key -> new Stats());
+    }
+
+    /**
+     * Exponentially weighted moving averages of the latency and the error rate of a mirror.
+     */
+    private static class Stats {
+        private volatile double latency;
+        private volatile double errorRate;
+        private volatile long lastFailure;
+
+        synchronized void record(boolean success, long millis) {
+            if (success) {
+                latency = latency == 0 ? millis : ALPHA * millis + (1 - ALPHA) * latency;
+            } else {
+                lastFailure = System.currentTimeMillis();
+            }
+            errorRate = ALPHA * (success ? 0 : 1) + (1 - ALPHA) * errorRate;
+        }
+
+        boolean isHealthy(long now) {
+            long sinceFailure = now - lastFailure;
+            return sinceFailure > RETRY_UNHEALTHY || (errorRate <= MAX_ERROR_RATE && sinceFailure > RECENT_FAILURE);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.StringReader;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Decides when the IdP Metadata is downloaded again.
+ * <p>
+ * After a download the next one is the configured period, or sooner if the IdP Metadata says so: half the time
+ * until its <code>validUntil</code>, or its <code>cacheDuration</code>. After a failure the download is retried
+ * with an exponential backoff with jitter. The delay is always kept between the minimum and maximum limits.
+ */
+@Restricted(NoExternalUse.class)
+final class IdpMetadataRefreshSchedule {
+    private static final Logger LOG = Logger.getLogger(IdpMetadataRefreshSchedule.class.getName());
+
+    /**
+     * property to set the minimum time between IdP Metadata downloads.
+     * -Dorg.jenkinsci.plugins.saml.IdpMetadataRefreshSchedule.minDelay=MILLISECONDS
+     */
+    public static final String MIN_DELAY_PROPERTY = IdpMetadataRefreshSchedule.class.getName() + ".minDelay";
+
+    public static final long MIN_DELAY = Long.parseLong(System.getProperty(MIN_DELAY_PROPERTY, "60000"));
+
+    /**
+     * property to set the maximum time between IdP Metadata downloads.
+     * -Dorg.jenkinsci.plugins.saml.IdpMetadataRefreshSchedule.maxDelay=MILLISECONDS
+     */
+    public static final String MAX_DELAY_PROPERTY = IdpMetadataRefreshSchedule.class.getName() + ".maxDelay";
+
+    public static final long MAX_DELAY =
+            Long.parseLong(System.getProperty(MAX_DELAY_PROPERTY, String.valueOf(TimeUnit.DAYS.toMillis(1))));
+
+    private static final int MAX_BACKOFF_EXPONENT = 16;
+
+    private static final IdpMetadataRefreshSchedule INSTANCE = new IdpMetadataRefreshSchedule();
+
+    private long nextRefresh;
+    private long lastSuccess;
+    private long lastFailure;
+    private int failures;
+    private long validUntil;
+    private long cacheDuration;
+
+    static {
+        SamlMetrics.gauge("idpMetadata.nextRefresh", () -> get().getNextRefresh());
+        SamlMetrics.gauge("idpMetadata.lastSuccess", () -> get().getLastSuccess());
+        SamlMetrics.gauge("idpMetadata.lastFailure", () -> get().getLastFailure());
+        SamlMetrics.gauge("idpMetadata.consecutiveFailures", () -> get().getFailures());
+        SamlMetrics.gauge("idpMetadata.validUntil", () -> get().getValidUntil());
+        SamlMetrics.gauge("idpMetadata.cacheDuration", () -> get().getCacheDuration());
+    }
+
+    /**
+     * Use {@link #get()}, the tests use their own instance.
+     */
+    IdpMetadataRefreshSchedule() {}
+
+    @NonNull
+    static IdpMetadataRefreshSchedule get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true if the IdP Metadata should be downloaded now, it is always the case if it was never downloaded.
+     */
+    synchronized boolean isDue() {
+        return System.currentTimeMillis() >= nextRefresh;
+    }
+
+    /**
+     * Schedule the next download after a successful one.
+     *
+     * @param xml IdP Metadata downloaded.
+     * @param configuredPeriod period set in the configuration in milliseconds.
+     */
+    synchronized void onSuccess(@NonNull String xml, long configuredPeriod) {
+        long now = System.currentTimeMillis();
+        lastSuccess = now;
+        failures = 0;
+        readHints(xml);
+        long delay = configuredPeriod > 0 ? configuredPeriod : MAX_DELAY;
+        if (validUntil > now) {
+            delay = Math.min(delay, (validUntil - now) / 2);
+        }
+        if (cacheDuration > 0) {
+            delay = Math.min(delay, cacheDuration);
+        }
+        nextRefresh = now + clamp(delay);
+        LOG.log(Level.FINE, "Next IdP Metadata download at {0}", format(nextRefresh));
+    }
+
+    /**
+     * Schedule the next download after a failed one.
+     *
+     * @param configuredPeriod period set in the configuration in milliseconds.
+     */
+    synchronized void onFailure(long configuredPeriod) {
+        long now = System.currentTimeMillis();
+        lastFailure = now;
+        failures++;
+        long backoff = MIN_DELAY << Math.min(failures - 1, MAX_BACKOFF_EXPONENT);
+        long delay = Math.min(backoff, configuredPeriod > 0 ? configuredPeriod : MAX_DELAY);
+        // +-20% so a restarted cluster of controllers does not hit the IdP at the same time
+        delay += (long) (delay * (ThreadLocalRandom.current().nextDouble(0.4) - 0.2));
+        nextRefresh = now + clamp(delay);
+        LOG.log(Level.FINE, "IdP Metadata download failed {0} times, next at {1}", new Object[] {
+            failures, format(nextRefresh)
+        });
+    }
+
+    /**
+     * @param time milliseconds since epoch.
+     * @return the time in ISO-8601 in UTC, e.g. 2024-05-01T10:15:30Z.
+     */
+    @NonNull
+    static String format(long time) {
+        return Instant.ofEpochMilli(time).truncatedTo(ChronoUnit.SECONDS).toString();
+    }
+
+    private static long clamp(long delay) {
+        return Math.max(MIN_DELAY, Math.min(MAX_DELAY, delay));
+    }
+
+    /**
+     * Read validUntil and cacheDuration from the root element of the IdP Metadata.
+     */
+    private void readHints(@NonNull String xml) {
+        validUntil = 0;
+        cacheDuration = 0;
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(xml));
+            try {
+                while (!reader.isStartElement() && reader.hasNext()) {
+                    reader.next();
+                }
+                if (reader.isStartElement()) {
+                    DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+                    String value = reader.getAttributeValue(null, "validUntil");
+                    if (value != null) {
+                        validUntil = datatypeFactory
+                                .newXMLGregorianCalendar(value.trim())
+                                .toGregorianCalendar()
+                                .getTimeInMillis();
+                    }
+                    value = reader.getAttributeValue(null, "cacheDuration");
+                    if (value != null) {
+                        cacheDuration = datatypeFactory.newDuration(value.trim()).getTimeInMillis(new Date());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | DatatypeConfigurationException | IllegalArgumentException e) {
+            LOG.log(Level.FINE, "Could not read validUntil and cacheDuration from the IdP Metadata", e);
+        }
+    }
+
+    /**
+     * @return time of the next download in milliseconds since epoch, 0 if it is not scheduled.
+     */
+    synchronized long getNextRefresh() {
+        return nextRefresh;
+    }
+
+    synchronized long getLastSuccess() {
+        return lastSuccess;
+    }
+
+    synchronized long getLastFailure() {
+        return lastFailure;
+    }
+
+    synchronized int getFailures() {
+        return failures;
+    }
+
+    synchronized long getValidUntil() {
+        return validUntil;
+    }
+
+    synchronized long getCacheDuration() {
+        return cacheDuration;
+    }
+
+    /**
+     * @return description of the schedule for the configuration page, null if nothing has been downloaded yet.
+     */
+    @CheckForNull
+    synchronized String getDescription() {
+        if (nextRefresh == 0) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("Next download at ").append(format(nextRefresh));
+        if (failures > 0) {
+            sb.append(", after ").append(failures).append(" failed downloads");
+        } else if (validUntil > 0 || cacheDuration > 0) {
+            sb.append(", following the validUntil/cacheDuration of the IdP Metadata");
+        }
+        return sb.toString();
+    }
+}
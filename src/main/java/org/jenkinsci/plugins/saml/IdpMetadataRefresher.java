@@ -0,0 +1,158 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Downloads the IdP Metadata from the URL in the background, so saving the configuration, reloading JCasC
+ * or starting Jenkins does not wait for the IdP.
+ * <p>
+ * The last IdP Metadata file downloaded stays in place until a new one is validated, so only the logins made
+ * before the first download ever finishes have to wait for it. A failed download is reported by
+ * {@link IdpMetadataDownloadMonitor} until a download works.
+ */
+@Restricted(NoExternalUse.class)
+final class IdpMetadataRefresher {
+    private static final Logger LOG = Logger.getLogger(IdpMetadataRefresher.class.getName());
+
+    /**
+     * property to set the maximum time a login waits for the first IdP Metadata download.
+     * -Dorg.jenkinsci.plugins.saml.IdpMetadataRefresher.loginWait=MILLISECONDS
+     */
+    public static final String LOGIN_WAIT_PROPERTY = IdpMetadataRefresher.class.getName() + ".loginWait";
+
+    public static final long LOGIN_WAIT = Long.parseLong(System.getProperty(LOGIN_WAIT_PROPERTY, "30000"));
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "SAML IdP Metadata download"));
+
+    private static Future<?> pending;
+
+    /**
+     * message of the last download if it failed, null if it worked.
+     */
+    private static volatile String failure;
+
+    private IdpMetadataRefresher() {}
+
+    /**
+     * Download the IdP Metadata in the background, a download queued for a previous configuration is cancelled.
+     *
+     * @param configuration IdP Metadata configuration with an URL.
+     * @return the download.
+     */
+    @NonNull
+    static synchronized Future<?> schedule(@NonNull IdpMetadataConfiguration configuration) {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        // a failure of a previous configuration is not reported anymore
+        failure = null;
+        pending = EXECUTOR.submit(() -> {
+            try {
+                configuration.updateIdPMetadata();
+                failure = null;
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+                failure = e.getMessage() != null ? e.getMessage() : e.toString();
+                throw e;
+            }
+            return null;
+        });
+        return pending;
+    }
+
+    /**
+     * Start a download in the background if one is due and none is in progress, the login goes on with the
+     * IdP Metadata file it has. This keeps the IdP entity from a MDQ server fresh even if the periodic work is late.
+     *
+     * @param configuration IdP Metadata configuration.
+     */
+    static synchronized void refreshIfDue(@NonNull IdpMetadataConfiguration configuration) {
+        if (configuration.isMdq()
+                && (pending == null || pending.isDone())
+                && IdpMetadataRefreshSchedule.get().isDue()) {
+            schedule(configuration);
+        }
+    }
+
+    /**
+     * @return the message of the last download if it failed, null if it worked.
+     */
+    @CheckForNull
+    static String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Wait for the download in progress if there is no IdP Metadata file yet.
+     */
+    static void awaitIfMissing() {
+        try {
+            awaitFirstDownload();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "The IdP Metadata is not available yet", e);
+        }
+    }
+
+    /**
+     * Wait for the download in progress if there is no IdP Metadata file yet. If the download takes too long it goes
+     * on in the background.
+     *
+     * @throws IOException if the download failed.
+     */
+    private static void awaitFirstDownload() throws IOException {
+        if (new SamlFileResource(SamlSecurityRealm.getIDPMetadataFilePath()).exists()) {
+            return;
+        }
+        Future<?> download;
+        synchronized (IdpMetadataRefresher.class) {
+            download = pending;
+        }
+        if (download == null) {
+            return;
+        }
+        try {
+            download.get(LOGIN_WAIT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (CancellationException e) {
+            // replaced by the download of a newer configuration
+        } catch (TimeoutException e) {
+            LOG.log(Level.WARNING, "The IdP Metadata download is still in progress", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,546 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.FormValidation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import javax.xml.namespace.QName;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.xml.SerializeSupport;
+import net.shibboleth.shared.xml.XMLParserException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.metadata.resolver.impl.DOMMetadataResolver;
+import org.opensaml.saml.saml2.metadata.Endpoint;
+import org.opensaml.saml.saml2.metadata.EntitiesDescriptor;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml.saml2.metadata.KeyDescriptor;
+import org.opensaml.saml.saml2.metadata.NameIDFormat;
+import org.opensaml.saml.saml2.metadata.SingleLogoutService;
+import org.opensaml.saml.saml2.metadata.SingleSignOnService;
+import org.opensaml.security.credential.UsageType;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.pac4j.saml.metadata.SAML2MetadataResolver;
+import org.pac4j.saml.util.Configuration;
+import org.w3c.dom.Element;
+
+/**
+ * Binary snapshot of the validated IdP Metadata essentials, in JENKINS_HOME/saml-idp-metadata.snapshot.
+ * <p>
+ * It keeps the entityID, the SSO and SLO endpoints with their bindings, the NameID formats and the signing and
+ * encryption certificates, with a CRC32 of its content and the SHA-256 of the IdP Metadata file it was taken from.
+ * After a restart the logins use it, so the IdP Metadata XML is not parsed and validated on the first login,
+ * while the IdP Metadata file is validated again in the background. Once it is validated the logins use the file.
+ * The entity descriptor built from the snapshot is kept for the SHA-256 of the IdP Metadata file, so it is built once.
+ * The snapshot is kept for the modification time and the size of both files, so until the IdP Metadata file is
+ * validated a login does not read and hash it again.
+ */
+@Restricted(NoExternalUse.class)
+final class IdpMetadataSnapshot {
+    private static final Logger LOG = Logger.getLogger(IdpMetadataSnapshot.class.getName());
+
+    static final String FILE_NAME = "saml-idp-metadata.snapshot";
+
+    private static final int MAGIC = 0x53414d4c;
+    private static final int VERSION = 1;
+
+    private static final AtomicBoolean REVALIDATION_STARTED = new AtomicBoolean();
+    private static volatile boolean validated;
+    private static volatile CachedResolver cachedResolver;
+    private static volatile Loaded loaded;
+
+    private final String sourceDigest;
+    private final String entityId;
+    private final Boolean wantAuthnRequestsSigned;
+    private final List<String> nameIdFormats;
+    private final List<Service> services;
+    private final List<Key> keys;
+
+    private IdpMetadataSnapshot(
+            String sourceDigest,
+            String entityId,
+            Boolean wantAuthnRequestsSigned,
+            List<String> nameIdFormats,
+            List<Service> services,
+            List<Key> keys) {
+        this.sourceDigest = sourceDigest;
+        this.entityId = entityId;
+        this.wantAuthnRequestsSigned = wantAuthnRequestsSigned;
+        this.nameIdFormats = nameIdFormats;
+        this.services = services;
+        this.keys = keys;
+    }
+
+    /**
+     * @return true once the IdP Metadata file has been validated since Jenkins started, the snapshot is not used then.
+     */
+    static boolean isValidated() {
+        return validated;
+    }
+
+    /**
+     * Forget the validation of the IdP Metadata file, the next logins use the snapshot until it is validated again.
+     * Only for tests.
+     */
+    static void resetValidation() {
+        validated = false;
+        REVALIDATION_STARTED.set(false);
+    }
+
+    /**
+     * It must be called with the OpenSAML services initialized.
+     *
+     * @return IdP Metadata resolver from the snapshot of the current IdP Metadata file, null if there is no snapshot.
+     * @throws IllegalStateException if the entity descriptor can not be built.
+     */
+    @CheckForNull
+    static SAML2MetadataResolver getResolver() {
+        IdpMetadataSnapshot snapshot = load();
+        if (snapshot == null) {
+            return null;
+        }
+        CachedResolver cached = cachedResolver;
+        if (cached == null || !cached.sourceDigest().equals(snapshot.sourceDigest)) {
+            cached = new CachedResolver(snapshot.sourceDigest, snapshot.toResolver());
+            cachedResolver = cached;
+        }
+        return cached.resolver();
+    }
+
+    /**
+     * @return the snapshot of the current IdP Metadata file, null if there is none, it is corrupted or it was taken
+     * from another IdP Metadata file.
+     */
+    @CheckForNull
+    static IdpMetadataSnapshot load() {
+        String stamp = getStamp();
+        Loaded last = loaded;
+        if (stamp != null && last != null && stamp.equals(last.stamp())) {
+            return last.snapshot();
+        }
+        IdpMetadataSnapshot ret = read();
+        loaded = new Loaded(stamp, ret);
+        return ret;
+    }
+
+    /**
+     * @return the modification time and the size of the IdP Metadata file and the snapshot file, null if the IdP
+     * Metadata file can not be read. In memory mode neither file is checked on disk.
+     */
+    @CheckForNull
+    private static String getStamp() {
+        try {
+            SamlFileResource metadata = new SamlFileResource(SamlSecurityRealm.getIDPMetadataFilePath());
+            return metadata.lastModified() + ":" + metadata.contentLength() + "/"
+                    + SamlFileResource.getFileStamp(getFile());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @CheckForNull
+    private static IdpMetadataSnapshot read() {
+        try {
+            byte[] data = Files.readAllBytes(getFile());
+            if (data.length < Long.BYTES) {
+                throw new IOException("The file is truncated");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length - Long.BYTES);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.skipNBytes(data.length - Long.BYTES);
+            if (crc.getValue() != in.readLong()) {
+                throw new IOException("The checksum does not match");
+            }
+            IdpMetadataSnapshot snapshot = read(new DataInputStream(new ByteArrayInputStream(data)));
+            if (!snapshot.sourceDigest.equals(digestIdpMetadataFile())) {
+                LOG.log(Level.FINE, "The IdP Metadata snapshot is outdated");
+                return null;
+            }
+            return snapshot;
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return null;
+        } catch (IOException | CertificateException e) {
+            LOG.log(Level.WARNING, "The IdP Metadata snapshot can not be used", e);
+            return null;
+        }
+    }
+
+    /**
+     * Take a snapshot of the current IdP Metadata file, which has to be valid.
+     */
+    static void save() {
+        try {
+            byte[] xml = SamlFileResource.read(SamlSecurityRealm.getIDPMetadataFilePath());
+            IdpMetadataSnapshot snapshot = new OpenSAMLWrapper<IdpMetadataSnapshot>() {
+                @Override
+                protected IdpMetadataSnapshot process() {
+                    return extract(xml);
+                }
+            }.get();
+            if (snapshot == null) {
+                delete();
+                return;
+            }
+            snapshot.write();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not save the IdP Metadata snapshot", e);
+        }
+    }
+
+    /**
+     * Validate the IdP Metadata file in the background once after Jenkins starts, then take a new snapshot of it.
+     * Until it finishes the logins can use the snapshot.
+     */
+    static void revalidateInBackground() {
+        if (validated || !REVALIDATION_STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        Timer.get().submit(() -> {
+            try {
+                String xml = new String(
+                        SamlFileResource.read(SamlSecurityRealm.getIDPMetadataFilePath()), StandardCharsets.UTF_8);
+                FormValidation validation = new SamlValidateIdPMetadata(xml).get();
+                if (FormValidation.Kind.OK == validation.kind) {
+                    save();
+                } else {
+                    LOG.log(Level.WARNING, "The IdP Metadata file is not valid: {0}", validation.getMessage());
+                    delete();
+                }
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not validate the IdP Metadata file", e);
+            } finally {
+                validated = true;
+            }
+        });
+    }
+
+    /**
+     * Build the IdP entity descriptor from the snapshot, it must be called with the OpenSAML services initialized.
+     *
+     * @return IdP Metadata resolver for the SAML client.
+     * @throws IllegalStateException if the entity descriptor can not be built.
+     */
+    @NonNull
+    SAML2MetadataResolver toResolver() {
+        try {
+            EntityDescriptor entity = build(EntityDescriptor.DEFAULT_ELEMENT_NAME);
+            entity.setEntityID(entityId);
+            IDPSSODescriptor idp = build(IDPSSODescriptor.DEFAULT_ELEMENT_NAME);
+            idp.addSupportedProtocol(SAMLConstants.SAML20P_NS);
+            idp.setWantAuthnRequestsSigned(wantAuthnRequestsSigned);
+            for (String format : nameIdFormats) {
+                NameIDFormat nameIdFormat = build(NameIDFormat.DEFAULT_ELEMENT_NAME);
+                nameIdFormat.setURI(format);
+                idp.getNameIDFormats().add(nameIdFormat);
+            }
+            for (Key key : keys) {
+                KeyDescriptor keyDescriptor = build(KeyDescriptor.DEFAULT_ELEMENT_NAME);
+                keyDescriptor.setUse(key.use());
+                KeyInfo keyInfo = build(KeyInfo.DEFAULT_ELEMENT_NAME);
+                KeyInfoSupport.addCertificate(keyInfo, key.certificate());
+                keyDescriptor.setKeyInfo(keyInfo);
+                idp.getKeyDescriptors().add(keyDescriptor);
+            }
+            for (Service service : services) {
+                Endpoint endpoint = build(
+                        service.logout()
+                                ? SingleLogoutService.DEFAULT_ELEMENT_NAME
+                                : SingleSignOnService.DEFAULT_ELEMENT_NAME);
+                endpoint.setBinding(service.binding());
+                endpoint.setLocation(service.location());
+                endpoint.setResponseLocation(service.responseLocation());
+                if (endpoint instanceof SingleLogoutService slo) {
+                    idp.getSingleLogoutServices().add(slo);
+                } else {
+                    idp.getSingleSignOnServices().add((SingleSignOnService) endpoint);
+                }
+            }
+            entity.getRoleDescriptors().add(idp);
+            Element element = XMLObjectSupport.marshall(entity);
+            DOMMetadataResolver resolver = new DOMMetadataResolver(element);
+            resolver.setId(IdpMetadataSnapshot.class.getName());
+            resolver.setFailFastInitialization(true);
+            resolver.initialize();
+            return new SnapshotMetadataResolver(entity, resolver);
+        } catch (MarshallingException | CertificateEncodingException | ComponentInitializationException e) {
+            throw new IllegalStateException("Could not build the IdP entity from the snapshot", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends XMLObject> T build(QName name) {
+        return (T) XMLObjectSupport.buildXMLObject(name);
+    }
+
+    /**
+     * Read the essentials of the IdP entity from the IdP Metadata, it must be called with the OpenSAML
+     * services initialized.
+     *
+     * @return the snapshot, null if the IdP Metadata does not have exactly one IdP entity.
+     */
+    @CheckForNull
+    private static IdpMetadataSnapshot extract(@NonNull byte[] xml) {
+        try (InputStream in = new ByteArrayInputStream(xml)) {
+            XMLObject root = XMLObjectSupport.unmarshallFromInputStream(Configuration.getParserPool(), in);
+            List<EntityDescriptor> entities = new ArrayList<>();
+            if (root instanceof EntityDescriptor entity) {
+                entities.add(entity);
+            } else if (root instanceof EntitiesDescriptor aggregate) {
+                entities.addAll(aggregate.getEntityDescriptors());
+            }
+            entities.removeIf(entity -> entity.getIDPSSODescriptor(SAMLConstants.SAML20P_NS) == null);
+            if (entities.size() != 1) {
+                return null;
+            }
+            EntityDescriptor entity = entities.get(0);
+            IDPSSODescriptor idp = entity.getIDPSSODescriptor(SAMLConstants.SAML20P_NS);
+            List<String> nameIdFormats = new ArrayList<>();
+            for (NameIDFormat format : idp.getNameIDFormats()) {
+                nameIdFormats.add(format.getURI());
+            }
+            List<Service> services = new ArrayList<>();
+            for (SingleSignOnService sso : idp.getSingleSignOnServices()) {
+                services.add(new Service(false, sso.getBinding(), sso.getLocation(), sso.getResponseLocation()));
+            }
+            for (SingleLogoutService slo : idp.getSingleLogoutServices()) {
+                services.add(new Service(true, slo.getBinding(), slo.getLocation(), slo.getResponseLocation()));
+            }
+            List<Key> keys = new ArrayList<>();
+            for (KeyDescriptor keyDescriptor : idp.getKeyDescriptors()) {
+                UsageType use = keyDescriptor.getUse() != null ? keyDescriptor.getUse() : UsageType.UNSPECIFIED;
+                if (keyDescriptor.getKeyInfo() != null) {
+                    for (X509Certificate certificate : KeyInfoSupport.getCertificates(keyDescriptor.getKeyInfo())) {
+                        keys.add(new Key(use, certificate));
+                    }
+                }
+            }
+            return new IdpMetadataSnapshot(
+                    DigestUtils.sha256Hex(xml),
+                    entity.getEntityID(),
+                    idp.getWantAuthnRequestsSigned(),
+                    nameIdFormats,
+                    services,
+                    keys);
+        } catch (IOException | XMLParserException | UnmarshallingException | CertificateException e) {
+            LOG.log(Level.WARNING, "Could not read the IdP entity from the IdP Metadata", e);
+            return null;
+        }
+    }
+
+    private void write() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(sourceDigest);
+        out.writeUTF(entityId);
+        out.writeByte(wantAuthnRequestsSigned == null ? -1 : wantAuthnRequestsSigned ? 1 : 0);
+        out.writeInt(nameIdFormats.size());
+        for (String format : nameIdFormats) {
+            out.writeUTF(format);
+        }
+        out.writeInt(services.size());
+        for (Service service : services) {
+            out.writeBoolean(service.logout());
+            out.writeUTF(service.binding());
+            out.writeUTF(service.location());
+            writeNullable(out, service.responseLocation());
+        }
+        out.writeInt(keys.size());
+        for (Key key : keys) {
+            out.writeUTF(key.use().name());
+            byte[] encoded;
+            try {
+                encoded = key.certificate().getEncoded();
+            } catch (CertificateEncodingException e) {
+                throw new IOException(e);
+            }
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Path file = getFile();
+        Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+        try {
+            Files.write(tmp, buffer.toByteArray());
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+            SamlFileResourceMemory.touched(file);
+        }
+        LOG.log(Level.FINE, "IdP Metadata snapshot saved in {0}", file);
+    }
+
+    private static void delete() throws IOException {
+        Files.deleteIfExists(getFile());
+        SamlFileResourceMemory.touched(getFile());
+    }
+
+    @NonNull
+    private static IdpMetadataSnapshot read(@NonNull DataInputStream in) throws IOException, CertificateException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Unknown file format");
+        }
+        String sourceDigest = in.readUTF();
+        String entityId = in.readUTF();
+        byte signed = in.readByte();
+        Boolean wantAuthnRequestsSigned = signed < 0 ? null : signed == 1;
+        List<String> nameIdFormats = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            nameIdFormats.add(in.readUTF());
+        }
+        List<Service> services = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            services.add(new Service(in.readBoolean(), in.readUTF(), in.readUTF(), readNullable(in)));
+        }
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        List<Key> keys = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            UsageType use = UsageType.valueOf(in.readUTF());
+            byte[] encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+            keys.add(new Key(
+                    use, (X509Certificate) factory.generateCertificate(new ByteArrayInputStream(encoded))));
+        }
+        return new IdpMetadataSnapshot(sourceDigest, entityId, wantAuthnRequestsSigned, nameIdFormats, services, keys);
+    }
+
+    private static void writeNullable(@NonNull DataOutputStream out, @CheckForNull String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    @CheckForNull
+    private static String readNullable(@NonNull DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    @NonNull
+    private static String digestIdpMetadataFile() throws IOException {
+        return DigestUtils.sha256Hex(SamlFileResource.read(SamlSecurityRealm.getIDPMetadataFilePath()));
+    }
+
+    @NonNull
+    private static Path getFile() {
+        return Jenkins.get().getRootDir().toPath().resolve(FILE_NAME);
+    }
+
+    @NonNull
+    String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * SSO or SLO endpoint of the IdP.
+     */
+    private record Service(boolean logout, String binding, String location, String responseLocation) {}
+
+    /**
+     * Certificate of the IdP and what it is used for.
+     */
+    private record Key(UsageType use, X509Certificate certificate) {}
+
+    /**
+     * Snapshot loaded when the files had this stamp, null if there was none.
+     */
+    private record Loaded(String stamp, IdpMetadataSnapshot snapshot) {}
+
+    /**
+     * Resolver built from the snapshot of the IdP Metadata file with this SHA-256.
+     */
+    private record CachedResolver(String sourceDigest, SAML2MetadataResolver resolver) {}
+
+    /**
+     * IdP Metadata resolver over the entity descriptor built from the snapshot.
+     */
+    static final class SnapshotMetadataResolver implements SAML2MetadataResolver {
+        private final EntityDescriptor entity;
+        private final MetadataResolver resolver;
+
+        SnapshotMetadataResolver(EntityDescriptor entity, MetadataResolver resolver) {
+            this.entity = entity;
+            this.resolver = resolver;
+        }
+
+        @Override
+        public MetadataResolver resolve() {
+            return resolver;
+        }
+
+        @Override
+        public String getEntityId() {
+            return entity.getEntityID();
+        }
+
+        @Override
+        public String getMetadata() {
+            return SerializeSupport.nodeToString(entity.getDOM());
+        }
+
+        @Override
+        public XMLObject getEntityDescriptorElement() {
+            return entity;
+        }
+    }
+}
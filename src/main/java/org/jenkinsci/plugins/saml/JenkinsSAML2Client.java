@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.saml;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.ExtensionList;
 import java.util.logging.Logger;
 import org.pac4j.saml.client.SAML2Client;
@@ -17,8 +18,19 @@ public class JenkinsSAML2Client extends SAML2Client {
 
     static final ReplayCacheProvider REPLAY_CACHE = getProvider();
 
+    /**
+     * SP keys that can decrypt, when set the decrypter looks the key up by KeyInfo instead of using only the active key.
+     */
+    @CheckForNull
+    private final SamlKeyRing keyRing;
+
     public JenkinsSAML2Client(SAML2Configuration config) {
+        this(config, null);
+    }
+
+    JenkinsSAML2Client(SAML2Configuration config, @CheckForNull SamlKeyRing keyRing) {
         super(config);
+        this.keyRing = keyRing;
     }
 
     @Override
@@ -26,6 +38,15 @@ public class JenkinsSAML2Client extends SAML2Client {
         replayCache = REPLAY_CACHE;
     }
 
+    @Override
+    protected void initDecrypter() {
+        if (keyRing != null && keyRing.getCredentials().size() > 1) {
+            decrypter = keyRing.buildDecrypter();
+        } else {
+            super.initDecrypter();
+        }
+    }
+
     private static ReplayCacheProvider getProvider() {
         var providers = ExtensionList.lookup(JenkinsReplayCacheProvider.class);
         if (providers.isEmpty()) {
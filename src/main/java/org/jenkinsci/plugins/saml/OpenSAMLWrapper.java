@@ -20,6 +20,8 @@ package org.jenkinsci.plugins.saml;
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.SEVERE;
 
+import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.logging.Logger;
 import org.apache.commons.lang3.StringUtils;
@@ -36,6 +38,7 @@ import org.pac4j.jee.context.JEEFrameworkParameters;
 import org.pac4j.jee.context.session.JEESessionStoreFactory;
 import org.pac4j.saml.client.SAML2Client;
 import org.pac4j.saml.config.SAML2Configuration;
+import org.pac4j.saml.metadata.SAML2MetadataResolver;
 
 /**
  * Overall wrapper to all operation using OpenSAML library, this allows to load the Service Loaders properly
@@ -48,11 +51,24 @@ import org.pac4j.saml.config.SAML2Configuration;
  */
 public abstract class OpenSAMLWrapper<T> {
     private static final Logger LOG = Logger.getLogger(OpenSAMLWrapper.class.getName());
-    private static final BundleKeyStore KS = new BundleKeyStore();
+
+    /**
+     * SP keys loaded for the settings or the bundled key store with this fingerprint, so the keystore is not read on
+     * every login.
+     */
+    private static volatile CachedKeyRing cachedKeyRing;
 
     protected SamlPluginConfig samlPluginConfig;
     protected StaplerRequest2 request;
     protected StaplerResponse2 response;
+    /**
+     * SP keys loaded by {@link #createSAML2Client()} when rollover keys are configured.
+     */
+    protected SamlKeyRing keyRing;
+    /**
+     * true to build a passive (IsPassive) AuthnRequest.
+     */
+    protected boolean passive;
 
     /**
      * Initialize the OpenSaml services and run the process defined on the abstract method process().
@@ -105,11 +121,24 @@ public abstract class OpenSAMLWrapper<T> {
         var propertyExecutions = samlPluginConfig.getProperties().stream()
                 .map(SamlProperty::newExecution)
                 .toList();
+        if (samlPluginConfig.getIdpMetadataConfiguration() != null) {
+            IdpMetadataRefresher.refreshIfDue(samlPluginConfig.getIdpMetadataConfiguration());
+        }
+        IdpMetadataRefresher.awaitIfMissing();
         SAML2Configuration config = new SAML2Configuration();
         config.setIdentityProviderMetadataResource(new SamlFileResource(SamlSecurityRealm.getIDPMetadataFilePath()));
+        if (!IdpMetadataSnapshot.isValidated()) {
+            // first logins after a restart: skip parsing the IdP Metadata, it is validated in the background
+            SAML2MetadataResolver snapshotResolver = IdpMetadataSnapshot.getResolver();
+            if (snapshotResolver != null) {
+                config.setIdentityProviderMetadataResolver(snapshotResolver);
+            }
+            IdpMetadataSnapshot.revalidateInBackground();
+        }
         config.setAuthnRequestBindingType(samlPluginConfig.getBinding());
 
         SamlEncryptionData encryptionData = samlPluginConfig.getEncryptionData();
+        keyRing = null;
         if (encryptionData != null) {
             config.setAuthnRequestSigned(encryptionData.isForceSignRedirectBindingAuthnRequest());
             config.setWantsAssertionsSigned(encryptionData.isWantsAssertionsSigned());
@@ -123,17 +152,19 @@ public abstract class OpenSAMLWrapper<T> {
             config.setKeystorePassword(encryptionData.getKeystorePasswordPlainText());
             config.setPrivateKeyPassword(encryptionData.getPrivateKeyPasswordPlainText());
             config.setKeyStoreAlias(encryptionData.getPrivateKeyAlias());
+            keyRing = loadKeyRing(encryptionData);
         } else {
-            if (!KS.isValid()) {
-                KS.init();
+            BundleKeyStore ks = BundleKeyStoreHolder.get().getKeyStore();
+            if (ks.isUsingDemoKeyStore()) {
+                LOG.warning("Using bundled keystore : " + ks.getKeystorePath());
             }
-            if (KS.isUsingDemoKeyStore()) {
-                LOG.warning("Using bundled keystore : " + KS.getKeystorePath());
+            config.setKeystorePath(ks.getKeystorePath());
+            config.setKeystorePassword(ks.getKsPassword());
+            config.setPrivateKeyPassword(ks.getKsPkPassword());
+            config.setKeyStoreAlias(ks.getKsPkAlias());
+            if (ks.getSuccessorAlias() != null) {
+                keyRing = loadKeyRing(ks);
             }
-            config.setKeystorePath(KS.getKeystorePath());
-            config.setKeystorePassword(KS.getKsPassword());
-            config.setPrivateKeyPassword(KS.getKsPkPassword());
-            config.setKeyStoreAlias(KS.getKsPkAlias());
         }
 
         config.setMaximumAuthenticationLifetime(samlPluginConfig.getMaximumAuthenticationLifetime());
@@ -163,15 +194,30 @@ public abstract class OpenSAMLWrapper<T> {
                 config.setNameIdPolicyFormat(samlPluginConfig.getNameIdPolicyFormat());
             }
         }
+        if (passive) {
+            // a passive request can not force the user to authenticate again
+            config.setPassive(true);
+            config.setForceAuth(false);
+        }
+
+        if (samlPluginConfig.isSingleLogout()) {
+            config.setSingleSignOutServiceUrl(samlPluginConfig.getSingleLogoutServiceUrl());
+            config.setSpLogoutRequestBindingType(samlPluginConfig.getBinding());
+            config.setSpLogoutResponseBindingType(samlPluginConfig.getBinding());
+            config.setPostLogoutURL(samlPluginConfig.baseUrl() + SamlLogoutAction.POST_LOGOUT_URL);
+        }
 
         config.setForceServiceProviderMetadataGeneration(true);
         config.setServiceProviderMetadataResource(new SamlFileResource(SamlSecurityRealm.getSPMetadataFilePath()));
         // Apply all configured property executions to the configuration
         propertyExecutions.forEach(property -> property.customizeConfiguration(config));
-        SAML2Client saml2Client = new JenkinsSAML2Client(config);
+        SAML2Client saml2Client = new JenkinsSAML2Client(config, keyRing);
         saml2Client.setCallbackUrl(samlPluginConfig.getConsumerServiceUrl());
         saml2Client.setCallbackUrlResolver(new NoParameterCallbackUrlResolver());
         saml2Client.setStateGenerator(new RefererStateGenerator());
+        if (samlPluginConfig.isSingleLogout()) {
+            saml2Client.setSessionLogoutHandler(SamlSessionIndex.LOGOUT_HANDLER);
+        }
         propertyExecutions.forEach(property -> property.customizeClient(saml2Client));
         saml2Client.init();
 
@@ -184,4 +230,56 @@ public abstract class OpenSAMLWrapper<T> {
         }
         return saml2Client;
     }
+
+    /**
+     * @param bundleKeyStore bundled key store with a successor key.
+     * @return the active and the successor keys, null if they can not be loaded.
+     */
+    protected SamlKeyRing loadKeyRing(BundleKeyStore bundleKeyStore) {
+        // the aliases change on rotation and promotion, the keystore file when the key store is generated again
+        String fingerprint = "bundle/" + bundleKeyStore.getKsPkAlias() + "," + bundleKeyStore.getSuccessorAlias() + "/"
+                + SamlKeyRing.getFileStamp(bundleKeyStore.getKeystorePath());
+        CachedKeyRing cached = cachedKeyRing;
+        if (cached != null && cached.fingerprint().equals(fingerprint)) {
+            return cached.keyRing();
+        }
+        try {
+            SamlKeyRing ret = SamlKeyRing.load(bundleKeyStore);
+            cachedKeyRing = new CachedKeyRing(fingerprint, ret);
+            return ret;
+        } catch (IOException | GeneralSecurityException e) {
+            LOG.log(SEVERE, "Could not load the successor key, it will not be published.", e);
+            return null;
+        }
+    }
+
+    /**
+     * @param encryptionData encryption settings with a keystore path.
+     * @return the SP keys when rollover keys are configured, null otherwise.
+     */
+    protected SamlKeyRing loadKeyRing(SamlEncryptionData encryptionData) {
+        if (encryptionData.getPrivateKeyAliases().size() < 2) {
+            return null;
+        }
+        // the keystore file can change without the settings
+        String fingerprint = samlPluginConfig.getFingerprint() + "/"
+                + SamlKeyRing.getFileStamp(encryptionData.getKeystorePath());
+        CachedKeyRing cached = cachedKeyRing;
+        if (cached != null && cached.fingerprint().equals(fingerprint)) {
+            return cached.keyRing();
+        }
+        try {
+            SamlKeyRing ret = SamlKeyRing.load(encryptionData);
+            cachedKeyRing = new CachedKeyRing(fingerprint, ret);
+            return ret;
+        } catch (IOException | GeneralSecurityException e) {
+            LOG.log(SEVERE, "Could not load the rollover keys, only the active key will be used.", e);
+            return null;
+        }
+    }
+
+    /**
+     * SP keys and the fingerprint of the settings and the keystore file they were loaded from.
+     */
+    private record CachedKeyRing(String fingerprint, SamlKeyRing keyRing) {}
 }
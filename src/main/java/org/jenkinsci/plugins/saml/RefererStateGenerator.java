@@ -32,6 +32,10 @@ class RefererStateGenerator implements ValueGenerator {
         final String from = webContext.getRequestParameter("from").orElse(null);
         final String id = UUID.randomUUID().toString();
         CACHE.put(id, calculateSafeRedirect(from, referer));
+        webContext
+                .getRequestAttribute(SamlPassiveLogin.ATTEMPT_ATTRIBUTE)
+                .filter(SamlPassiveLogin.Attempt.class::isInstance)
+                .ifPresent(attempt -> SamlPassiveLogin.remember(id, (SamlPassiveLogin.Attempt) attempt));
         return id;
     }
 
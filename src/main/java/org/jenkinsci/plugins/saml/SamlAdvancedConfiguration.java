@@ -44,6 +44,18 @@ public class SamlAdvancedConfiguration extends AbstractDescribableImpl<SamlAdvan
 
     private Boolean useDiskCache = false;
 
+    private Boolean useMemoryCache = false;
+
+    private Boolean persistMemoryCache = true;
+
+    private Boolean minimalProfile = false;
+
+    private Boolean passiveLogin = false;
+
+    private Boolean singleLogout = false;
+
+    private Boolean backgroundUserSave = false;
+
     // transient but retained to not cause old data warnings
     @SuppressFBWarnings("UUF_UNUSED_FIELD")
     private transient Boolean randomRelayState;
@@ -82,13 +94,87 @@ public class SamlAdvancedConfiguration extends AbstractDescribableImpl<SamlAdvan
         this.useDiskCache = useDiskCache;
     }
 
+    public Boolean getUseMemoryCache() {
+        return useMemoryCache != null ? useMemoryCache : false;
+    }
+
+    @DataBoundSetter
+    public void setUseMemoryCache(Boolean useMemoryCache) {
+        this.useMemoryCache = useMemoryCache;
+    }
+
+    public Boolean getPersistMemoryCache() {
+        return persistMemoryCache != null ? persistMemoryCache : true;
+    }
+
+    @DataBoundSetter
+    public void setPersistMemoryCache(Boolean persistMemoryCache) {
+        this.persistMemoryCache = persistMemoryCache;
+    }
+
+    public Boolean getMinimalProfile() {
+        return minimalProfile != null ? minimalProfile : false;
+    }
+
+    @DataBoundSetter
+    public void setMinimalProfile(Boolean minimalProfile) {
+        this.minimalProfile = minimalProfile;
+    }
+
+    public Boolean getPassiveLogin() {
+        return passiveLogin != null ? passiveLogin : false;
+    }
+
+    @DataBoundSetter
+    public void setPassiveLogin(Boolean passiveLogin) {
+        this.passiveLogin = passiveLogin;
+    }
+
+    public Boolean getSingleLogout() {
+        return singleLogout != null ? singleLogout : false;
+    }
+
+    @DataBoundSetter
+    public void setSingleLogout(Boolean singleLogout) {
+        this.singleLogout = singleLogout;
+    }
+
+    public Boolean getBackgroundUserSave() {
+        return backgroundUserSave != null ? backgroundUserSave : false;
+    }
+
+    @DataBoundSetter
+    public void setBackgroundUserSave(Boolean backgroundUserSave) {
+        this.backgroundUserSave = backgroundUserSave;
+    }
+
+    /**
+     * @return a copy, the settings of the security realm can not change through it.
+     */
+    @NonNull
+    SamlAdvancedConfiguration copy() {
+        SamlAdvancedConfiguration ret =
+                new SamlAdvancedConfiguration(forceAuthn, authnContextClassRef, spEntityId, nameIdPolicyFormat);
+        ret.useDiskCache = useDiskCache;
+        ret.useMemoryCache = useMemoryCache;
+        ret.persistMemoryCache = persistMemoryCache;
+        ret.minimalProfile = minimalProfile;
+        ret.passiveLogin = passiveLogin;
+        ret.singleLogout = singleLogout;
+        ret.backgroundUserSave = backgroundUserSave;
+        return ret;
+    }
+
     @Override
     public String toString() {
         return "SamlAdvancedConfiguration{" + "forceAuthn=" + getForceAuthn() + ", authnContextClassRef='"
                 + StringUtils.defaultIfBlank(getAuthnContextClassRef(), "none") + '\'' + ", spEntityId='"
                 + StringUtils.defaultIfBlank(getSpEntityId(), "none") + '\'' + ", nameIdPolicyFormat='"
                 + StringUtils.defaultIfBlank(getNameIdPolicyFormat(), "none") + '\''
-                + ", useDiskCache=" + getUseDiskCache() + '}';
+                + ", useDiskCache=" + getUseDiskCache() + ", useMemoryCache=" + getUseMemoryCache()
+                + ", persistMemoryCache=" + getPersistMemoryCache() + ", minimalProfile=" + getMinimalProfile()
+                + ", passiveLogin=" + getPassiveLogin() + ", singleLogout=" + getSingleLogout()
+                + ", backgroundUserSave=" + getBackgroundUserSave() + '}';
     }
 
     @SuppressWarnings("unused")
@@ -0,0 +1,106 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Optional expressions to get the username, the email and the display name from the SAML attributes, instead of
+ * a single attribute name for each.
+ * <p>
+ * An expression is a fallback chain of alternatives separated by <code>||</code>, the first alternative with a
+ * value wins. An alternative is an attribute name, or a template with <code>${attribute}</code> references,
+ * optionally followed by <code>~ REGEX</code> to extract the first capturing group (or the whole match) of the value,
+ * e.g. <code>uid || mail ~ ([^@]+)@.*</code> or <code>${givenName} ${sn} || displayName</code>.
+ * <p>
+ * There is no escaping: the expression is split on every <code>||</code>, then each alternative on its first
+ * <code>~</code>. The attribute names and templates cannot contain <code>~</code>, the regular expressions cannot
+ * contain <code>||</code> but can contain <code>~</code> and <code>|</code>. An invalid expression is logged and the
+ * attribute name is used instead.
+ *
+ * @see SamlAttributePlan
+ */
+public class SamlAttributeMapping extends AbstractDescribableImpl<SamlAttributeMapping> {
+    private final String username;
+    private final String email;
+    private final String displayName;
+
+    @DataBoundConstructor
+    public SamlAttributeMapping(String username, String email, String displayName) {
+        this.username = Util.fixEmptyAndTrim(username);
+        this.email = Util.fixEmptyAndTrim(email);
+        this.displayName = Util.fixEmptyAndTrim(displayName);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    @Override
+    public String toString() {
+        return "SamlAttributeMapping{username='" + StringUtils.defaultIfBlank(getUsername(), "none") + "', email='"
+                + StringUtils.defaultIfBlank(getEmail(), "none") + "', displayName='"
+                + StringUtils.defaultIfBlank(getDisplayName(), "none") + "'}";
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<SamlAttributeMapping> {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Attribute Mapping";
+        }
+
+        @RequirePOST
+        public FormValidation doCheckUsername(@QueryParameter String username) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            return SamlAttributePlan.checkExpression(username);
+        }
+
+        @RequirePOST
+        public FormValidation doCheckEmail(@QueryParameter String email) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            return SamlAttributePlan.checkExpression(email);
+        }
+
+        @RequirePOST
+        public FormValidation doCheckDisplayName(@QueryParameter String displayName) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            return SamlAttributePlan.checkExpression(displayName);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.FormValidation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Compiled extraction of the username, the email and the display name from a SAML profile.
+ * <p>
+ * It is built once per configuration version from the attribute names of the security realm, or from the
+ * {@link SamlAttributeMapping} expressions if there are some. At login the attributes of the profile are read in a
+ * single pass, only the ones the plan uses are kept, and the expressions are evaluated with their regular
+ * expressions already compiled. The plan also knows every attribute the configuration uses, to drop the others from
+ * the profile.
+ */
+@Restricted(NoExternalUse.class)
+final class SamlAttributePlan {
+    private static final Logger LOG = Logger.getLogger(SamlAttributePlan.class.getName());
+
+    private static final String ALTERNATIVE_SEPARATOR = "||";
+    private static final String EXTRACT_SEPARATOR = "~";
+
+    private final long version;
+    private final Expression username;
+    private final Expression email;
+    private final Expression displayName;
+    private final CaseConversion usernameCase;
+    private final Set<String> attributes = new HashSet<>();
+    private final Set<String> profileAttributes;
+
+    private SamlAttributePlan(
+            long version,
+            @CheckForNull Expression username,
+            @CheckForNull Expression email,
+            @CheckForNull Expression displayName,
+            @NonNull CaseConversion usernameCase,
+            @NonNull Collection<String> otherAttributes) {
+        this.version = version;
+        this.username = username;
+        this.email = email;
+        this.displayName = displayName;
+        this.usernameCase = usernameCase;
+        for (Expression expression : new Expression[] {username, email, displayName}) {
+            if (expression != null) {
+                expression.collectAttributes(attributes);
+            }
+        }
+        Set<String> all = new HashSet<>(attributes);
+        otherAttributes.stream().filter(StringUtils::isNotBlank).forEach(all::add);
+        this.profileAttributes = Set.copyOf(all);
+    }
+
+    /**
+     * @param version version of the configuration.
+     * @param mapping expressions, they take precedence over the attribute names.
+     * @param usernameAttributeName attribute of the username, null to use the NameID.
+     * @param emailAttributeName attribute of the email.
+     * @param displayNameAttributeName attribute of the display name.
+     * @param usernameCaseConversion none, lowercase or uppercase.
+     * @param otherAttributes other attributes the configuration uses, e.g. the groups.
+     * @return the plan, an invalid expression is logged and replaced by its attribute name.
+     */
+    @NonNull
+    static SamlAttributePlan compile(
+            long version,
+            @CheckForNull SamlAttributeMapping mapping,
+            @CheckForNull String usernameAttributeName,
+            @CheckForNull String emailAttributeName,
+            @CheckForNull String displayNameAttributeName,
+            @CheckForNull String usernameCaseConversion,
+            @NonNull Collection<String> otherAttributes) {
+        return new SamlAttributePlan(
+                version,
+                compile("username", mapping != null ? mapping.getUsername() : null, usernameAttributeName),
+                compile("email", mapping != null ? mapping.getEmail() : null, emailAttributeName),
+                compile("display name", mapping != null ? mapping.getDisplayName() : null, displayNameAttributeName),
+                CaseConversion.of(usernameCaseConversion),
+                otherAttributes);
+    }
+
+    @CheckForNull
+    private static Expression compile(
+            @NonNull String field, @CheckForNull String expression, @CheckForNull String attributeName) {
+        if (expression == null) {
+            return Expression.attribute(attributeName);
+        }
+        try {
+            return Expression.compile(expression);
+        } catch (IllegalArgumentException e) {
+            LOG.log(Level.SEVERE, "Invalid {0} expression {1}, the attribute {2} is used instead: {3}", new Object[] {
+                field, expression, attributeName, e.getMessage()
+            });
+            return Expression.attribute(attributeName);
+        }
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the names of all the attributes the configuration uses.
+     */
+    @NonNull
+    Set<String> getProfileAttributes() {
+        return profileAttributes;
+    }
+
+    /**
+     * @param profile SAML profile of the login.
+     * @return the username, email and display name of the profile.
+     */
+    @NonNull
+    Values extract(@NonNull SamlLoginProfile profile) {
+        Map<String, String> values = new HashMap<>();
+        for (Map.Entry<String, Object> attribute : profile.attributes().entrySet()) {
+            if (attributes.contains(attribute.getKey())) {
+                String value = firstValue(attribute.getValue());
+                if (value != null) {
+                    values.put(attribute.getKey(), value);
+                }
+            }
+        }
+        String user = username != null ? username.evaluate(values) : null;
+        if (user == null) {
+            if (username != null) {
+                LOG.log(Level.SEVERE, "Unable to get username from {0}, Saml Profile {1}", new Object[] {
+                    username.source, profile
+                });
+                LOG.log(Level.SEVERE, "Falling back to NameId {0}", profile.id());
+            }
+            user = profile.id();
+        }
+        return new Values(
+                usernameCase.apply(user),
+                email != null ? email.evaluate(values) : null,
+                displayName != null ? displayName.evaluate(values) : null);
+    }
+
+    @CheckForNull
+    private static String firstValue(@CheckForNull Object value) {
+        if (value instanceof List<?> list) {
+            for (Object item : list) {
+                if (item != null && StringUtils.isNotBlank(item.toString())) {
+                    return item.toString();
+                }
+            }
+            return null;
+        }
+        return value != null && StringUtils.isNotBlank(value.toString()) ? value.toString() : null;
+    }
+
+    /**
+     * @param expression expression to check.
+     * @return the validation of the expression.
+     */
+    @NonNull
+    static FormValidation checkExpression(@CheckForNull String expression) {
+        try {
+            Expression.compile(expression);
+            return FormValidation.ok();
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Values extracted from a profile.
+     *
+     * @param username the username, converted to the configured case.
+     * @param email the email, null if there is none.
+     * @param displayName the display name, null if there is none.
+     */
+    record Values(@NonNull String username, @CheckForNull String email, @CheckForNull String displayName) {}
+
+    private enum CaseConversion {
+        NONE,
+        LOWERCASE,
+        UPPERCASE;
+
+        static CaseConversion of(@CheckForNull String value) {
+            if ("lowercase".equals(value)) {
+                return LOWERCASE;
+            } else if ("uppercase".equals(value)) {
+                return UPPERCASE;
+            }
+            return NONE;
+        }
+
+        String apply(String value) {
+            return switch (this) {
+                case LOWERCASE -> value.toLowerCase();
+                case UPPERCASE -> value.toUpperCase();
+                default -> value;
+            };
+        }
+    }
+
+    /**
+     * Fallback chain of alternatives.
+     */
+    private static final class Expression {
+        private final String source;
+        private final List<Alternative> alternatives;
+
+        private Expression(String source, List<Alternative> alternatives) {
+            this.source = source;
+            this.alternatives = alternatives;
+        }
+
+        @CheckForNull
+        static Expression compile(@CheckForNull String source) {
+            if (StringUtils.isBlank(source)) {
+                return null;
+            }
+            List<Alternative> alternatives = new ArrayList<>();
+            for (String alternative : StringUtils.splitByWholeSeparator(source, ALTERNATIVE_SEPARATOR)) {
+                if (StringUtils.isNotBlank(alternative)) {
+                    alternatives.add(Alternative.compile(alternative));
+                }
+            }
+            if (alternatives.isEmpty()) {
+                throw new IllegalArgumentException("The expression " + source + " has no attribute");
+            }
+            return new Expression(source.trim(), List.copyOf(alternatives));
+        }
+
+        /**
+         * @return an expression with the value of an attribute, the name is not parsed.
+         */
+        @CheckForNull
+        static Expression attribute(@CheckForNull String name) {
+            if (StringUtils.isBlank(name)) {
+                return null;
+            }
+            return new Expression(
+                    name, List.of(new Alternative(new String[] {"", name}, List.of(name), null)));
+        }
+
+        void collectAttributes(Set<String> attributes) {
+            for (Alternative alternative : alternatives) {
+                attributes.addAll(alternative.attributes);
+            }
+        }
+
+        @CheckForNull
+        String evaluate(Map<String, String> values) {
+            for (Alternative alternative : alternatives) {
+                String ret = alternative.evaluate(values);
+                if (StringUtils.isNotBlank(ret)) {
+                    return ret;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Template, literal parts and attribute references alternately, with an optional extraction.
+     */
+    private static final class Alternative {
+        private final String[] parts;
+        private final List<String> attributes;
+        private final Pattern extract;
+
+        private Alternative(String[] parts, List<String> attributes, Pattern extract) {
+            this.parts = parts;
+            this.attributes = attributes;
+            this.extract = extract;
+        }
+
+        static Alternative compile(String source) {
+            String template = source;
+            Pattern extract = null;
+            int tilde = source.indexOf(EXTRACT_SEPARATOR);
+            if (tilde != -1) {
+                template = source.substring(0, tilde);
+                try {
+                    extract = Pattern.compile(source.substring(tilde + 1).trim());
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("Invalid regular expression: " + e.getDescription(), e);
+                }
+            }
+            template = template.trim();
+            List<String> parts = new ArrayList<>();
+            List<String> attributes = new ArrayList<>();
+            if (!template.contains("${")) {
+                if (template.isEmpty()) {
+                    throw new IllegalArgumentException("Missing attribute name in " + source);
+                }
+                parts.add("");
+                parts.add(template);
+                attributes.add(template);
+            } else {
+                int i = 0;
+                while (i < template.length()) {
+                    int start = template.indexOf("${", i);
+                    if (start == -1) {
+                        parts.add(template.substring(i));
+                        break;
+                    }
+                    int end = template.indexOf('}', start);
+                    if (end == -1) {
+                        throw new IllegalArgumentException("Missing } in " + source);
+                    }
+                    String attribute = template.substring(start + 2, end).trim();
+                    if (attribute.isEmpty()) {
+                        throw new IllegalArgumentException("Missing attribute name in " + source);
+                    }
+                    parts.add(template.substring(i, start));
+                    parts.add(attribute);
+                    attributes.add(attribute);
+                    i = end + 1;
+                }
+            }
+            return new Alternative(parts.toArray(new String[0]), List.copyOf(attributes), extract);
+        }
+
+        /**
+         * @return the value, null if an attribute has no value or the regular expression does not match.
+         */
+        @CheckForNull
+        String evaluate(Map<String, String> values) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < parts.length; i++) {
+                if (i % 2 == 0) {
+                    sb.append(parts[i]);
+                } else {
+                    String value = values.get(parts[i]);
+                    if (value == null) {
+                        return null;
+                    }
+                    sb.append(value);
+                }
+            }
+            String ret = sb.toString();
+            if (extract != null) {
+                Matcher matcher = extract.matcher(ret);
+                if (!matcher.find()) {
+                    return null;
+                }
+                ret = matcher.groupCount() > 0 ? matcher.group(1) : matcher.group();
+            }
+            return ret;
+        }
+    }
+}
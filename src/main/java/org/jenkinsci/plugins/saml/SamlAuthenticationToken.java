@@ -18,19 +18,23 @@ under the License. */
 package org.jenkinsci.plugins.saml;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Objects;
 import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
 
 /**
+ * The authorities are the {@link SamlAuthoritySet} of the user details, they are not copied in the token.
+ *
  * @see AbstractAuthenticationToken
  */
 public final class SamlAuthenticationToken extends AbstractAuthenticationToken {
 
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
     private final SamlUserDetails userDetails;
 
     public SamlAuthenticationToken(@NonNull SamlUserDetails userDetails) {
-        super(userDetails.getAuthorities());
+        super(AuthorityUtils.NO_AUTHORITIES);
         this.userDetails = userDetails;
         this.setDetails(userDetails);
         this.setAuthenticated(true);
@@ -43,4 +47,33 @@ public final class SamlAuthenticationToken extends AbstractAuthenticationToken {
     public String getCredentials() {
         return "SAML does not use passwords";
     }
+
+    @Override
+    public SamlAuthoritySet getAuthorities() {
+        return userDetails.getAuthorities();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SamlAuthenticationToken that)) {
+            return false;
+        }
+        return isAuthenticated() == that.isAuthenticated()
+                && getName().equals(that.getName())
+                && getAuthorities().equals(that.getAuthorities());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(getName(), getAuthorities(), isAuthenticated());
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + " [Principal=" + getName() + ", Authenticated=" + isAuthenticated()
+                + ", Granted Authorities=" + getAuthorities() + "]";
+    }
 }
@@ -0,0 +1,221 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Interner;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.security.SecurityRealm;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Immutable set of the authorities of a SAML user.
+ * <p>
+ * The authorities are interned in a dictionary shared by every session, so a group sent by the IdP for thousands
+ * of users is kept once in the heap. The set is an open addressing hash table in a single array, without the
+ * entry objects of a {@link java.util.HashSet}, and {@link #contains(Object)} is O(1). The users with the same groups
+ * share the same set. The dictionaries hold their values weakly, the authorities of the users gone are collected.
+ */
+@Restricted(NoExternalUse.class)
+public final class SamlAuthoritySet extends AbstractSet<GrantedAuthority> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * estimated heap of a SimpleGrantedAuthority and its String, without the characters.
+     */
+    private static final int AUTHORITY_OVERHEAD = 16 + 24 + 16;
+
+    private static final Cache<String, GrantedAuthority> AUTHORITIES =
+            Caffeine.newBuilder().weakValues().build();
+
+    private static final Interner<SamlAuthoritySet> SETS = Interner.newWeakInterner();
+
+    static {
+        AUTHORITIES.put(SecurityRealm.AUTHENTICATED_AUTHORITY2.getAuthority(), SecurityRealm.AUTHENTICATED_AUTHORITY2);
+        SamlMetrics.gauge("authorities.interned", AUTHORITIES::estimatedSize);
+        SamlMetrics.gauge("authorities.internedBytes", SamlAuthoritySet::internedBytes);
+    }
+
+    /**
+     * authorities in a table with a power of two length, null slots are free.
+     */
+    private final GrantedAuthority[] table;
+
+    private final int size;
+
+    private final int hash;
+
+    private SamlAuthoritySet(GrantedAuthority[] table, int size) {
+        this.table = table;
+        this.size = size;
+        int h = 0;
+        for (GrantedAuthority authority : table) {
+            if (authority != null) {
+                h += authority.getAuthority().hashCode();
+            }
+        }
+        this.hash = h;
+    }
+
+    /**
+     * @param name name of the authority.
+     * @return the shared authority with this name.
+     */
+    @NonNull
+    static GrantedAuthority intern(@NonNull String name) {
+        return AUTHORITIES.get(name, SimpleGrantedAuthority::new);
+    }
+
+    /**
+     * @return estimated heap of the authorities interned now, each of them is kept once whatever the number of users.
+     */
+    static long internedBytes() {
+        long ret = 0;
+        for (String name : AUTHORITIES.asMap().keySet()) {
+            ret += AUTHORITY_OVERHEAD + 2L * name.length();
+        }
+        return ret;
+    }
+
+    /**
+     * @param authorities authorities of an user, duplicates are ignored.
+     * @return the shared set with these authorities, every authority is interned.
+     */
+    @NonNull
+    public static SamlAuthoritySet of(@NonNull Collection<? extends GrantedAuthority> authorities) {
+        if (authorities instanceof SamlAuthoritySet set) {
+            return set;
+        }
+        GrantedAuthority[] table = new GrantedAuthority[tableSize(authorities.size())];
+        int size = 0;
+        for (GrantedAuthority authority : authorities) {
+            if (authority == null || authority.getAuthority() == null) {
+                continue;
+            }
+            GrantedAuthority interned = intern(authority.getAuthority());
+            if (insert(table, interned)) {
+                size++;
+            }
+        }
+        return SETS.intern(new SamlAuthoritySet(table, size));
+    }
+
+    private static int tableSize(int size) {
+        // load factor under 0.5 keeps the probe sequences short
+        return Integer.highestOneBit(Math.max(size, 1) * 2 + 1) << 1;
+    }
+
+    private static boolean insert(GrantedAuthority[] table, GrantedAuthority authority) {
+        int mask = table.length - 1;
+        String name = authority.getAuthority();
+        for (int i = spread(name.hashCode()) & mask; ; i = (i + 1) & mask) {
+            if (table[i] == null) {
+                table[i] = authority;
+                return true;
+            }
+            if (name.equals(table[i].getAuthority())) {
+                return false;
+            }
+        }
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof GrantedAuthority authority) || authority.getAuthority() == null) {
+            return false;
+        }
+        String name = authority.getAuthority();
+        int mask = table.length - 1;
+        for (int i = spread(name.hashCode()) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (table[i] == authority || name.equals(table[i].getAuthority())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @NonNull
+    public Iterator<GrantedAuthority> iterator() {
+        return new Iterator<>() {
+            private int next = advance(0);
+
+            private int advance(int i) {
+                while (i < table.length && table[i] == null) {
+                    i++;
+                }
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < table.length;
+            }
+
+            @Override
+            public GrantedAuthority next() {
+                if (next >= table.length) {
+                    throw new NoSuchElementException();
+                }
+                GrantedAuthority ret = table[next];
+                next = advance(next + 1);
+                return ret;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof SamlAuthoritySet other) {
+            return this == other || (hash == other.hash && size == other.size && containsAll(other));
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Share the authorities again when a session is restored.
+     */
+    private Object readResolve() {
+        return of(Arrays.asList(table));
+    }
+}
@@ -32,7 +32,8 @@ public class SamlCrumbExclusion extends CrumbExclusion {
             LOG.fine("SamlCrumbExclusion.shouldExclude empty");
             return false;
         }
-        if (pathInfo.startsWith("/" + SamlSecurityRealm.CONSUMER_SERVICE_URL_PATH)) {
+        if (pathInfo.startsWith("/" + SamlSecurityRealm.CONSUMER_SERVICE_URL_PATH)
+                || pathInfo.startsWith("/" + SamlSecurityRealm.SINGLE_LOGOUT_URL_PATH)) {
             LOG.fine("SamlCrumbExclusion.shouldExclude excluding '" + pathInfo + "'");
             return true;
         } else {
@@ -48,10 +48,17 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import jenkins.model.Jenkins;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
@@ -66,6 +73,10 @@ public class SamlEncryptionData extends AbstractDescribableImpl<SamlEncryptionDa
     private final String privateKeyAlias;
     private final boolean forceSignRedirectBindingAuthnRequest;
     private boolean wantsAssertionsSigned;
+    /**
+     * aliases of the keys that are published and can decrypt along with the active key, one per line.
+     */
+    private String rolloverKeyAliases;
 
     @DataBoundConstructor
     public SamlEncryptionData(
@@ -124,6 +135,61 @@ public class SamlEncryptionData extends AbstractDescribableImpl<SamlEncryptionDa
         this.wantsAssertionsSigned = wantsAssertionsSigned;
     }
 
+    public @CheckForNull String getRolloverKeyAliases() {
+        return rolloverKeyAliases;
+    }
+
+    @DataBoundSetter
+    public void setRolloverKeyAliases(String rolloverKeyAliases) {
+        this.rolloverKeyAliases = Util.fixEmptyAndTrim(rolloverKeyAliases);
+    }
+
+    /**
+     * @return the aliases of the keys to load, the active key first (empty if not set) then the rollover keys, one
+     * per line. The duplicates are dropped ignoring the case, as the keystore aliases.
+     */
+    @NonNull
+    public List<String> getPrivateKeyAliases() {
+        List<String> ret = new ArrayList<>();
+        ret.add(StringUtils.defaultString(privateKeyAlias));
+        Set<String> seen = new HashSet<>();
+        seen.add(StringUtils.defaultString(privateKeyAlias).toLowerCase(Locale.ROOT));
+        for (String alias : StringUtils.split(StringUtils.defaultString(rolloverKeyAliases), "\n\r")) {
+            String value = alias.trim();
+            if (!value.isEmpty() && seen.add(value.toLowerCase(Locale.ROOT))) {
+                ret.add(value);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return what identifies the keys: the keystore path, the aliases and a SHA-256 of the passwords.
+     */
+    @NonNull
+    String getKeysFingerprint() {
+        return "keystorePath=" + keystorePath + ", privateKeyAlias=" + privateKeyAlias + ", rolloverKeyAliases="
+                + rolloverKeyAliases + ", passwords="
+                + DigestUtils.sha256Hex(StringUtils.defaultString(getKeystorePasswordPlainText()) + '\0'
+                        + StringUtils.defaultString(getPrivateKeyPasswordPlainText()));
+    }
+
+    /**
+     * @return a copy, the settings of the security realm can not change through it.
+     */
+    @NonNull
+    SamlEncryptionData copy() {
+        SamlEncryptionData ret = new SamlEncryptionData(
+                keystorePath,
+                keystorePasswordSecret,
+                privateKeyPasswordSecret,
+                privateKeyAlias,
+                forceSignRedirectBindingAuthnRequest,
+                wantsAssertionsSigned);
+        ret.rolloverKeyAliases = rolloverKeyAliases;
+        return ret;
+    }
+
     @Override
     public String toString() {
         return "SamlEncryptionData{" + "keystorePath='" + StringUtils.defaultIfBlank(keystorePath, "none") + '\''
@@ -131,7 +197,8 @@ public class SamlEncryptionData extends AbstractDescribableImpl<SamlEncryptionDa
                 + ", privateKeyPassword is NOT empty='" + (getPrivateKeyPasswordPlainText() != null) + '\''
                 + ", privateKeyAlias is NOT empty='" + StringUtils.isNotEmpty(privateKeyAlias) + '\''
                 + ", forceSignRedirectBindingAuthnRequest = " + forceSignRedirectBindingAuthnRequest
-                + ", wantsAssertionsSigned = " + wantsAssertionsSigned + '}';
+                + ", wantsAssertionsSigned = " + wantsAssertionsSigned
+                + ", rolloverKeyAliases is NOT empty='" + StringUtils.isNotEmpty(rolloverKeyAliases) + '\'' + '}';
     }
 
     @SuppressWarnings("unused")
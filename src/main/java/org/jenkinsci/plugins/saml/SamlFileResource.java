@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Path;
 import org.apache.commons.lang3.NotImplementedException;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.WritableResource;
@@ -36,7 +37,10 @@ class SamlFileResource implements WritableResource {
     private final WritableResource resource;
 
     public SamlFileResource(@NonNull String fileName) {
-        if (getUseDiskCache()) {
+        SamlAdvancedConfiguration config = getAdvancedConfiguration();
+        if (config != null && config.getUseMemoryCache()) {
+            this.resource = new SamlFileResourceMemory(fileName, config.getPersistMemoryCache());
+        } else if (config != null && config.getUseDiskCache()) {
             this.resource = new SamlFileResourceCache(fileName);
         } else {
             this.resource = new SamlFileResourceDisk(fileName);
@@ -44,22 +48,64 @@ class SamlFileResource implements WritableResource {
     }
 
     public SamlFileResource(@NonNull String fileName, @NonNull String data) {
-        if (getUseDiskCache()) {
+        SamlAdvancedConfiguration config = getAdvancedConfiguration();
+        if (config != null && config.getUseMemoryCache()) {
+            this.resource = new SamlFileResourceMemory(fileName, data, config.getPersistMemoryCache());
+        } else if (config != null && config.getUseDiskCache()) {
             this.resource = new SamlFileResourceCache(fileName, data);
         } else {
             this.resource = new SamlFileResourceDisk(fileName, data);
         }
     }
 
-    private boolean getUseDiskCache() {
-        boolean ret = false;
+    /**
+     * Write a file where the settings say: in memory, or on disk only if the content changes.
+     *
+     * @param fileName file to write.
+     * @param data content of the file.
+     * @return true if the content changed.
+     * @throws IOException in case of error writing the file to disk.
+     */
+    static boolean write(@NonNull String fileName, @NonNull String data) throws IOException {
+        SamlAdvancedConfiguration config = getAdvancedConfiguration();
+        if (config != null && config.getUseMemoryCache()) {
+            return SamlFileResourceMemory.write(fileName, data, config.getPersistMemoryCache());
+        }
+        return SamlFileWriter.write(fileName, data);
+    }
+
+    /**
+     * @param fileName file to read.
+     * @return the content of the file, from memory if the settings say so.
+     * @throws IOException in case of error reading the file.
+     */
+    @NonNull
+    static byte[] read(@NonNull String fileName) throws IOException {
+        try (InputStream in = new SamlFileResource(fileName).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * @param path file that is not kept in memory, like a key store.
+     * @return the path, the modification time and the size of the file. In memory they are only read again when the
+     * plugin writes the file or the configuration is saved.
+     */
+    @NonNull
+    static String getFileStamp(@NonNull Path path) {
+        SamlAdvancedConfiguration config = getAdvancedConfiguration();
+        if (config != null && config.getUseMemoryCache()) {
+            return SamlFileResourceMemory.getFileStamp(path);
+        }
+        return SamlFileResourceMemory.readFileStamp(path);
+    }
+
+    private static SamlAdvancedConfiguration getAdvancedConfiguration() {
+        SamlAdvancedConfiguration ret = null;
         jenkins.model.Jenkins j = jenkins.model.Jenkins.get();
         if (j.getSecurityRealm() instanceof SamlSecurityRealm) {
             SamlSecurityRealm samlSecurityRealm = (SamlSecurityRealm) j.getSecurityRealm();
-            SamlAdvancedConfiguration config = samlSecurityRealm.getAdvancedConfiguration();
-            if (config != null) {
-                ret = config.getUseDiskCache();
-            }
+            ret = samlSecurityRealm.getAdvancedConfiguration();
         }
         return ret;
     }
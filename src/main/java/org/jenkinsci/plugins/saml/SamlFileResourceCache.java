@@ -27,7 +27,6 @@ import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -159,7 +158,7 @@ class SamlFileResourceCache implements WritableResource {
     private void save(@NonNull String fileName, @NonNull String data) throws IOException {
         if (isNew(fileName, data)) {
             LOG.log(Level.FINER, "Save resource to disk : %s", fileName);
-            Files.write(new File(fileName).toPath(), data.getBytes("UTF-8"));
+            SamlFileWriter.write(fileName, data);
             cache.put(fileName, data);
         }
     }
@@ -18,6 +18,7 @@ under the License. */
 package org.jenkinsci.plugins.saml;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -27,7 +28,6 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.NotImplementedException;
 import org.pac4j.core.exception.TechnicalException;
@@ -48,7 +48,7 @@ class SamlFileResourceDisk implements WritableResource {
     public SamlFileResourceDisk(@NonNull String fileName, @NonNull String data) {
         this.fileName = fileName;
         try {
-            Files.write(getFile().toPath(), data.getBytes(StandardCharsets.UTF_8));
+            SamlFileWriter.write(fileName, data);
         } catch (UnsupportedEncodingException e) {
             throw new TechnicalException("Could not get string bytes.", e);
         } catch (java.io.IOException e) {
@@ -130,6 +130,11 @@ class SamlFileResourceDisk implements WritableResource {
     @NonNull
     @Override
     public OutputStream getOutputStream() throws IOException {
-        return Files.newOutputStream(getFile().toPath());
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() throws IOException {
+                SamlFileWriter.write(fileName, toString(StandardCharsets.UTF_8));
+            }
+        };
     }
 }
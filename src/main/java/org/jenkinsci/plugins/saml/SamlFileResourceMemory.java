@@ -0,0 +1,353 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.NotImplementedException;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.WritableResource;
+
+/**
+ * Class to manage the metadata files in memory, for a JENKINS_HOME that is slow or read-only.
+ * <p>
+ * The content of each file is kept in memory, a file is only read from disk the first time it is used, and the
+ * writes go to memory. If the persistence is enabled the last content of each file is saved to disk in the
+ * background, the login never waits for it.
+ * The files that are not kept in memory, like the key stores, are only checked for changes when the plugin writes
+ * them or the configuration is saved, see {@link #getFileStamp(Path)}.
+ */
+class SamlFileResourceMemory implements WritableResource {
+    private static final Logger LOG = Logger.getLogger(SamlFileResourceMemory.class.getName());
+
+    private static final Map<String, Entry> STORE = new ConcurrentHashMap<>();
+
+    /**
+     * files waiting to be saved, with their last content.
+     */
+    private static final Map<String, String> PENDING = new ConcurrentHashMap<>();
+
+    /**
+     * modification time and size of the files that are not kept in memory, by path.
+     */
+    private static final Map<String, String> STAMPS = new ConcurrentHashMap<>();
+
+    /**
+     * background worker, created on demand and stopped with Jenkins, guarded by the class.
+     */
+    private static ExecutorService persister;
+
+    /**
+     * true while Jenkins is stopping, the files are saved at once then, guarded by the class.
+     */
+    private static boolean stopped;
+
+    private final String fileName;
+    private final boolean persist;
+
+    public SamlFileResourceMemory(@NonNull String fileName, boolean persist) {
+        this.fileName = fileName;
+        this.persist = persist;
+    }
+
+    public SamlFileResourceMemory(@NonNull String fileName, @NonNull String data, boolean persist) {
+        this(fileName, persist);
+        save(data);
+    }
+
+    /**
+     * Update the content in memory of a file written to disk by other means, so the memory mode never reads an
+     * outdated content.
+     *
+     * @param fileName file written.
+     * @param data new content.
+     */
+    static void update(@NonNull String fileName, @NonNull String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        STORE.compute(
+                fileName,
+                (key, entry) -> entry != null && Arrays.equals(entry.data, bytes) ? entry : new Entry(bytes));
+    }
+
+    /**
+     * @param fileName file to write.
+     * @param data content of the file.
+     * @param persist true to save it to disk in the background.
+     * @return true if the content changed.
+     */
+    static boolean write(@NonNull String fileName, @NonNull String data, boolean persist) {
+        return new SamlFileResourceMemory(fileName, persist).save(data);
+    }
+
+    /**
+     * @param path file that is not kept in memory, like a key store.
+     * @return the modification time and the size of the file when it was first used or last written by the plugin,
+     * so the logins do not access the file system to know if it changed.
+     */
+    @NonNull
+    static String getFileStamp(@NonNull Path path) {
+        return STAMPS.computeIfAbsent(path.toString(), key -> readFileStamp(path));
+    }
+
+    /**
+     * Read again the modification time and the size of a file the plugin has written.
+     *
+     * @param path file written.
+     */
+    static void touched(@NonNull Path path) {
+        STAMPS.computeIfPresent(path.toString(), (key, stamp) -> readFileStamp(path));
+    }
+
+    /**
+     * Forget the modification time and the size of the files, they are read again the next time they are used.
+     * The configuration may point to other files or they may have been replaced.
+     */
+    static void forgetFileStamps() {
+        STAMPS.clear();
+    }
+
+    /**
+     * @param path file to check.
+     * @return the path with the modification time and the size of the file, it changes when the file is replaced
+     * or modified.
+     */
+    @NonNull
+    static String readFileStamp(@NonNull Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return path + "@" + attributes.lastModifiedTime().toMillis() + ":" + attributes.size();
+        } catch (IOException e) {
+            return path + "@missing";
+        }
+    }
+
+    /**
+     * Save the files in the background again after an in-JVM restart.
+     */
+    @SuppressWarnings("unused")
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static synchronized void start() {
+        stopped = false;
+    }
+
+    /**
+     * Save the files waiting to be saved before Jenkins stops.
+     */
+    @SuppressWarnings("unused")
+    @Terminator
+    public static void flush() throws InterruptedException {
+        ExecutorService executor;
+        synchronized (SamlFileResourceMemory.class) {
+            stopped = true;
+            executor = persister;
+            persister = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warning("Some metadata files were not saved");
+            }
+        }
+    }
+
+    /**
+     * @param task save to run in the background.
+     * @return false if Jenkins is stopping, the task is not run then.
+     */
+    private static synchronized boolean submit(@NonNull Runnable task) {
+        if (stopped) {
+            return false;
+        }
+        if (persister == null) {
+            persister = Executors.newSingleThreadExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "SAML metadata persister"));
+        }
+        persister.submit(task);
+        return true;
+    }
+
+    @CheckForNull
+    private Entry entry() {
+        Entry entry = STORE.get(fileName);
+        if (entry != null) {
+            return entry;
+        }
+        try {
+            entry = new Entry(Files.readAllBytes(Path.of(fileName)));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not read " + fileName, e);
+            return null;
+        }
+        Entry previous = STORE.putIfAbsent(fileName, entry);
+        return previous != null ? previous : entry;
+    }
+
+    private boolean save(@NonNull String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        Entry current = STORE.get(fileName);
+        if (current != null && Arrays.equals(current.data, bytes)) {
+            return false;
+        }
+        STORE.put(fileName, new Entry(bytes));
+        if (persist && PENDING.put(fileName, data) == null && !submit(this::persist)) {
+            persist();
+        }
+        return true;
+    }
+
+    private void persist() {
+        String data = PENDING.remove(fileName);
+        if (data == null) {
+            return;
+        }
+        try {
+            SamlFileWriter.write(fileName, data);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not save " + fileName + ", it is kept in memory", e);
+        }
+    }
+
+    @Override
+    public boolean exists() {
+        return entry() != null;
+    }
+
+    @Override
+    public boolean isReadable() {
+        return exists();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return false;
+    }
+
+    @Override
+    public URL getURL() throws MalformedURLException {
+        return getURI().toURL();
+    }
+
+    @Override
+    public URI getURI() {
+        return getFile().toURI();
+    }
+
+    @Override
+    public String getFilename() {
+        return fileName;
+    }
+
+    @Override
+    public String getDescription() {
+        return fileName;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        Entry entry = entry();
+        if (entry == null) {
+            throw new FileNotFoundException(fileName);
+        }
+        return new ByteArrayInputStream(entry.data);
+    }
+
+    @Override
+    public File getFile() {
+        return new File(fileName);
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        Entry entry = entry();
+        if (entry == null) {
+            throw new FileNotFoundException(fileName);
+        }
+        return entry.data.length;
+    }
+
+    @Override
+    public long lastModified() throws IOException {
+        Entry entry = entry();
+        if (entry == null) {
+            throw new FileNotFoundException(fileName);
+        }
+        return entry.lastModified;
+    }
+
+    @Override
+    public Resource createRelative(String s) {
+        throw new NotImplementedException();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return true;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                save(toString(StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Content of a file and when it changed.
+     */
+    private static final class Entry {
+        private final byte[] data;
+        private final long lastModified = System.currentTimeMillis();
+
+        Entry(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.AtomicFileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Writes the metadata files only if the content changes, and never leaves a half-written file.
+ * <p>
+ * The SHA-256 digest of the last content written (or read) is kept with the size and the modification time of the
+ * file, if the file has not been touched since then and the digest matches nothing is written, a file modified
+ * outside the plugin is read once to compare it. The content is written to a temporary file in the same folder
+ * and moved over the target with {@link AtomicFileWriter}.
+ */
+@Restricted(NoExternalUse.class)
+final class SamlFileWriter {
+    private static final Logger LOG = Logger.getLogger(SamlFileWriter.class.getName());
+
+    private static final Map<Path, Stamp> STAMPS = new HashMap<>();
+
+    private SamlFileWriter() {}
+
+    /**
+     * @param fileName file to write.
+     * @param data content of the file.
+     * @return true if the file was written, false if it already had that content.
+     * @throws IOException in case of error writing the file.
+     */
+    static synchronized boolean write(@NonNull String fileName, @NonNull String data) throws IOException {
+        SamlFileResourceMemory.update(fileName, data);
+        Path file = Path.of(fileName).toAbsolutePath();
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        String digest = DigestUtils.sha256Hex(bytes);
+        BasicFileAttributes attrs = readAttributes(file);
+        if (attrs != null && attrs.size() == bytes.length && digest.equals(currentDigest(file, attrs))) {
+            LOG.log(Level.FINEST, "The file {0} has not changed", file);
+            return false;
+        }
+        AtomicFileWriter writer = new AtomicFileWriter(file, StandardCharsets.UTF_8);
+        try {
+            writer.write(data);
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+        attrs = readAttributes(file);
+        if (attrs != null) {
+            STAMPS.put(file, new Stamp(digest, attrs.size(), attrs.lastModifiedTime()));
+        }
+        LOG.log(Level.FINER, "Saved {0}", file);
+        return true;
+    }
+
+    @CheckForNull
+    private static BasicFileAttributes readAttributes(@NonNull Path file) throws IOException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the digest of the file content, only read from disk if the file changed since the last write.
+     */
+    @NonNull
+    private static String currentDigest(@NonNull Path file, @NonNull BasicFileAttributes attrs) throws IOException {
+        Stamp stamp = STAMPS.get(file);
+        if (stamp != null && stamp.size == attrs.size() && stamp.lastModified.equals(attrs.lastModifiedTime())) {
+            return stamp.digest;
+        }
+        String digest;
+        try (InputStream in = Files.newInputStream(file)) {
+            digest = DigestUtils.sha256Hex(in);
+        }
+        STAMPS.put(file, new Stamp(digest, attrs.size(), attrs.lastModifiedTime()));
+        return digest;
+    }
+
+    /**
+     * Digest of a file content at a given size and modification time.
+     */
+    private record Stamp(String digest, long size, FileTime lastModified) {}
+}
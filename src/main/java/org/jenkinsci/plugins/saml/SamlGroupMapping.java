@@ -0,0 +1,155 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Translates the group IDs sent by the IdP (e.g. the object IDs of Azure AD) to group names, with the table in
+ * <code>JENKINS_HOME/saml-group-mapping.properties</code>, one <code>ID=name</code> per line.
+ * <p>
+ * The table is kept in memory in an immutable map, which is a single flat array, and read again when the file
+ * changes; the file is checked at most every few seconds.
+ * Without the file the groups are not translated. With the file, the groups that are not in the table are kept as
+ * they are and reported: logged the first time, and listed in the <code>groupMapping.unmapped</code> gauge.
+ */
+@Restricted(NoExternalUse.class)
+final class SamlGroupMapping {
+    private static final Logger LOG = Logger.getLogger(SamlGroupMapping.class.getName());
+
+    public static final String FILE_NAME = "saml-group-mapping.properties";
+
+    /**
+     * property to set the minimum time between checks of the mapping file.
+     * -Dorg.jenkinsci.plugins.saml.SamlGroupMapping.checkPeriod=MILLISECONDS
+     */
+    public static final String CHECK_PERIOD_PROPERTY = SamlGroupMapping.class.getName() + ".checkPeriod";
+
+    public static final long CHECK_PERIOD = Long.parseLong(System.getProperty(CHECK_PERIOD_PROPERTY, "5000"));
+
+    private static final int MAX_UNMAPPED = 1000;
+
+    private static final Cache<String, Boolean> UNMAPPED =
+            Caffeine.newBuilder().maximumSize(MAX_UNMAPPED).build();
+
+    private static volatile Table table = new Table(Map.of(), 0, -1);
+
+    private static volatile long lastCheck;
+
+    static {
+        SamlMetrics.gauge("groupMapping.size", () -> table.map.size());
+        SamlMetrics.gauge("groupMapping.unmapped", () -> List.copyOf(UNMAPPED.asMap().keySet()));
+    }
+
+    private SamlGroupMapping() {}
+
+    /**
+     * @param group group sent by the IdP.
+     * @return the name of the group in the mapping table, or the group if it is not there.
+     */
+    @NonNull
+    static String translate(@NonNull String group) {
+        Table current = getTable();
+        if (current.map.isEmpty()) {
+            return group;
+        }
+        String ret = current.map.get(group);
+        if (ret != null) {
+            return ret;
+        }
+        if (UNMAPPED.asMap().putIfAbsent(group, Boolean.TRUE) == null) {
+            LOG.log(Level.WARNING, "The group {0} is not in {1}", new Object[] {group, FILE_NAME});
+        }
+        return group;
+    }
+
+    /**
+     * Check the mapping file on the next login, whatever the time of the last check.
+     */
+    static void invalidate() {
+        lastCheck = 0;
+    }
+
+    @NonNull
+    private static Table getTable() {
+        long now = System.currentTimeMillis();
+        if (now - lastCheck < CHECK_PERIOD) {
+            return table;
+        }
+        synchronized (SamlGroupMapping.class) {
+            if (now - lastCheck >= CHECK_PERIOD) {
+                reloadIfChanged();
+                lastCheck = now;
+            }
+            return table;
+        }
+    }
+
+    private static void reloadIfChanged() {
+        File file = new File(Jenkins.get().getRootDir(), FILE_NAME);
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (lastModified == table.lastModified && length == table.length) {
+            return;
+        }
+        if (lastModified == 0) {
+            table = new Table(Map.of(), 0, -1);
+            UNMAPPED.invalidateAll();
+            return;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.log(Level.WARNING, "Unable to read " + file + ", the previous group mapping is kept", e);
+            return;
+        }
+        Map<String, String> map = new HashMap<>();
+        for (String id : properties.stringPropertyNames()) {
+            String name = StringUtils.trimToNull(properties.getProperty(id));
+            if (StringUtils.isNotBlank(id) && name != null) {
+                map.put(id.trim(), name);
+            }
+        }
+        table = new Table(Map.copyOf(map), lastModified, length);
+        UNMAPPED.invalidateAll();
+        LOG.log(Level.INFO, "Loaded {0} group mappings from {1}", new Object[] {map.size(), file});
+    }
+
+    /**
+     * Mapping table and the state of the file it was read from.
+     */
+    private record Table(Map<String, String> map, long lastModified, long length) {}
+}
@@ -0,0 +1,112 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Rename rule of {@link SamlGroupsFilter}, the groups that match the pattern are replaced by the replacement,
+ * which can use <code>$1</code> etc. for the capturing groups of the pattern.
+ */
+public class SamlGroupRename extends AbstractDescribableImpl<SamlGroupRename> {
+    private final String pattern;
+    private final String replacement;
+
+    @DataBoundConstructor
+    public SamlGroupRename(String pattern, String replacement) {
+        this.pattern = Util.fixEmptyAndTrim(pattern);
+        this.replacement = StringUtils.defaultString(replacement);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    public String getReplacement() {
+        return replacement;
+    }
+
+    @Override
+    public String toString() {
+        return "SamlGroupRename{pattern='" + getPattern() + "', replacement='" + getReplacement() + "'}";
+    }
+
+    /**
+     * @param pattern regular expression of the rule.
+     * @param replacement replacement of the rule.
+     * @return the validation of the groups and the escapes used by the replacement, which would fail at login.
+     */
+    @NonNull
+    static FormValidation checkReplacement(String pattern, String replacement) {
+        if (StringUtils.isBlank(pattern) || StringUtils.isEmpty(replacement)) {
+            return FormValidation.ok();
+        }
+        Matcher matcher;
+        try {
+            matcher = Pattern.compile("(?:" + pattern.trim() + ")|").matcher("");
+        } catch (PatternSyntaxException e) {
+            return FormValidation.ok();
+        }
+        try {
+            matcher.find();
+            matcher.appendReplacement(new StringBuilder(), replacement);
+            return FormValidation.ok();
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return FormValidation.error("Invalid replacement: " + e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<SamlGroupRename> {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Rename";
+        }
+
+        @RequirePOST
+        public FormValidation doCheckPattern(@QueryParameter String pattern) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            if (StringUtils.isBlank(pattern)) {
+                return FormValidation.error("The pattern is required");
+            }
+            return SamlGroupsFilter.checkPattern(pattern);
+        }
+
+        @RequirePOST
+        public FormValidation doCheckReplacement(
+                @QueryParameter String pattern, @QueryParameter String replacement) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            return checkReplacement(pattern, replacement);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * Optional filter of the groups sent by the IdP, applied at login before the groups become authorities.
+ * <p>
+ * For each group: if it matches the exclude pattern it is dropped; if it matches a rename rule it is renamed and kept;
+ * if it matches the include pattern, or there is no include pattern, it is kept; otherwise it is dropped.
+ * The groups kept get the prefix and then the case conversion. The patterns must match the whole group name.
+ * <p>
+ * The exclude pattern, the rename rules and the include pattern are compiled once in a single regular expression
+ * with one alternative each, so a group is matched once whatever the number of rules; only the renamed groups are
+ * matched again by their rule to apply the replacement. The patterns with back references or named groups cannot
+ * be joined without changing their meaning, if there is one of them each pattern is matched on its own.
+ */
+public class SamlGroupsFilter extends AbstractDescribableImpl<SamlGroupsFilter> {
+
+    private static final LongAdder KEPT = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+
+    static {
+        SamlMetrics.gauge("groupsFilter.kept", KEPT::sum);
+        SamlMetrics.gauge("groupsFilter.dropped", DROPPED::sum);
+    }
+
+    private final String includePattern;
+    private final String excludePattern;
+
+    private List<SamlGroupRename> renames = new ArrayList<>();
+    private String prefix;
+    private String caseConversion = SamlSecurityRealm.DEFAULT_USERNAME_CASE_CONVERSION;
+
+    /**
+     * the patterns compiled, built on the first login after the configuration.
+     */
+    private transient volatile Compiled compiled;
+
+    @DataBoundConstructor
+    public SamlGroupsFilter(String includePattern, String excludePattern) {
+        this.includePattern = Util.fixEmptyAndTrim(includePattern);
+        this.excludePattern = Util.fixEmptyAndTrim(excludePattern);
+    }
+
+    public String getIncludePattern() {
+        return includePattern;
+    }
+
+    public String getExcludePattern() {
+        return excludePattern;
+    }
+
+    @NonNull
+    public List<SamlGroupRename> getRenames() {
+        return renames != null ? renames : List.of();
+    }
+
+    @DataBoundSetter
+    public void setRenames(List<SamlGroupRename> renames) {
+        this.renames = renames != null ? new ArrayList<>(renames) : new ArrayList<>();
+        compiled = null;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    @DataBoundSetter
+    public void setPrefix(String prefix) {
+        this.prefix = Util.fixEmpty(prefix);
+    }
+
+    @NonNull
+    public String getCaseConversion() {
+        return StringUtils.defaultIfBlank(caseConversion, SamlSecurityRealm.DEFAULT_USERNAME_CASE_CONVERSION);
+    }
+
+    @DataBoundSetter
+    public void setCaseConversion(String caseConversion) {
+        this.caseConversion = caseConversion;
+    }
+
+    /**
+     * @param group group sent by the IdP.
+     * @return the name of the authority for the group, null if the group is dropped.
+     */
+    @CheckForNull
+    public String apply(@NonNull String group) {
+        String ret = compile().apply(group);
+        if (ret == null) {
+            DROPPED.increment();
+            return null;
+        }
+        KEPT.increment();
+        if (prefix != null) {
+            ret = prefix + ret;
+        }
+        if ("lowercase".equals(getCaseConversion())) {
+            ret = ret.toLowerCase(Locale.ROOT);
+        } else if ("uppercase".equals(getCaseConversion())) {
+            ret = ret.toUpperCase(Locale.ROOT);
+        }
+        return ret;
+    }
+
+    @NonNull
+    private Compiled compile() {
+        Compiled ret = compiled;
+        if (ret == null) {
+            ret = new Compiled(excludePattern, getRenames(), includePattern);
+            compiled = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * @param pattern regular expression.
+     * @return the validation of the pattern.
+     */
+    @NonNull
+    static FormValidation checkPattern(@CheckForNull String pattern) {
+        if (StringUtils.isBlank(pattern)) {
+            return FormValidation.ok();
+        }
+        try {
+            Pattern.compile(pattern.trim());
+            return FormValidation.ok();
+        } catch (PatternSyntaxException e) {
+            return FormValidation.error("Invalid regular expression: " + e.getDescription());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SamlGroupsFilter{includePattern='" + StringUtils.defaultIfBlank(getIncludePattern(), "none")
+                + "', excludePattern='" + StringUtils.defaultIfBlank(getExcludePattern(), "none") + "', renames="
+                + getRenames() + ", prefix='" + StringUtils.defaultIfBlank(getPrefix(), "none")
+                + "', caseConversion='" + getCaseConversion() + "'}";
+    }
+
+    /**
+     * @param pattern regular expression.
+     * @return true if the pattern has a back reference or a named group, whose meaning depends on the other groups
+     * of the regular expression.
+     */
+    static boolean isStandalone(@NonNull String pattern) {
+        for (int i = 0; i < pattern.length() - 1; i++) {
+            char c = pattern.charAt(i);
+            char next = pattern.charAt(i + 1);
+            if (c == '\\') {
+                if ((next >= '1' && next <= '9') || next == 'k') {
+                    return true;
+                }
+                i++;
+            } else if (c == '(' && pattern.startsWith("?<", i + 1) && i + 3 < pattern.length()
+                    && Character.isLetter(pattern.charAt(i + 3))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Single regular expression <code>(EXCLUDE)|(RENAME_1)|...|(RENAME_N)|(INCLUDE)</code>, the alternative that
+     * matched is found from the index of its group. When one of the patterns is standalone the patterns are matched
+     * one by one instead.
+     */
+    private static final class Compiled {
+        private final Pattern all;
+        private final Pattern exclude;
+        private final Pattern include;
+        private final int excludeGroup;
+        private final int[] renameGroups;
+        private final Pattern[] renamePatterns;
+        private final String[] replacements;
+        private final int includeGroup;
+
+        Compiled(@CheckForNull String exclude, @NonNull List<SamlGroupRename> renames, @CheckForNull String include) {
+            StringBuilder regex = new StringBuilder();
+            int group = 1;
+            excludeGroup = exclude != null ? group : -1;
+            group = append(regex, exclude, group);
+            List<SamlGroupRename> rules =
+                    renames.stream().filter(r -> r.getPattern() != null).toList();
+            renameGroups = new int[rules.size()];
+            renamePatterns = new Pattern[rules.size()];
+            replacements = new String[rules.size()];
+            for (int i = 0; i < rules.size(); i++) {
+                renameGroups[i] = group;
+                renamePatterns[i] = Pattern.compile(rules.get(i).getPattern());
+                replacements[i] = rules.get(i).getReplacement();
+                group = append(regex, rules.get(i).getPattern(), group);
+            }
+            includeGroup = include != null ? group : -1;
+            append(regex, include, group);
+            boolean standalone = (exclude != null && isStandalone(exclude))
+                    || (include != null && isStandalone(include))
+                    || rules.stream().anyMatch(r -> isStandalone(r.getPattern()));
+            if (standalone) {
+                this.all = null;
+                this.exclude = exclude != null ? Pattern.compile(exclude) : null;
+                this.include = include != null ? Pattern.compile(include) : null;
+            } else {
+                this.all = regex.length() > 0 ? Pattern.compile(regex.toString()) : null;
+                this.exclude = null;
+                this.include = null;
+            }
+        }
+
+        private static int append(StringBuilder regex, @CheckForNull String pattern, int group) {
+            if (pattern == null) {
+                return group;
+            }
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            regex.append('(').append(pattern).append(')');
+            return group + 1 + Pattern.compile(pattern).matcher("").groupCount();
+        }
+
+        @CheckForNull
+        String apply(@NonNull String group) {
+            if (all == null) {
+                return applyOneByOne(group);
+            }
+            Matcher matcher = all.matcher(group);
+            if (!matcher.matches()) {
+                return includeGroup == -1 ? group : null;
+            }
+            if (excludeGroup != -1 && matcher.start(excludeGroup) != -1) {
+                return null;
+            }
+            for (int i = 0; i < renameGroups.length; i++) {
+                if (matcher.start(renameGroups[i]) != -1) {
+                    Matcher rename = renamePatterns[i].matcher(group);
+                    return rename.matches() ? replace(rename, replacements[i]) : group;
+                }
+            }
+            return group;
+        }
+
+        @CheckForNull
+        private String applyOneByOne(@NonNull String group) {
+            if (exclude != null && exclude.matcher(group).matches()) {
+                return null;
+            }
+            for (int i = 0; i < renamePatterns.length; i++) {
+                Matcher matcher = renamePatterns[i].matcher(group);
+                if (matcher.matches()) {
+                    return replace(matcher, replacements[i]);
+                }
+            }
+            return include == null || include.matcher(group).matches() ? group : null;
+        }
+
+        /**
+         * @param matcher matcher of a rename rule that matched the whole group name.
+         * @param replacement replacement of the rule.
+         * @return the replacement of the whole group name. A new search, like replaceFirst does, could match only a
+         * prefix of the group name when the rule has alternatives.
+         */
+        @NonNull
+        private static String replace(@NonNull Matcher matcher, @NonNull String replacement) {
+            StringBuilder ret = new StringBuilder();
+            matcher.appendReplacement(ret, replacement);
+            matcher.appendTail(ret);
+            return ret.toString();
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @Extension
+    public static final class DescriptorImpl extends Descriptor<SamlGroupsFilter> {
+        @NonNull
+        @Override
+        public String getDisplayName() {
+            return "Groups Filter";
+        }
+
+        @RequirePOST
+        public FormValidation doCheckIncludePattern(@QueryParameter String includePattern) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            return checkPattern(includePattern);
+        }
+
+        @RequirePOST
+        public FormValidation doCheckExcludePattern(@QueryParameter String excludePattern) {
+            Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+            return checkPattern(excludePattern);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import net.shibboleth.shared.resolver.CriteriaSet;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.saml.saml2.encryption.EncryptedElementTypeEncryptedKeyResolver;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.encryption.support.ChainingEncryptedKeyResolver;
+import org.opensaml.xmlsec.encryption.support.InlineEncryptedKeyResolver;
+import org.opensaml.xmlsec.encryption.support.SimpleRetrievalMethodEncryptedKeyResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCriterion;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
+import org.pac4j.core.exception.TechnicalException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+/**
+ * Ordered set of SP keys taken from a keystore, used to roll over the SP key without an outage window.
+ * <p>
+ * The first key is the active one, it signs and it is the one pac4j publishes in the SP metadata.
+ * Every key can decrypt, the decryption key is picked from an index by certificate digest or key name,
+ * so an assertion encrypted for any of the published certificates is decrypted on the first try.
+ */
+@Restricted(NoExternalUse.class)
+class SamlKeyRing {
+
+    private static final String MD_NS = "urn:oasis:names:tc:SAML:2.0:metadata";
+    private static final String DS_NS = "http://www.w3.org/2000/09/xmldsig#";
+
+    private final List<BasicX509Credential> credentials;
+    private final Map<String, BasicX509Credential> index = new HashMap<>();
+    /**
+     * true if a rollover key becomes the signing key later, so its certificate is also published for signing.
+     */
+    private boolean rolloverSigns;
+
+    private SamlKeyRing(@NonNull List<String> aliases, @NonNull List<BasicX509Credential> credentials) {
+        this.credentials = List.copyOf(credentials);
+        for (int i = 0; i < credentials.size(); i++) {
+            BasicX509Credential credential = credentials.get(i);
+            index.putIfAbsent(digest(credential.getEntityCertificate()), credential);
+            index.putIfAbsent(aliases.get(i).toLowerCase(Locale.ROOT), credential);
+        }
+    }
+
+    /**
+     * Load the keys configured in the encryption settings.
+     *
+     * @param encryptionData encryption settings, the keystore path must be set.
+     * @return the key ring, the active key first.
+     * @throws IOException if the keystore can not be read.
+     * @throws GeneralSecurityException if any of the keys can not be recovered.
+     */
+    @NonNull
+    static SamlKeyRing load(@NonNull SamlEncryptionData encryptionData) throws IOException, GeneralSecurityException {
+        return load(
+                encryptionData.getKeystorePath(),
+                encryptionData.getKeystorePasswordPlainText(),
+                encryptionData.getPrivateKeyAliases(),
+                encryptionData.getPrivateKeyPasswordPlainText());
+    }
+
+    /**
+     * Load the active and the successor keys of the bundled key store while a rotation is in progress.
+     *
+     * @param bundleKeyStore bundled key store with a successor key.
+     * @return the key ring, the active key first.
+     * @throws IOException if the keystore can not be read.
+     * @throws GeneralSecurityException if any of the keys can not be recovered.
+     */
+    @NonNull
+    static SamlKeyRing load(@NonNull BundleKeyStore bundleKeyStore) throws IOException, GeneralSecurityException {
+        List<String> aliases = new ArrayList<>();
+        aliases.add(bundleKeyStore.getKsPkAlias());
+        if (bundleKeyStore.getSuccessorAlias() != null) {
+            aliases.add(bundleKeyStore.getSuccessorAlias());
+        }
+        SamlKeyRing keyRing = load(
+                bundleKeyStore.getKeystorePath(),
+                bundleKeyStore.getKsPassword(),
+                aliases,
+                bundleKeyStore.getKsPkPassword());
+        keyRing.rolloverSigns = true;
+        return keyRing;
+    }
+
+    /**
+     * @param keystorePath path of the keystore file, with or without the <code>file:</code> prefix.
+     * @return the path, the last modification time and the size of the keystore file, they change when the file
+     * is replaced or modified.
+     */
+    @NonNull
+    static String getFileStamp(@NonNull String keystorePath) {
+        return SamlFileResource.getFileStamp(Paths.get(StringUtils.removeStart(keystorePath, "file:")));
+    }
+
+    @NonNull
+    private static SamlKeyRing load(
+            @NonNull String keystorePath,
+            @CheckForNull String keystorePassword,
+            @NonNull List<String> aliases,
+            @CheckForNull String keyPassword)
+            throws IOException, GeneralSecurityException {
+        String path = StringUtils.removeStart(keystorePath, "file:");
+        KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream in = new FileInputStream(path)) {
+            ks.load(in, StringUtils.defaultString(keystorePassword).toCharArray());
+        }
+        return of(ks, aliases, StringUtils.defaultString(keyPassword).toCharArray());
+    }
+
+    /**
+     * @param ks keystore that contains the keys.
+     * @param aliases aliases of the keys, the active one first. If it is empty the first key entry is the active one.
+     * @param password password of the private keys.
+     * @return the key ring.
+     * @throws GeneralSecurityException if any of the keys can not be recovered.
+     */
+    @NonNull
+    static SamlKeyRing of(@NonNull KeyStore ks, @NonNull List<String> aliases, @NonNull char[] password)
+            throws GeneralSecurityException {
+        List<String> effectiveAliases = new ArrayList<>(aliases);
+        if (effectiveAliases.isEmpty()) {
+            effectiveAliases.add(firstKeyAlias(ks));
+        } else if (StringUtils.isBlank(effectiveAliases.get(0))) {
+            effectiveAliases.set(0, firstKeyAlias(ks));
+        }
+        List<BasicX509Credential> credentials = new ArrayList<>();
+        for (String alias : effectiveAliases) {
+            String ksAlias = findAlias(ks, alias);
+            PrivateKey key = (PrivateKey) ks.getKey(ksAlias, password);
+            X509Certificate certificate = (X509Certificate) ks.getCertificate(ksAlias);
+            if (key == null || certificate == null) {
+                throw new GeneralSecurityException("There is no private key with alias " + alias);
+            }
+            credentials.add(new BasicX509Credential(certificate, key));
+        }
+        return new SamlKeyRing(effectiveAliases, credentials);
+    }
+
+    private static String firstKeyAlias(KeyStore ks) throws GeneralSecurityException {
+        Enumeration<String> aliases = ks.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (ks.isKeyEntry(alias)) {
+                return alias;
+            }
+        }
+        throw new GeneralSecurityException(SamlSecurityRealm.ERROR_NOT_KEY_FOUND);
+    }
+
+    private static String findAlias(KeyStore ks, String alias) throws GeneralSecurityException {
+        Enumeration<String> aliases = ks.aliases();
+        while (aliases.hasMoreElements()) {
+            String current = aliases.nextElement();
+            if (current.equalsIgnoreCase(alias)) {
+                return current;
+            }
+        }
+        throw new GeneralSecurityException("There is no private key with alias " + alias);
+    }
+
+    /**
+     * @return the key used to sign.
+     */
+    @NonNull
+    BasicX509Credential getActive() {
+        return credentials.get(0);
+    }
+
+    /**
+     * @return every key, the active key first.
+     */
+    @NonNull
+    List<BasicX509Credential> getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * @return the certificates of the keys that are not the active one, they have to be published in the SP metadata
+     * along with the active one while the rollover is in progress.
+     */
+    @NonNull
+    List<X509Certificate> getRolloverCertificates() {
+        List<X509Certificate> ret = new ArrayList<>();
+        for (BasicX509Credential credential : credentials.subList(1, credentials.size())) {
+            ret.add(credential.getEntityCertificate());
+        }
+        return ret;
+    }
+
+    /**
+     * Publish the rollover certificates as encryption keys in the SP metadata generated by pac4j,
+     * so the IdP can encrypt for any of them while the keys are changed. The successor key of the bundled key store
+     * is also published as signing key, so the IdP trusts it before it signs.
+     *
+     * @param metadata SP metadata.
+     * @return the SP metadata with a KeyDescriptor per rollover certificate.
+     * @throws TechnicalException if the metadata can not be parsed.
+     */
+    @NonNull
+    String addRolloverKeyDescriptors(@NonNull String metadata) throws TechnicalException {
+        List<X509Certificate> certificates = getRolloverCertificates();
+        if (certificates.isEmpty()) {
+            return metadata;
+        }
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            Document doc = factory.newDocumentBuilder().parse(new InputSource(new StringReader(metadata)));
+            Element spSSODescriptor =
+                    (Element) doc.getElementsByTagNameNS(MD_NS, "SPSSODescriptor").item(0);
+            if (spSSODescriptor == null) {
+                return metadata;
+            }
+            Node before = firstChildAfterKeyDescriptors(spSSODescriptor);
+            List<String> uses = rolloverSigns ? List.of("signing", "encryption") : List.of("encryption");
+            for (X509Certificate certificate : certificates) {
+                for (String use : uses) {
+                    Element keyDescriptor = doc.createElementNS(MD_NS, "md:KeyDescriptor");
+                    keyDescriptor.setAttribute("use", use);
+                    Element keyInfo = doc.createElementNS(DS_NS, "ds:KeyInfo");
+                    Element x509Data = doc.createElementNS(DS_NS, "ds:X509Data");
+                    Element x509Certificate = doc.createElementNS(DS_NS, "ds:X509Certificate");
+                    x509Certificate.setTextContent(Base64.getEncoder().encodeToString(certificate.getEncoded()));
+                    x509Data.appendChild(x509Certificate);
+                    keyInfo.appendChild(x509Data);
+                    keyDescriptor.appendChild(keyInfo);
+                    spSSODescriptor.insertBefore(keyDescriptor, before);
+                }
+            }
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
+            StringWriter writer = new StringWriter();
+            transformer.transform(new DOMSource(doc), new StreamResult(writer));
+            return writer.toString();
+        } catch (Exception e) {
+            throw new TechnicalException("Could not add the rollover keys to the SP metadata", e);
+        }
+    }
+
+    /**
+     * KeyDescriptor elements go after the Extensions element and the existing KeyDescriptor elements.
+     */
+    @CheckForNull
+    private static Node firstChildAfterKeyDescriptors(@NonNull Element spSSODescriptor) {
+        Node child = spSSODescriptor.getFirstChild();
+        while (child != null) {
+            if (child.getNodeType() == Node.ELEMENT_NODE
+                    && !"Extensions".equals(child.getLocalName())
+                    && !"KeyDescriptor".equals(child.getLocalName())) {
+                return child;
+            }
+            child = child.getNextSibling();
+        }
+        return null;
+    }
+
+    /**
+     * @param keyInfo KeyInfo of an encrypted key.
+     * @return the key matching the certificate or the key name in the KeyInfo, if none matches every key.
+     */
+    @NonNull
+    List<? extends Credential> lookup(@CheckForNull KeyInfo keyInfo) {
+        if (keyInfo != null) {
+            try {
+                for (X509Certificate certificate : KeyInfoSupport.getCertificates(keyInfo)) {
+                    BasicX509Credential credential = index.get(digest(certificate));
+                    if (credential != null) {
+                        return Collections.singletonList(credential);
+                    }
+                }
+            } catch (CertificateException e) {
+                // the certificate is only a hint, the key names or all the keys are tried next
+            }
+            for (String keyName : KeyInfoSupport.getKeyNames(keyInfo)) {
+                BasicX509Credential credential = index.get(keyName.toLowerCase(Locale.ROOT));
+                if (credential != null) {
+                    return Collections.singletonList(credential);
+                }
+            }
+        }
+        return credentials;
+    }
+
+    /**
+     * @return a decrypter that resolves the key encryption key with {@link #lookup(KeyInfo)}.
+     */
+    @NonNull
+    Decrypter buildDecrypter() {
+        ChainingEncryptedKeyResolver encryptedKeyResolver = new ChainingEncryptedKeyResolver(List.of(
+                new InlineEncryptedKeyResolver(),
+                new EncryptedElementTypeEncryptedKeyResolver(),
+                new SimpleRetrievalMethodEncryptedKeyResolver()));
+        Decrypter decrypter = new Decrypter(null, new KeyRingCredentialResolver(), encryptedKeyResolver);
+        decrypter.setRootInNewDocument(true);
+        return decrypter;
+    }
+
+    /**
+     * @param certificate X509 certificate.
+     * @return hex SHA-256 digest of the encoded certificate.
+     */
+    @NonNull
+    static String digest(@NonNull X509Certificate certificate) {
+        try {
+            return DigestUtils.sha256Hex(certificate.getEncoded());
+        } catch (CertificateEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * KeyInfo resolver backed by the key ring index.
+     */
+    private class KeyRingCredentialResolver implements KeyInfoCredentialResolver {
+
+        @NonNull
+        @Override
+        public Iterable<Credential> resolve(@CheckForNull CriteriaSet criteria) {
+            KeyInfoCriterion criterion = criteria != null ? criteria.get(KeyInfoCriterion.class) : null;
+            return new ArrayList<>(lookup(criterion != null ? criterion.getKeyInfo() : null));
+        }
+
+        @CheckForNull
+        @Override
+        public Credential resolveSingle(@CheckForNull CriteriaSet criteria) {
+            Iterable<Credential> resolved = resolve(criteria);
+            return resolved.iterator().hasNext() ? resolved.iterator().next() : null;
+        }
+    }
+}
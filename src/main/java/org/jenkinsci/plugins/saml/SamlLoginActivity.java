@@ -0,0 +1,471 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Login activity of the users: first login, last login and number of logins.
+ * <p>
+ * The logins are appended to <code>JENKINS_HOME/saml-login-activity.bin</code> as fixed-width records, so a login
+ * writes 24 bytes instead of the user <code>config.xml</code>. A record is the ordinal of the user, a number of
+ * logins, and the first and last login times; the ordinals are the positions of the user ids in
+ * <code>JENKINS_HOME/saml-login-activity.users</code>, which only grows. A record without logins removes the activity
+ * of a deleted user. The file is compacted to one record per user when it has too many records, the logins keep
+ * being recorded meanwhile. The aggregates of all the users are kept in memory, so the queries do not load any user.
+ */
+@Restricted(NoExternalUse.class)
+public final class SamlLoginActivity {
+    private static final Logger LOG = Logger.getLogger(SamlLoginActivity.class.getName());
+
+    static final String RECORDS_FILE_NAME = "saml-login-activity.bin";
+
+    static final String USERS_FILE_NAME = "saml-login-activity.users";
+
+    /**
+     * int ordinal, long first login, long last login, int count.
+     */
+    static final int RECORD_SIZE = 24;
+
+    /**
+     * number of records over one per user before the file is compacted.
+     */
+    static final int COMPACTION_THRESHOLD = 10000;
+
+    private static SamlLoginActivity instance;
+
+    private final File rootDir;
+
+    /**
+     * user ids by ordinal.
+     */
+    private final List<String> ids = new ArrayList<>();
+
+    /**
+     * ordinals by key of the user id, an id that has the same key as a previous one uses its ordinal.
+     */
+    private final Map<String, Integer> ordinals = new HashMap<>();
+
+    private final List<Activity> activities = new ArrayList<>();
+
+    /**
+     * only one compaction at a time, the logins are recorded while it runs.
+     */
+    private final Object compaction = new Object();
+
+    private long records;
+
+    private FileChannel channel;
+
+    static {
+        SamlMetrics.gauge("loginActivity.users", () -> get().getUsers());
+        SamlMetrics.gauge("loginActivity.records", () -> get().getRecords());
+    }
+
+    SamlLoginActivity(@NonNull File rootDir) {
+        this.rootDir = rootDir;
+        try {
+            loadUsers();
+            loadRecords();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not read the login activity", e);
+        }
+    }
+
+    /**
+     * @return the login activity of this Jenkins.
+     */
+    @NonNull
+    public static synchronized SamlLoginActivity get() {
+        File rootDir = Jenkins.get().getRootDir();
+        if (instance == null || !instance.rootDir.equals(rootDir)) {
+            if (instance != null) {
+                instance.close();
+            }
+            instance = new SamlLoginActivity(rootDir);
+        }
+        return instance;
+    }
+
+    /**
+     * Record a login.
+     *
+     * @param userId id of the user.
+     * @param timestamp time of the login in milliseconds since epoch.
+     */
+    public synchronized void record(@NonNull String userId, long timestamp) {
+        Integer ordinal = ordinals.get(keyFor(userId));
+        try {
+            if (ordinal == null) {
+                appendUser(userId);
+                ordinal = ids.size();
+                ids.add(userId);
+                ordinals.put(keyFor(userId), ordinal);
+                activities.add(null);
+            }
+            Activity login = new Activity(timestamp, timestamp, 1);
+            activities.set(ordinal, login.merge(activities.get(ordinal)));
+            appendRecord(ordinal, login);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not record the login of " + userId, e);
+        }
+    }
+
+    /**
+     * Remove the login activity of a user.
+     *
+     * @param userId id of the user.
+     */
+    public synchronized void remove(@NonNull String userId) {
+        Integer ordinal = ordinals.get(keyFor(userId));
+        if (ordinal == null || activities.get(ordinal) == null) {
+            return;
+        }
+        activities.set(ordinal, null);
+        try {
+            appendRecord(ordinal, new Activity(0, 0, 0));
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not remove the login activity of " + userId, e);
+        }
+    }
+
+    /**
+     * @param userId id of the user.
+     * @return the login activity of the user, null if no login was recorded.
+     */
+    @CheckForNull
+    public synchronized Activity get(@NonNull String userId) {
+        Integer ordinal = ordinals.get(keyFor(userId));
+        return ordinal != null ? activities.get(ordinal) : null;
+    }
+
+    /**
+     * @param timestamp time in milliseconds since epoch.
+     * @return the login activity of the users who logged in at or after the time, by user id.
+     */
+    @NonNull
+    public synchronized Map<String, Activity> since(long timestamp) {
+        Map<String, Activity> ret = new LinkedHashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Activity activity = activities.get(i);
+            if (activity != null && activity.last() >= timestamp) {
+                ret.put(ids.get(i), activity);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return true if the file has many more records than users.
+     */
+    synchronized boolean needsCompaction() {
+        return records > ids.size() + COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Rewrite the file with one record per user.
+     * <p>
+     * The aggregates are written without blocking the logins, the records appended meanwhile are then copied to the
+     * new file.
+     *
+     * @throws IOException if the file can not be written, the current file is kept then.
+     */
+    void compact() throws IOException {
+        synchronized (compaction) {
+            Path file = recordsFile().toPath();
+            Path tmp = file.resolveSibling(RECORDS_FILE_NAME + ".tmp");
+            List<Activity> snapshot;
+            long snapshotRecords;
+            synchronized (this) {
+                snapshot = new ArrayList<>(activities);
+                snapshotRecords = records;
+            }
+            long compacted = 0;
+            try (FileChannel out = FileChannel.open(
+                    tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+                for (int i = 0; i < snapshot.size(); i++) {
+                    Activity activity = snapshot.get(i);
+                    if (activity == null) {
+                        continue;
+                    }
+                    if (!buffer.hasRemaining()) {
+                        writeFully(out, buffer);
+                    }
+                    put(buffer, i, activity);
+                    compacted++;
+                }
+                writeFully(out, buffer);
+            }
+            synchronized (this) {
+                long appended = records - snapshotRecords;
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    if (appended > 0) {
+                        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                            long position = snapshotRecords * RECORD_SIZE;
+                            long end = records * RECORD_SIZE;
+                            while (position < end) {
+                                position += in.transferTo(position, end - position, out);
+                            }
+                        }
+                    }
+                    out.force(true);
+                }
+                close();
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                long total = compacted + appended;
+                LOG.log(Level.FINE, "Login activity compacted from {0} to {1} records", new Object[] {records, total});
+                records = total;
+            }
+        }
+    }
+
+    /**
+     * Close the file, it is opened again by the next login.
+     */
+    synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Could not close the login activity", e);
+            }
+            channel = null;
+        }
+    }
+
+    synchronized int getUsers() {
+        return ids.size();
+    }
+
+    synchronized long getRecords() {
+        return records;
+    }
+
+    @SuppressWarnings("unused")
+    @Terminator
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+        }
+    }
+
+    @NonNull
+    private static String keyFor(@NonNull String userId) {
+        return Jenkins.getInstanceOrNull() != null ? User.idStrategy().keyFor(userId) : userId;
+    }
+
+    private File recordsFile() {
+        return new File(rootDir, RECORDS_FILE_NAME);
+    }
+
+    private File usersFile() {
+        return new File(rootDir, USERS_FILE_NAME);
+    }
+
+    private void loadUsers() throws IOException {
+        File file = usersFile();
+        if (!file.exists()) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(bin);
+        long valid = 0;
+        try {
+            while (bin.available() > 0) {
+                String id = in.readUTF();
+                ordinals.putIfAbsent(keyFor(id), ids.size());
+                ids.add(id);
+                activities.add(null);
+                valid = bytes.length - bin.available();
+            }
+        } catch (EOFException e) {
+            // the last id was not completely written
+            truncate(file, valid);
+        }
+    }
+
+    private void loadRecords() throws IOException {
+        File file = recordsFile();
+        if (!file.exists()) {
+            return;
+        }
+        long length = file.length();
+        long complete = length / RECORD_SIZE;
+        // the logins of the ids with the same key are added up
+        int[] targets = new int[ids.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = ordinals.get(keyFor(ids.get(i)));
+        }
+        try (InputStream fin = Files.newInputStream(file.toPath());
+                DataInputStream in = new DataInputStream(new BufferedInputStream(fin))) {
+            for (long i = 0; i < complete; i++) {
+                int ordinal = in.readInt();
+                Activity activity = new Activity(in.readLong(), in.readLong(), in.readInt());
+                if (ordinal >= 0 && ordinal < targets.length) {
+                    int target = targets[ordinal];
+                    activities.set(target, activity.count() == 0 ? null : activity.merge(activities.get(target)));
+                }
+            }
+        }
+        records = complete;
+        if (length != complete * RECORD_SIZE) {
+            // the last record was not completely written
+            truncate(file, complete * RECORD_SIZE);
+        }
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        LOG.log(Level.WARNING, "Truncating {0} to {1} bytes", new Object[] {file, length});
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        }
+    }
+
+    private void appendUser(@NonNull String id) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(usersFile(), true))) {
+            out.writeUTF(id);
+        }
+    }
+
+    private void appendRecord(int ordinal, @NonNull Activity activity) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(
+                    recordsFile().toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        put(buffer, ordinal, activity);
+        writeFully(channel, buffer);
+        records++;
+    }
+
+    private static void put(@NonNull ByteBuffer buffer, int ordinal, @NonNull Activity activity) {
+        buffer.putInt(ordinal);
+        buffer.putLong(activity.first());
+        buffer.putLong(activity.last());
+        buffer.putInt((int) Math.min(Integer.MAX_VALUE, activity.count()));
+    }
+
+    private static void writeFully(@NonNull FileChannel out, @NonNull ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Login activity of a user.
+     *
+     * @param first time of the first login in milliseconds since epoch.
+     * @param last time of the last login in milliseconds since epoch.
+     * @param count number of logins.
+     */
+    public record Activity(long first, long last, long count) {
+
+        @NonNull
+        Activity merge(@CheckForNull Activity other) {
+            if (other == null) {
+                return this;
+            }
+            return new Activity(Math.min(first, other.first), Math.max(last, other.last), count + other.count);
+        }
+    }
+
+    /**
+     * Removes the login activity of the deleted users.
+     */
+    @Extension
+    public static class DeletedUsers extends SaveableListener {
+        @Override
+        public void onDeleted(Saveable o, XmlFile file) {
+            if (o instanceof User user) {
+                get().remove(user.getId());
+            }
+        }
+    }
+
+    /**
+     * Compacts the login activity every hour if it has too many records.
+     */
+    @Extension
+    public static class Compactor extends AsyncPeriodicWork {
+        @SuppressWarnings("unused")
+        public Compactor() {
+            super("SAML login activity compaction");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.HOURS.toMillis(1);
+        }
+
+        @Override
+        protected Level getNormalLoggingLevel() {
+            return Level.FINEST;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException {
+            SamlLoginActivity activity = get();
+            if (activity.needsCompaction()) {
+                activity.compact();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.pac4j.saml.profile.SAML2Profile;
+
+/**
+ * Immutable view of the SAML profile of a login, the only one the security realm uses after the SAML Response
+ * is validated.
+ * <p>
+ * With the "Keep only mapped attributes" advanced option, only the attributes the configuration uses are copied
+ * from the pac4j profile and the rest is dropped with it; otherwise all the attributes of the pac4j profile are copied.
+ *
+ * @param id the NameID.
+ * @param attributes the attributes, the values are a String or a List of Strings.
+ */
+@Restricted(NoExternalUse.class)
+public record SamlLoginProfile(@NonNull String id, @NonNull Map<String, Object> attributes) {
+
+    /**
+     * @param profile pac4j profile.
+     * @param keep names of the attributes to keep, null to keep them all.
+     * @return the profile of the login.
+     */
+    @NonNull
+    public static SamlLoginProfile of(@NonNull SAML2Profile profile, @CheckForNull Set<String> keep) {
+        if (keep == null) {
+            // a copy, the pac4j profile can still change
+            Map<String, Object> attributes = new HashMap<>(profile.getAttributes());
+            return new SamlLoginProfile(profile.getId(), Collections.unmodifiableMap(attributes));
+        }
+        Map<String, Object> attributes = new HashMap<>();
+        for (String name : keep) {
+            Object value = profile.getAttribute(name);
+            if (value instanceof List<?> list) {
+                attributes.put(
+                        name,
+                        list.stream().filter(Objects::nonNull).map(Object::toString).toList());
+            } else if (value != null) {
+                attributes.put(name, value.toString());
+            }
+        }
+        return new SamlLoginProfile(profile.getId(), Map.copyOf(attributes));
+    }
+
+    /**
+     * @param name name of the attribute.
+     * @return the value of the attribute, null if there is none.
+     */
+    @CheckForNull
+    public Object getAttribute(@CheckForNull String name) {
+        return name != null ? attributes.get(name) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "SamlLoginProfile{id='" + id + "', attributes=" + attributes + '}';
+    }
+}
@@ -0,0 +1,128 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+import org.pac4j.core.context.CallContext;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.core.context.session.SessionStore;
+import org.pac4j.core.credentials.Credentials;
+import org.pac4j.core.exception.http.HttpAction;
+import org.pac4j.core.exception.http.NoContentAction;
+import org.pac4j.saml.client.SAML2Client;
+import org.pac4j.saml.exceptions.SAMLException;
+
+/**
+ * Process the SAML Single Logout: prepare the LogoutRequest of a Jenkins logout (SP-initiated), or process the
+ * LogoutRequest (IdP-initiated) or the LogoutResponse sent by the IdP.
+ */
+public class SamlLogoutWrapper extends OpenSAMLWrapper<HttpAction> {
+
+    /**
+     * LogoutRequests with the HTTP-POST binding, waiting for the browser to get them after the Jenkins logout.
+     */
+    private static final Cache<String, String> PENDING = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    private final SamlSessionIndex.Login login;
+
+    private final String targetUrl;
+
+    /**
+     * Process the LogoutRequest or LogoutResponse of the request.
+     */
+    public SamlLogoutWrapper(SamlPluginConfig samlPluginConfig, StaplerRequest2 request, StaplerResponse2 response) {
+        this(samlPluginConfig, request, response, null, null);
+    }
+
+    /**
+     * Prepare the LogoutRequest of a login.
+     *
+     * @param login NameID and SessionIndex of the login, null to process the message of the request.
+     * @param targetUrl URL to go once the IdP has answered.
+     */
+    SamlLogoutWrapper(
+            SamlPluginConfig samlPluginConfig,
+            StaplerRequest2 request,
+            StaplerResponse2 response,
+            SamlSessionIndex.Login login,
+            String targetUrl) {
+        this.request = request;
+        this.response = response;
+        this.samlPluginConfig = samlPluginConfig;
+        this.login = login;
+        this.targetUrl = targetUrl;
+    }
+
+    /**
+     * @param html auto-submitted form with a LogoutRequest.
+     * @return the id to get it once.
+     */
+    @NonNull
+    static String putPending(@NonNull String html) {
+        String id = UUID.randomUUID().toString();
+        PENDING.put(id, html);
+        return id;
+    }
+
+    /**
+     * @param id id returned by {@link #putPending(String)}.
+     * @return the form, null if it was already taken or it expired.
+     */
+    @CheckForNull
+    static String takePending(@CheckForNull String id) {
+        return id != null ? PENDING.asMap().remove(id) : null;
+    }
+
+    /**
+     * @return the redirection to the IdP, or the answer to the message of the IdP.
+     * @throws IllegalStateException if the message can not be processed.
+     */
+    @Override
+    protected HttpAction process() throws IllegalStateException {
+        SAML2Client client = createSAML2Client();
+        try {
+            WebContext context = createWebContext();
+            SessionStore sessionStore = createSessionStore();
+            CallContext ctx = new CallContext(context, sessionStore);
+            if (login != null) {
+                return client.getLogoutAction(ctx, login.toProfile(), targetUrl).orElse(null);
+            }
+            Credentials credentials = client.getCredentials(ctx).orElse(null);
+            if (credentials == null) {
+                return NoContentAction.INSTANCE;
+            }
+            // the LogoutRequest invalidates the sessions through SamlSessionIndex.LogoutHandler
+            return client.processLogout(ctx, credentials);
+        } catch (HttpAction e) {
+            // the LogoutResponse to send back to the IdP
+            return e;
+        } catch (SAMLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import net.sf.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Gauges the plugin exposes at JENKINS_URL/securityRealm/metrics, to see what the plugin is doing without logs.
+ */
+@Restricted(NoExternalUse.class)
+public final class SamlMetrics {
+
+    private static final Map<String, Supplier<Object>> GAUGES = new ConcurrentHashMap<>();
+
+    private SamlMetrics() {}
+
+    /**
+     * Register a gauge, it replaces any gauge with the same name.
+     *
+     * @param name name of the gauge, dot separated.
+     * @param gauge supplier of the current value.
+     */
+    public static void gauge(@NonNull String name, @NonNull Supplier<Object> gauge) {
+        GAUGES.put(name, gauge);
+    }
+
+    /**
+     * Unregister the gauges whose name starts with a prefix.
+     *
+     * @param prefix prefix of the names, dot terminated.
+     */
+    public static void removeGauges(@NonNull String prefix) {
+        GAUGES.keySet().removeIf(name -> name.startsWith(prefix));
+    }
+
+    /**
+     * @return the current value of every gauge, sorted by name.
+     */
+    @NonNull
+    public static JSONObject toJSON() {
+        Map<String, Supplier<Object>> sorted = new TreeMap<>(GAUGES);
+        JSONObject ret = new JSONObject();
+        sorted.forEach((name, gauge) -> ret.put(name, gauge.get()));
+        return ret;
+    }
+}
@@ -0,0 +1,119 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.StaplerRequest2;
+
+/**
+ * Passive (<code>IsPassive=true</code>) logins, the IdP answers without any user interaction: it authenticates
+ * the user if it still has a session, or it answers <code>NoPassive</code>.
+ * <p>
+ * With the "Try passive login first" advanced option, <code>securityRealm/commenceLogin</code> sends a passive
+ * AuthnRequest first, and if the response is not a successful login it starts an interactive one.
+ * The parameter <code>passive=false</code> skips the passive AuthnRequest, it is how the fallback starts; without
+ * the option every login is interactive, whatever the parameter. The parameter <code>background=true</code> is
+ * for a refresh of the session from a hidden frame of an open page: it never falls back to an interactive login,
+ * the response is an empty page, with the status 204 on success and 401 on failure.
+ * <p>
+ * The relay state of each passive AuthnRequest is kept for 30 minutes, to recognize the responses.
+ */
+@Restricted(NoExternalUse.class)
+final class SamlPassiveLogin {
+
+    /**
+     * request attribute with the {@link Attempt} of the AuthnRequest being built.
+     */
+    static final String ATTEMPT_ATTRIBUTE = SamlPassiveLogin.class.getName() + ".attempt";
+
+    private static final Cache<String, Attempt> ATTEMPTS = Caffeine.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(Duration.ofMinutes(30))
+            .build();
+
+    private static final LongAdder SUCCESSES = new LongAdder();
+    private static final LongAdder FALLBACKS = new LongAdder();
+
+    static {
+        SamlMetrics.gauge("passiveLogin.successes", SUCCESSES::sum);
+        SamlMetrics.gauge("passiveLogin.fallbacks", FALLBACKS::sum);
+    }
+
+    private SamlPassiveLogin() {}
+
+    /**
+     * @param request request to <code>securityRealm/commenceLogin</code>.
+     * @param enabled true if the passive login is enabled in the configuration.
+     * @return the passive attempt to make, null for an interactive login.
+     */
+    @CheckForNull
+    static Attempt of(@NonNull StaplerRequest2 request, boolean enabled) {
+        if (!enabled || "false".equals(request.getParameter("passive"))) {
+            return null;
+        }
+        return new Attempt("true".equals(request.getParameter("background")));
+    }
+
+    /**
+     * Remember the relay state of a passive AuthnRequest.
+     *
+     * @param relayState relay state of the AuthnRequest.
+     * @param attempt the passive attempt.
+     */
+    static void remember(@NonNull String relayState, @NonNull Attempt attempt) {
+        ATTEMPTS.put(relayState, attempt);
+    }
+
+    /**
+     * @param relayState relay state of the response.
+     * @return the passive attempt the response answers, null if it answers an interactive login.
+     */
+    @CheckForNull
+    static Attempt take(@CheckForNull String relayState) {
+        if (relayState == null) {
+            return null;
+        }
+        Attempt ret = ATTEMPTS.getIfPresent(relayState);
+        if (ret != null) {
+            ATTEMPTS.invalidate(relayState);
+        }
+        return ret;
+    }
+
+    static void success() {
+        SUCCESSES.increment();
+    }
+
+    static void fallback() {
+        FALLBACKS.increment();
+    }
+
+    /**
+     * A passive AuthnRequest.
+     *
+     * @param background true if it refreshes the session of an open page.
+     */
+    record Attempt(boolean background) {}
+}
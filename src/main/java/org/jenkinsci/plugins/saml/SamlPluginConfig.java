@@ -19,14 +19,20 @@ package org.jenkinsci.plugins.saml;
 
 import static org.jenkinsci.plugins.saml.SamlSecurityRealm.CONSUMER_SERVICE_URL_PATH;
 import static org.jenkinsci.plugins.saml.SamlSecurityRealm.DEFAULT_USERNAME_CASE_CONVERSION;
+import static org.jenkinsci.plugins.saml.SamlSecurityRealm.SINGLE_LOGOUT_URL_PATH;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
 import java.util.List;
 import jenkins.model.Jenkins;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 
 /**
  * contains all the Jenkins SAML Plugin settings
+ * <p>
+ * The security realm shares one instance until it is configured again, the version identifies it and the fingerprint
+ * identifies its content, so the caches of objects built from the settings can be keyed on them. The nested settings
+ * are copied, so the instance does not change if the security realm ones do.
  */
 public class SamlPluginConfig {
     private final String displayNameAttributeName;
@@ -44,6 +50,9 @@ public class SamlPluginConfig {
     private final SamlAdvancedConfiguration advancedConfiguration;
     private final List<SamlProperty> properties;
 
+    private final long version;
+    private volatile String fingerprint;
+
     public SamlPluginConfig(
             String displayNameAttributeName,
             String groupsAttributeName,
@@ -57,19 +66,73 @@ public class SamlPluginConfig {
             SamlEncryptionData encryptionData,
             SamlAdvancedConfiguration advancedConfiguration,
             @NonNull List<SamlProperty> properties) {
+        this(
+                displayNameAttributeName,
+                groupsAttributeName,
+                maximumAuthenticationLifetime,
+                emailAttributeName,
+                idpMetadataConfiguration,
+                usernameCaseConversion,
+                usernameAttributeName,
+                logoutUrl,
+                binding,
+                encryptionData,
+                advancedConfiguration,
+                properties,
+                0);
+    }
+
+    SamlPluginConfig(
+            String displayNameAttributeName,
+            String groupsAttributeName,
+            int maximumAuthenticationLifetime,
+            String emailAttributeName,
+            IdpMetadataConfiguration idpMetadataConfiguration,
+            String usernameCaseConversion,
+            String usernameAttributeName,
+            String logoutUrl,
+            String binding,
+            SamlEncryptionData encryptionData,
+            SamlAdvancedConfiguration advancedConfiguration,
+            @NonNull List<SamlProperty> properties,
+            long version) {
         this.displayNameAttributeName = displayNameAttributeName;
         this.groupsAttributeName = groupsAttributeName;
         this.maximumAuthenticationLifetime = maximumAuthenticationLifetime;
         this.emailAttributeName = emailAttributeName;
-        this.idpMetadataConfiguration = idpMetadataConfiguration;
+        this.idpMetadataConfiguration = idpMetadataConfiguration != null ? idpMetadataConfiguration.copy() : null;
         this.usernameCaseConversion =
                 StringUtils.defaultIfBlank(usernameCaseConversion, DEFAULT_USERNAME_CASE_CONVERSION);
         this.usernameAttributeName = hudson.Util.fixEmptyAndTrim(usernameAttributeName);
         this.logoutUrl = logoutUrl;
         this.binding = binding;
-        this.encryptionData = encryptionData;
-        this.advancedConfiguration = advancedConfiguration;
+        this.encryptionData = encryptionData != null ? encryptionData.copy() : null;
+        this.advancedConfiguration = advancedConfiguration != null ? advancedConfiguration.copy() : null;
         this.properties = List.copyOf(properties);
+        this.version = version;
+    }
+
+    /**
+     * @return version of the settings, it increases each time the security realm is configured,
+     * 0 if the settings do not come from the security realm.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return SHA-256 of the settings, equal settings have the same fingerprint. It includes the key aliases and the
+     * passwords the description of the settings hides.
+     */
+    @NonNull
+    public String getFingerprint() {
+        String ret = fingerprint;
+        if (ret == null) {
+            ret = DigestUtils.sha256Hex(
+                    toString() + (encryptionData != null ? encryptionData.getKeysFingerprint() : ""));
+            fingerprint = ret;
+        }
+        return ret;
     }
 
     public String getUsernameAttributeName() {
@@ -128,6 +191,17 @@ public class SamlPluginConfig {
         return baseUrl() + CONSUMER_SERVICE_URL_PATH;
     }
 
+    public String getSingleLogoutServiceUrl() {
+        return baseUrl() + SINGLE_LOGOUT_URL_PATH;
+    }
+
+    /**
+     * @return true if the SAML Single Logout is enabled.
+     */
+    public boolean isSingleLogout() {
+        return getAdvancedConfiguration() != null && getAdvancedConfiguration().getSingleLogout();
+    }
+
     public String baseUrl() {
         return Jenkins.get().getRootUrl();
     }
@@ -17,11 +17,15 @@ under the License. */
 
 package org.jenkinsci.plugins.saml;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.time.Instant;
 import java.util.Optional;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.AuthnStatement;
 import org.pac4j.core.context.CallContext;
 import org.pac4j.core.context.WebContext;
 import org.pac4j.core.context.session.SessionStore;
@@ -41,6 +45,8 @@ public class SamlProfileWrapper extends OpenSAMLWrapper<SAML2Profile> {
 
     private String redirectUrl;
 
+    private Instant sessionNotOnOrAfter;
+
     public SamlProfileWrapper(SamlPluginConfig samlPluginConfig, StaplerRequest2 request, StaplerResponse2 response) {
         this.request = request;
         this.response = response;
@@ -65,6 +71,7 @@ public class SamlProfileWrapper extends OpenSAMLWrapper<SAML2Profile> {
                     client.validateCredentials(ctx, unvalidated).orElse(null);
             saml2Profile =
                     (SAML2Profile) client.getUserProfile(ctx, credentials).orElse(null);
+            sessionNotOnOrAfter = readSessionNotOnOrAfter(credentials);
             var stateGenerator = client.getStateGenerator();
             Optional<String> mayRelayState = context.getRequestParameter("RelayState");
             if (stateGenerator instanceof RelayStateMapper f && mayRelayState.isPresent()) {
@@ -84,11 +91,37 @@ public class SamlProfileWrapper extends OpenSAMLWrapper<SAML2Profile> {
             throw new BadCredentialsException(msg);
         }
 
-        LOG.finer(saml2Profile.toString());
         return saml2Profile;
     }
 
     public String getRedirectUrl() {
         return redirectUrl;
     }
+
+    /**
+     * @return the earliest SessionNotOnOrAfter of the authentication statements of the assertion, null if none.
+     */
+    @CheckForNull
+    public Instant getSessionNotOnOrAfter() {
+        return sessionNotOnOrAfter;
+    }
+
+    @CheckForNull
+    private static Instant readSessionNotOnOrAfter(@CheckForNull SAML2Credentials credentials) {
+        if (credentials == null || credentials.getContext() == null) {
+            return null;
+        }
+        Assertion assertion = credentials.getContext().getSubjectAssertion();
+        if (assertion == null) {
+            return null;
+        }
+        Instant ret = null;
+        for (AuthnStatement statement : assertion.getAuthnStatements()) {
+            Instant value = statement.getSessionNotOnOrAfter();
+            if (value != null && (ret == null || value.isBefore(ret))) {
+                ret = value;
+            }
+        }
+        return ret;
+    }
 }
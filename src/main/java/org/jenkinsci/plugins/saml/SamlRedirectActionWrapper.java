@@ -38,6 +38,15 @@ public class SamlRedirectActionWrapper extends OpenSAMLWrapper<RedirectionAction
         this.samlPluginConfig = samlPluginConfig;
     }
 
+    /**
+     * @param passive true for a passive (IsPassive) AuthnRequest.
+     */
+    public SamlRedirectActionWrapper(
+            SamlPluginConfig samlPluginConfig, StaplerRequest2 request, StaplerResponse2 response, boolean passive) {
+        this(samlPluginConfig, request, response);
+        this.passive = passive;
+    }
+
     /**
      * @return the redirection URL to the IdP.
      * @throws IllegalStateException if something goes wrong.
@@ -46,6 +46,9 @@ public class SamlSPMetadataWrapper extends OpenSAMLWrapper<HttpResponse> {
         SAML2Client client = createSAML2Client();
         try {
             metadata = client.getServiceProviderMetadataResolver().getMetadata();
+            if (keyRing != null) {
+                metadata = keyRing.addRolloverKeyDescriptors(metadata);
+            }
         } catch (TechnicalException e) {
             throw new IllegalStateException(e);
         }
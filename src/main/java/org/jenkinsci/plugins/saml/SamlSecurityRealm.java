@@ -23,6 +23,7 @@ import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.BulkChange;
 import hudson.Extension;
 import hudson.model.Descriptor;
 import hudson.model.Saveable;
@@ -34,17 +35,25 @@ import hudson.tasks.Mailer.UserProperty;
 import hudson.util.DescribableList;
 import hudson.util.FormValidation;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import jenkins.security.SecurityListener;
+import net.sf.json.JSONObject;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jenkinsci.plugins.saml.conf.Attribute;
@@ -57,19 +66,22 @@ import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 import org.kohsuke.stapler.interceptor.RequirePOST;
+import org.kohsuke.stapler.json.JsonHttpResponse;
 import org.pac4j.core.exception.http.FoundAction;
+import org.pac4j.core.exception.http.HttpAction;
 import org.pac4j.core.exception.http.OkAction;
 import org.pac4j.core.exception.http.RedirectionAction;
 import org.pac4j.core.exception.http.SeeOtherAction;
+import org.pac4j.core.exception.http.WithContentAction;
 import org.pac4j.core.exception.http.WithLocationAction;
 import org.pac4j.saml.profile.SAML2Profile;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 /**
@@ -97,6 +109,7 @@ public class SamlSecurityRealm extends SecurityRealm {
             "The field should be a number greater than 0 and lower than " + Integer.MAX_VALUE + ".";
     public static final String ERROR_MALFORMED_URL = "The url is malformed.";
     public static final String ERROR_IDP_METADATA_EMPTY = "The IdP Metadata can not be empty.";
+    public static final String ERROR_MDQ_NOT_SET = "The MDQ server URL and the IdP entityID must be set.";
     public static final String WARN_RECOMMENDED_TO_SET_THE_GROUPS_ATTRIBUTE =
             "It is recommended to set the groups attribute.";
     public static final String WARN_RECOMMENDED_TO_SET_THE_USERNAME_ATTRIBUTE =
@@ -120,6 +133,11 @@ public class SamlSecurityRealm extends SecurityRealm {
      */
     public static final String CONSUMER_SERVICE_URL_PATH = "securityRealm/finishLogin";
 
+    /**
+     * URL to process the SAML Single Logout requests and responses
+     */
+    public static final String SINGLE_LOGOUT_URL_PATH = "securityRealm/singleLogout";
+
     private static final Logger LOG = Logger.getLogger(SamlSecurityRealm.class.getName());
     public static final String WARN_THERE_IS_NOT_KEY_STORE = "There is not keyStore to validate";
     public static final String ERROR_NOT_KEY_FOUND = "Not key found";
@@ -154,8 +172,24 @@ public class SamlSecurityRealm extends SecurityRealm {
 
     private List<AttributeEntry> samlCustomAttributes;
 
+    private SamlGroupsFilter groupsFilter;
+
+    private SamlAttributeMapping attributeMapping;
+
+    /**
+     * extraction of the user attributes, compiled again when the configuration version changes.
+     */
+    private transient volatile SamlAttributePlan attributePlan;
+
     private DescribableList<SamlProperty, SamlPropertyDescriptor> properties = new DescribableList<>(Saveable.NOOP);
 
+    /**
+     * settings shared by the requests, built again when the security realm changes.
+     */
+    private transient volatile SamlPluginConfig samlPluginConfig;
+
+    private static final AtomicLong CONFIG_VERSION = new AtomicLong();
+
     /**
      * Jenkins passes these parameters in when you update the settings.
      * It does this because of the @DataBoundConstructor.
@@ -215,7 +249,17 @@ public class SamlSecurityRealm extends SecurityRealm {
         this.binding = binding;
         this.samlCustomAttributes = samlCustomAttributes;
 
+        // a malformed URL fails on save, a failed download is reported by IdpMetadataDownloadMonitor
         this.idpMetadataConfiguration.createIdPMetadataFile();
+        // a configuration change may come with a new saml-jenkins-keystore.xml
+        BundleKeyStoreHolder.get().reload();
+        // the key stores are checked again, they may have been replaced with the configuration
+        SamlFileResourceMemory.forgetFileStamps();
+        if (encryptionData == null || StringUtils.isBlank(encryptionData.getKeystorePath())) {
+            // the key is generated in the background, the logins use the demo key store until then
+            BundleKeyStoreHolder.get().maintainLater();
+        }
+        SamlGroupMapping.invalidate();
         LOG.finer(this.toString());
     }
 
@@ -223,6 +267,9 @@ public class SamlSecurityRealm extends SecurityRealm {
     @SuppressWarnings("unused")
     public Object readResolve() {
         File idpMetadataFile = new File(getIDPMetadataFilePath());
+        if (idpMetadataConfiguration != null) {
+            IdpMetadataBlobPruner.loaded(idpMetadataConfiguration.getXmlDigest());
+        }
         if (!idpMetadataFile.exists() && idpMetadataConfiguration != null) {
             try {
                 idpMetadataConfiguration.createIdPMetadataFile();
@@ -252,6 +299,7 @@ public class SamlSecurityRealm extends SecurityRealm {
         } else {
             this.properties.replaceBy(List.of());
         }
+        samlPluginConfig = null;
     }
 
     @Override
@@ -289,7 +337,13 @@ public class SamlSecurityRealm extends SecurityRealm {
         LOG.fine("SamlSecurityRealm.doCommenceLogin called. Using consumerServiceUrl "
                 + getSamlPluginConfig().getConsumerServiceUrl());
 
-        RedirectionAction action = new SamlRedirectActionWrapper(getSamlPluginConfig(), request, response).get();
+        SamlPassiveLogin.Attempt passive = SamlPassiveLogin.of(
+                request, getAdvancedConfiguration() != null && getAdvancedConfiguration().getPassiveLogin());
+        if (passive != null) {
+            request.setAttribute(SamlPassiveLogin.ATTEMPT_ATTRIBUTE, passive);
+        }
+        RedirectionAction action =
+                new SamlRedirectActionWrapper(getSamlPluginConfig(), request, response, passive != null).get();
         if (action instanceof SeeOtherAction || action instanceof FoundAction) {
             LOG.fine("REDIRECT : " + ((WithLocationAction) action).getLocation());
             return HttpResponses.redirectTo(((WithLocationAction) action).getLocation());
@@ -313,18 +367,32 @@ public class SamlSecurityRealm extends SecurityRealm {
     public HttpResponse doFinishLogin(final StaplerRequest2 request, final StaplerResponse2 response) {
         LOG.finer("SamlSecurityRealm.doFinishLogin called");
         String redirectUrl = null;
+        SamlPassiveLogin.Attempt passive = SamlPassiveLogin.take(request.getParameter("RelayState"));
         recreateSession(request);
+        Set<String> sessionAttributes = SamlSessionFootprint.attributeNames(request.getSession(false));
         logSamlResponse(request);
 
         boolean saveUser = false;
-        SAML2Profile saml2Profile;
+        SamlLoginProfile saml2Profile;
+        Instant sessionNotOnOrAfter;
+        SamlSessionIndex.Login login;
 
         try {
             final SamlProfileWrapper samlProfileWrapper =
                     new SamlProfileWrapper(getSamlPluginConfig(), request, response);
-            saml2Profile = samlProfileWrapper.get();
+            SAML2Profile profile = samlProfileWrapper.get();
+            saml2Profile = toLoginProfile(profile);
+            login = getSamlPluginConfig().isSingleLogout() ? SamlSessionIndex.Login.of(profile) : null;
             redirectUrl = samlProfileWrapper.getRedirectUrl();
+            sessionNotOnOrAfter = samlProfileWrapper.getSessionNotOnOrAfter();
+            // the pac4j state is not needed once the SAML Response is validated
+            SamlSessionFootprint.removeAddedAttributes(request.getSession(false), sessionAttributes);
         } catch (BadCredentialsException e) {
+            if (passive != null) {
+                // NoPassive: the user has no session at the IdP
+                LOG.log(Level.FINE, "Passive login failed: " + e.getMessage(), e);
+                return passiveLoginFailed(request, passive);
+            }
             LOG.log(
                     Level.WARNING,
                     "Unable to validate the SAML Response: " + e.getMessage()
@@ -335,7 +403,8 @@ public class SamlSecurityRealm extends SecurityRealm {
         }
 
         // getId and possibly convert, based on settings
-        String username = loadUserName(saml2Profile);
+        SamlAttributePlan.Values values = getAttributePlan().extract(saml2Profile);
+        String username = values.username();
 
         List<GrantedAuthority> authorities = loadGrantedAuthorities(saml2Profile);
 
@@ -348,27 +417,92 @@ public class SamlSecurityRealm extends SecurityRealm {
         SecurityListener.fireAuthenticated2(userDetails);
         User user = User.current();
 
-        saveUser |= modifyUserFullName(user, saml2Profile);
-
-        // retrieve user email
-        List<String> emails = getListOfValues(saml2Profile.getAttribute(getEmailAttributeName()));
-        saveUser |= modifyUserEmail(user, emails);
+        // the changes are only made in memory, the user is saved once after them
+        BulkChange bulkChange = user != null ? new BulkChange(user) : null;
+        try {
+            saveUser |= modifyUserFullName(user, values.displayName());
 
-        saveUser |= modifyUserSamlCustomAttributes(user, saml2Profile);
+            saveUser |= modifyUserEmail(user, values.email());
 
-        try {
-            if (user != null && saveUser) {
-                user.save();
+            saveUser |= modifyUserSamlCustomAttributes(user, saml2Profile);
+        } finally {
+            if (bulkChange != null) {
+                bulkChange.abort();
             }
-        } catch (IOException e) {
-            // even if it fails, nothing critical
-            LOG.log(Level.WARNING, "Unable to save updated user data", e);
         }
 
+        if (user != null && saveUser) {
+            SamlUserPersister.save(user);
+        }
+
+        SamlSessionExpiry.bind(request.getSession(false), sessionNotOnOrAfter, getMaximumAuthenticationLifetime());
+        SamlSessionIndex.bind(request.getSession(false), login);
+        SamlSessionFootprint.record(request.getSession(false), samlAuthToken);
         SecurityListener.fireLoggedIn(userDetails.getUsername());
+        if (passive != null) {
+            SamlPassiveLogin.success();
+            if (passive.background()) {
+                return HttpResponses.status(HttpServletResponse.SC_NO_CONTENT);
+            }
+        }
         return HttpResponses.redirectTo(redirectUrl);
     }
 
+    /**
+     * /securityRealm/singleLogout
+     * <p>
+     * Receives the LogoutRequest (IdP-initiated) and LogoutResponse (SP-initiated) of the SAML Single Logout, with
+     * the HTTP-Redirect or HTTP-POST binding, and sends the LogoutRequests with the HTTP-POST binding.
+     *
+     * @param request  http request.
+     * @param response http response.
+     * @return the http response.
+     */
+    @SuppressWarnings("unused")
+    public HttpResponse doSingleLogout(final StaplerRequest2 request, final StaplerResponse2 response) {
+        LOG.finer("SamlSecurityRealm.doSingleLogout called");
+        String postLogoutUrl = Jenkins.get().getRootUrl() + SamlLogoutAction.POST_LOGOUT_URL;
+        if (request.getParameter("pending") != null) {
+            String html = SamlLogoutWrapper.takePending(request.getParameter("pending"));
+            return html != null ? HttpResponses.literalHtml(html) : HttpResponses.redirectTo(postLogoutUrl);
+        }
+        if (!getSamlPluginConfig().isSingleLogout()) {
+            return HttpResponses.notFound();
+        }
+        try {
+            return toHttpResponse(new SamlLogoutWrapper(getSamlPluginConfig(), request, response).get(), postLogoutUrl);
+        } catch (IllegalStateException e) {
+            LOG.log(Level.WARNING, "Unable to process the SAML Single Logout message: " + e.getMessage(), e);
+            return HttpResponses.redirectTo(postLogoutUrl);
+        }
+    }
+
+    /**
+     * @return a redirection or a page from a pac4j action, or a redirection to the default URL.
+     */
+    private static HttpResponse toHttpResponse(@CheckForNull HttpAction action, @NonNull String defaultUrl) {
+        if (action instanceof WithLocationAction withLocation) {
+            return HttpResponses.redirectTo(withLocation.getLocation());
+        } else if (action instanceof WithContentAction withContent
+                && StringUtils.isNotEmpty(withContent.getContent())) {
+            return HttpResponses.literalHtml(withContent.getContent());
+        }
+        return HttpResponses.redirectTo(defaultUrl);
+    }
+
+    /**
+     * @return the response to a failed passive login: an interactive login, or 401 for a background refresh.
+     */
+    private HttpResponse passiveLoginFailed(StaplerRequest2 request, SamlPassiveLogin.Attempt passive) {
+        if (passive.background()) {
+            return HttpResponses.status(HttpServletResponse.SC_UNAUTHORIZED);
+        }
+        SamlPassiveLogin.fallback();
+        String from = RefererStateGenerator.CACHE.getIfPresent(request.getParameter("RelayState"));
+        return HttpResponses.redirectTo(Jenkins.get().getRootUrl() + getLoginUrl() + "?passive=false"
+                + (from != null ? "&from=" + URLEncoder.encode(from, StandardCharsets.UTF_8) : ""));
+    }
+
     /**
      * retrieve the value of an attribute in a list for consistence with the reset of attributes manage.
      * @return the values of the attribute in a list.
@@ -406,7 +540,7 @@ public class SamlSecurityRealm extends SecurityRealm {
         request.getSession(true);
     }
 
-    private boolean modifyUserSamlCustomAttributes(User user, SAML2Profile profile) {
+    private boolean modifyUserSamlCustomAttributes(User user, SamlLoginProfile profile) {
         boolean saveUser = false;
         if (!getSamlCustomAttributes().isEmpty() && user != null) {
             SamlCustomProperty userProperty = new SamlCustomProperty(new ArrayList<>());
@@ -463,36 +597,73 @@ public class SamlSecurityRealm extends SecurityRealm {
     }
 
     /**
-     * load the username from the profile and set the correct characters case.
-     *
-     * @param saml2Profile SAML Profile.
-     * @return the user name.
+     * @param saml2Profile pac4j profile of the login.
+     * @return the profile the login uses, only with the attributes the configuration uses if the
+     * "Keep only mapped attributes" option is enabled.
      */
-    private String loadUserName(SAML2Profile saml2Profile) {
-        String username = getUsernameFromProfile(saml2Profile);
-        if ("lowercase".compareTo(getUsernameCaseConversion()) == 0) {
-            username = username.toLowerCase();
-        } else if ("uppercase".compareTo(getUsernameCaseConversion()) == 0) {
-            username = username.toUpperCase();
+    @NonNull
+    private SamlLoginProfile toLoginProfile(@NonNull SAML2Profile saml2Profile) {
+        SamlLoginProfile ret;
+        if (getAdvancedConfiguration() != null && getAdvancedConfiguration().getMinimalProfile()) {
+            ret = SamlLoginProfile.of(saml2Profile, getAttributePlan().getProfileAttributes());
+        } else {
+            ret = SamlLoginProfile.of(saml2Profile, null);
         }
-        return username;
+        LOG.log(Level.FINER, "{0}", ret);
+        return ret;
+    }
+
+    /**
+     * @return the extraction of the user attributes for the current configuration version, compiled with the
+     * plugin configuration.
+     */
+    @NonNull
+    private SamlAttributePlan getAttributePlan() {
+        long version = getSamlPluginConfig().getVersion();
+        SamlAttributePlan ret = attributePlan;
+        if (ret == null || ret.getVersion() != version) {
+            ret = compileAttributePlan(version);
+            attributePlan = ret;
+        }
+        return ret;
+    }
+
+    @NonNull
+    private SamlAttributePlan compileAttributePlan(long version) {
+        return SamlAttributePlan.compile(
+                version,
+                attributeMapping,
+                getUsernameAttributeName(),
+                getEmailAttributeName(),
+                getDisplayNameAttributeName(),
+                getUsernameCaseConversion(),
+                getOtherProfileAttributes());
+    }
+
+    /**
+     * @return the attributes used besides the username, email and display name: the groups and custom attributes.
+     */
+    @NonNull
+    private List<String> getOtherProfileAttributes() {
+        List<String> ret = new ArrayList<>();
+        ret.add(getGroupsAttributeName());
+        for (AttributeEntry attributeEntry : getSamlCustomAttributes()) {
+            if (attributeEntry instanceof Attribute attr) {
+                ret.add(attr.getName());
+            }
+        }
+        return ret;
     }
 
     /**
      * modify the fullname in the current user taken it from the SAML Profile.
      *
      * @param user         current user.
-     * @param saml2Profile SAML Profile.
+     * @param userFullName display name extracted from the SAML Profile.
      * @return true if the current user is modified.
      */
-    private boolean modifyUserFullName(User user, SAML2Profile saml2Profile) {
+    private boolean modifyUserFullName(User user, @CheckForNull String userFullName) {
         boolean saveUser = false;
-        // retrieve user display name
-        String userFullName = null;
-        List<String> names = getListOfValues(saml2Profile.getAttribute(getDisplayNameAttributeName()));
-        if (!names.isEmpty()) {
-            userFullName = names.get(0);
-        }
 
         // update user full name if necessary
         if (user != null && StringUtils.isNotBlank(userFullName)) {
@@ -512,16 +683,25 @@ public class SamlSecurityRealm extends SecurityRealm {
      */
     @Restricted(NoExternalUse.class) // Visible for testing
     List<GrantedAuthority> loadGrantedAuthorities(SAML2Profile saml2Profile) {
+        return loadGrantedAuthorities(SamlLoginProfile.of(saml2Profile, null));
+    }
+
+    private List<GrantedAuthority> loadGrantedAuthorities(SamlLoginProfile saml2Profile) {
         // prepare list of groups
         List<String> groups = getListOfValues(saml2Profile.getAttribute(getGroupsAttributeName()));
 
         // build list of authorities
         List<GrantedAuthority> authorities = new ArrayList<>();
         authorities.add(AUTHENTICATED_AUTHORITY2);
+        SamlGroupsFilter filter = getGroupsFilter();
         int countEmptyGroups = 0;
         for (String group : groups) {
             if (StringUtils.isNotBlank(group)) {
-                authorities.add(new SimpleGrantedAuthority(group));
+                String name = SamlGroupMapping.translate(group);
+                name = filter != null ? filter.apply(name) : name;
+                if (StringUtils.isNotBlank(name)) {
+                    authorities.add(SamlAuthoritySet.intern(name));
+                }
             } else {
                 countEmptyGroups++;
             }
@@ -537,29 +717,18 @@ public class SamlSecurityRealm extends SecurityRealm {
     }
 
     /**
-     * set the user email. It will take the first not empty value on the list of email.
+     * set the user email.
      *
-     * @param user   current user.
-     * @param emails user emails.
+     * @param user      current user.
+     * @param userEmail email extracted from the SAML Profile, the first not empty value.
      * @return true if the current user is modified.
      */
-    private boolean modifyUserEmail(User user, @NonNull List<String> emails) {
-        String userEmail = null;
+    private boolean modifyUserEmail(User user, @CheckForNull String userEmail) {
         boolean saveUser = false;
-        if (emails.isEmpty()) {
-            LOG.warning("There is not Email attribute '" + getEmailAttributeName() + "' for user : " + user.getId());
-            return false;
-        }
-
-        for (String item : emails) {
-            if (StringUtils.isNotEmpty(item)) {
-                userEmail = item;
-                break;
-            }
-        }
-
         if (StringUtils.isBlank(userEmail)) {
-            LOG.warning("The Email is blank for user : " + user.getId());
+            LOG.warning("There is not Email attribute '" + getEmailAttributeName() + "' for user : "
+                    + (user != null ? user.getId() : null));
+            return false;
         }
 
         try {
@@ -586,7 +755,7 @@ public class SamlSecurityRealm extends SecurityRealm {
      * @param saml2Profile user profile
      * @return the username or if it is not possible to get the attribute the profile ID
      */
-    private String getUsernameFromProfile(SAML2Profile saml2Profile) {
+    private String getUsernameFromProfile(SamlLoginProfile saml2Profile) {
         if (getUsernameAttributeName() != null) {
             List<String> attributes = getListOfValues(saml2Profile.getAttribute(getUsernameAttributeName()));
             if (!attributes.isEmpty()) {
@@ -596,9 +765,9 @@ public class SamlSecurityRealm extends SecurityRealm {
                     Level.SEVERE,
                     "Unable to get username from attribute {0} value {1}, Saml Profile {2}",
                     new Object[] {getUsernameAttributeName(), attributes.toString(), saml2Profile});
-            LOG.log(Level.SEVERE, "Falling back to NameId {0}", saml2Profile.getId());
+            LOG.log(Level.SEVERE, "Falling back to NameId {0}", saml2Profile.id());
         }
-        return saml2Profile.getId();
+        return saml2Profile.id();
     }
 
     static String getIDPMetadataFilePath() {
@@ -624,15 +793,51 @@ public class SamlSecurityRealm extends SecurityRealm {
         return new SamlSPMetadataWrapper(getSamlPluginConfig(), request, response).get();
     }
 
+    /**
+     * @return the plugin gauges as JSON, see {@link SamlMetrics}.
+     */
+    @SuppressWarnings("unused")
+    @Restricted(NoExternalUse.class)
+    public HttpResponse doMetrics() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        return new JsonHttpResponse(SamlMetrics.toJSON());
+    }
+
+    /**
+     * /securityRealm/loginActivity
+     *
+     * @param days only the users who logged in in the last days, all the users if 0.
+     * @return the login activity of the users as JSON, see {@link SamlLoginActivity}.
+     */
+    @SuppressWarnings("unused")
+    @Restricted(NoExternalUse.class)
+    public HttpResponse doLoginActivity(@QueryParameter int days) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        long since = days > 0 ? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days) : 0;
+        JSONObject ret = new JSONObject();
+        SamlLoginActivity.get().since(since).forEach((id, activity) -> ret.put(
+                id,
+                new JSONObject()
+                        .element("firstLogin", activity.first())
+                        .element("lastLogin", activity.last())
+                        .element("loginCount", activity.count())));
+        return new JsonHttpResponse(ret);
+    }
+
     /**
      * @see SecurityRealm#getPostLogOutUrl2
-     * Note: It does not call the logout service on SAML because the library does not implement it on this version,
-     * it will be done when we upgrade the library.
+     * Note: With the Single Logout enabled, it sends the browser to the IdP with a LogoutRequest.
      */
     @SuppressWarnings("deprecation")
     @Override
     protected String getPostLogOutUrl2(StaplerRequest2 req, @NonNull Authentication auth) {
         LOG.log(Level.FINE, "Doing Logout {}", auth.getPrincipal());
+        if (req.getAttribute(SamlSessionIndex.LOGIN_ATTRIBUTE) instanceof SamlSessionIndex.Login login) {
+            String url = startSingleLogout(req, login);
+            if (url != null) {
+                return url;
+            }
+        }
         // if we just redirect to the root and anonymous does not have Overall read then we will start a login all over
         // again.
         // we are actually anonymous here as the security context has been cleared
@@ -646,8 +851,42 @@ public class SamlSecurityRealm extends SecurityRealm {
     @RequirePOST
     public void doLogout(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException, ServletException {
         Jenkins.get().checkPermission(Jenkins.READ);
+        SamlSessionIndex.Login login = getSamlPluginConfig().isSingleLogout()
+                ? SamlSessionIndex.get(req.getSession(false))
+                : null;
+        if (login != null) {
+            // the session is invalidated by the logout, keep what is needed for the LogoutRequest
+            req.setAttribute(SamlSessionIndex.LOGIN_ATTRIBUTE, login);
+        }
         super.doLogout(req, rsp);
-        LOG.log(Level.FINEST, "Here we could do the SAML Single Logout");
+    }
+
+    /**
+     * Prepare the LogoutRequest of a SP-initiated SAML Single Logout.
+     *
+     * @return the URL to send the browser to, null if the IdP can not be asked to log out.
+     */
+    @CheckForNull
+    private String startSingleLogout(StaplerRequest2 req, SamlSessionIndex.Login login) {
+        String postLogoutUrl = Jenkins.get().getRootUrl() + SamlLogoutAction.POST_LOGOUT_URL;
+        HttpAction action;
+        try {
+            action = new SamlLogoutWrapper(
+                            getSamlPluginConfig(), req, Stapler.getCurrentResponse2(), login, postLogoutUrl)
+                    .get();
+        } catch (IllegalStateException e) {
+            LOG.log(Level.WARNING, "Unable to send the SAML LogoutRequest: " + e.getMessage(), e);
+            return null;
+        }
+        if (action instanceof WithLocationAction withLocation) {
+            return withLocation.getLocation();
+        } else if (action instanceof WithContentAction withContent
+                && StringUtils.isNotEmpty(withContent.getContent())) {
+            return Jenkins.get().getRootUrl() + SINGLE_LOGOUT_URL_PATH + "?pending="
+                    + SamlLogoutWrapper.putPending(withContent.getContent());
+        }
+        LOG.log(Level.FINE, "The IdP has no SingleLogoutService");
+        return null;
     }
 
     /**
@@ -666,9 +905,24 @@ public class SamlSecurityRealm extends SecurityRealm {
     }
 
     /**
-     * @return plugin configuration parameters.
+     * @return plugin configuration parameters, the same instance until the security realm changes.
      */
     public SamlPluginConfig getSamlPluginConfig() {
+        SamlPluginConfig ret = samlPluginConfig;
+        if (ret == null) {
+            synchronized (this) {
+                ret = samlPluginConfig;
+                if (ret == null) {
+                    ret = newSamlPluginConfig();
+                    attributePlan = compileAttributePlan(ret.getVersion());
+                    samlPluginConfig = ret;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private SamlPluginConfig newSamlPluginConfig() {
         return new SamlPluginConfig(
                 displayNameAttributeName,
                 groupsAttributeName,
@@ -681,7 +935,8 @@ public class SamlSecurityRealm extends SecurityRealm {
                 binding,
                 encryptionData,
                 advancedConfiguration,
-                properties);
+                properties,
+                CONFIG_VERSION.incrementAndGet());
     }
 
     @SuppressWarnings("unused")
@@ -775,6 +1030,28 @@ public class SamlSecurityRealm extends SecurityRealm {
         return encryptionData;
     }
 
+    @CheckForNull
+    public SamlGroupsFilter getGroupsFilter() {
+        return groupsFilter;
+    }
+
+    @DataBoundSetter
+    public void setGroupsFilter(@CheckForNull SamlGroupsFilter groupsFilter) {
+        this.groupsFilter = groupsFilter;
+        samlPluginConfig = null;
+    }
+
+    @CheckForNull
+    public SamlAttributeMapping getAttributeMapping() {
+        return attributeMapping;
+    }
+
+    @DataBoundSetter
+    public void setAttributeMapping(@CheckForNull SamlAttributeMapping attributeMapping) {
+        this.attributeMapping = attributeMapping;
+        samlPluginConfig = null;
+    }
+
     public String getUsernameCaseConversion() {
         return usernameCaseConversion;
     }
@@ -801,6 +1078,7 @@ public class SamlSecurityRealm extends SecurityRealm {
 
     public void setSamlCustomAttribute(List<AttributeEntry> samlCustomAttributes) {
         this.samlCustomAttributes = samlCustomAttributes;
+        samlPluginConfig = null;
     }
 
     @Override
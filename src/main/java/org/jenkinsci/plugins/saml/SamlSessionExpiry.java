@@ -0,0 +1,193 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.util.PluginServletFilter;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Ends the HTTP session of a SAML login at the <code>SessionNotOnOrAfter</code> of the assertion, capped by the
+ * maximum authentication lifetime.
+ * <p>
+ * The expiry is stored in the session, and the session timeout is lowered to it, so an idle session is reclaimed by
+ * the container. A request with an expired session invalidates it and goes on as anonymous, and the expired sessions
+ * are also swept every minute, without waiting for a request or the container timeout. The sessions are tracked with
+ * weak references, so they are not retained by the sweep.
+ */
+@Restricted(NoExternalUse.class)
+public final class SamlSessionExpiry {
+    private static final Logger LOG = Logger.getLogger(SamlSessionExpiry.class.getName());
+
+    static final String EXPIRY_ATTRIBUTE = SamlSessionExpiry.class.getName() + ".expiry";
+
+    private static final Map<String, Tracked> SESSIONS = new ConcurrentHashMap<>();
+
+    private static final LongAdder EXPIRED = new LongAdder();
+
+    static {
+        SamlMetrics.gauge("session.tracked", SESSIONS::size);
+        SamlMetrics.gauge("session.expired", EXPIRED::sum);
+    }
+
+    private SamlSessionExpiry() {}
+
+    /**
+     * @param session session of the login.
+     * @param sessionNotOnOrAfter SessionNotOnOrAfter of the assertion, nothing is done if null.
+     * @param maximumAuthenticationLifetime maximum authentication lifetime in seconds.
+     */
+    static void bind(
+            @CheckForNull HttpSession session,
+            @CheckForNull Instant sessionNotOnOrAfter,
+            int maximumAuthenticationLifetime) {
+        if (session == null || sessionNotOnOrAfter == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expiry = sessionNotOnOrAfter.toEpochMilli();
+        if (maximumAuthenticationLifetime > 0) {
+            expiry = Math.min(expiry, now + TimeUnit.SECONDS.toMillis(maximumAuthenticationLifetime));
+        }
+        long seconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(expiry - now));
+        int current = session.getMaxInactiveInterval();
+        if (current <= 0 || seconds < current) {
+            session.setMaxInactiveInterval((int) seconds);
+        }
+        session.setAttribute(EXPIRY_ATTRIBUTE, expiry);
+        SESSIONS.put(session.getId(), new Tracked(new WeakReference<>(session), expiry));
+        LOG.log(Level.FINE, "The session expires at {0}", new Date(expiry));
+    }
+
+    /**
+     * @param session session to check.
+     * @return true if the session of a SAML login is past its expiry.
+     */
+    static boolean isExpired(@NonNull HttpSession session) {
+        return session.getAttribute(EXPIRY_ATTRIBUTE) instanceof Long expiry && System.currentTimeMillis() >= expiry;
+    }
+
+    /**
+     * Invalidate the expired sessions, and forget the sessions that no longer exist.
+     */
+    static void sweep() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Tracked> it = SESSIONS.values().iterator(); it.hasNext(); ) {
+            Tracked tracked = it.next();
+            HttpSession session = tracked.session().get();
+            if (session == null) {
+                it.remove();
+            } else if (now >= tracked.expiry()) {
+                it.remove();
+                invalidate(session);
+            }
+        }
+    }
+
+    private static void invalidate(@NonNull HttpSession session) {
+        try {
+            session.invalidate();
+            EXPIRED.increment();
+        } catch (IllegalStateException e) {
+            // already invalidated
+        }
+    }
+
+    @SuppressWarnings("unused")
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static void registerFilter() throws ServletException {
+        PluginServletFilter.addFilter(new ExpiryFilter());
+    }
+
+    /**
+     * Session tracked for the sweep.
+     */
+    private record Tracked(WeakReference<HttpSession> session, long expiry) {}
+
+    /**
+     * Invalidates the expired session of a request.
+     */
+    private static class ExpiryFilter implements Filter {
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                throws IOException, ServletException {
+            if (request instanceof HttpServletRequest httpRequest) {
+                HttpSession session = httpRequest.getSession(false);
+                if (session != null && isExpired(session)) {
+                    LOG.log(Level.FINE, "The SAML session {0} has expired", session.getId());
+                    SESSIONS.remove(session.getId());
+                    invalidate(session);
+                    SecurityContextHolder.clearContext();
+                }
+            }
+            chain.doFilter(request, response);
+        }
+    }
+
+    /**
+     * Sweeps the expired sessions every minute.
+     */
+    @Extension
+    public static class Sweeper extends AsyncPeriodicWork {
+        @SuppressWarnings("unused")
+        public Sweeper() {
+            super("SAML session expiry");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(1);
+        }
+
+        @Override
+        protected Level getNormalLoggingLevel() {
+            return Level.FINEST;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            sweep();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import jakarta.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+/**
+ * Keeps the HTTP session of a SAML login small, and measures it.
+ * <p>
+ * The attributes pac4j adds to the session while it validates the SAML Response are removed once the login
+ * succeeded, only the security context Jenkins stores stays. One login in every
+ * {@link #SAMPLE_RATE} is measured: the size of the session attributes and of the security context, serialized,
+ * is exposed as the <code>session.averageSize</code> and <code>session.maxSize</code> gauges, in bytes.
+ */
+@Restricted(NoExternalUse.class)
+final class SamlSessionFootprint {
+    private static final Logger LOG = Logger.getLogger(SamlSessionFootprint.class.getName());
+
+    /**
+     * property to measure one login in every N, 0 to measure none.
+     * -Dorg.jenkinsci.plugins.saml.SamlSessionFootprint.sampleRate=N
+     */
+    public static final String SAMPLE_RATE_PROPERTY = SamlSessionFootprint.class.getName() + ".sampleRate";
+
+    public static final int SAMPLE_RATE = Integer.parseInt(System.getProperty(SAMPLE_RATE_PROPERTY, "10"));
+
+    private static final AtomicLong LOGINS = new AtomicLong();
+    private static final LongAdder SAMPLES = new LongAdder();
+    private static final LongAdder TOTAL_SIZE = new LongAdder();
+    private static final LongAccumulator MAX_SIZE = new LongAccumulator(Math::max, 0);
+    private static final LongAdder REMOVED_ATTRIBUTES = new LongAdder();
+
+    static {
+        SamlMetrics.gauge("session.samples", SAMPLES::sum);
+        SamlMetrics.gauge("session.averageSize", () -> {
+            long samples = SAMPLES.sum();
+            return samples > 0 ? TOTAL_SIZE.sum() / samples : 0;
+        });
+        SamlMetrics.gauge("session.maxSize", MAX_SIZE::get);
+        SamlMetrics.gauge("session.removedAttributes", REMOVED_ATTRIBUTES::sum);
+    }
+
+    private SamlSessionFootprint() {}
+
+    /**
+     * @param session session of the login.
+     * @return the names of the attributes of the session.
+     */
+    @NonNull
+    static Set<String> attributeNames(@CheckForNull HttpSession session) {
+        return session != null ? new HashSet<>(Collections.list(session.getAttributeNames())) : Set.of();
+    }
+
+    /**
+     * Remove the attributes added to the session since the names were taken.
+     *
+     * @param session session of the login.
+     * @param before names of the attributes before the SAML Response was validated.
+     */
+    static void removeAddedAttributes(@CheckForNull HttpSession session, @NonNull Set<String> before) {
+        if (session == null) {
+            return;
+        }
+        for (String name : attributeNames(session)) {
+            if (!before.contains(name)) {
+                LOG.log(Level.FINEST, "Removing the session attribute {0}", name);
+                session.removeAttribute(name);
+                REMOVED_ATTRIBUTES.increment();
+            }
+        }
+    }
+
+    /**
+     * Measure the session of a login, if it is sampled.
+     *
+     * @param session session of the login.
+     * @param authentication authentication Jenkins stores in the session at the end of the request.
+     */
+    static void record(@CheckForNull HttpSession session, @NonNull Authentication authentication) {
+        if (session == null || SAMPLE_RATE <= 0 || LOGINS.getAndIncrement() % SAMPLE_RATE != 0) {
+            return;
+        }
+        long size = sizeOf(new SecurityContextImpl(authentication));
+        for (String name : attributeNames(session)) {
+            if (session.getAttribute(name) instanceof Serializable value) {
+                size += sizeOf(value);
+            }
+        }
+        SAMPLES.increment();
+        TOTAL_SIZE.add(size);
+        MAX_SIZE.accumulate(size);
+    }
+
+    private static long sizeOf(@NonNull Object value) {
+        CountingOutputStream out = new CountingOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+            oos.writeObject(value);
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Unable to serialize the session attribute " + value.getClass(), e);
+        }
+        return out.count;
+    }
+
+    /**
+     * Output stream that only counts the bytes written.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
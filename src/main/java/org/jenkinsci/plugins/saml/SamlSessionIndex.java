@@ -0,0 +1,268 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionEvent;
+import java.io.Serializable;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.pac4j.core.context.CallContext;
+import org.pac4j.core.logout.handler.SessionLogoutHandler;
+import org.pac4j.saml.credentials.authenticator.SAML2Authenticator;
+import org.pac4j.saml.profile.SAML2Profile;
+
+/**
+ * Index of the HTTP sessions of the SAML logins by SessionIndex and by NameID, for the SAML Single Logout.
+ * <p>
+ * A LogoutRequest from the IdP finds the sessions to invalidate with a lookup, without going through the sessions of
+ * the container. The sessions are held with weak values, the entries are removed when the sessions are destroyed,
+ * and the index is bounded, the oldest logins are dropped first.
+ */
+@Restricted(NoExternalUse.class)
+public final class SamlSessionIndex {
+    private static final Logger LOG = Logger.getLogger(SamlSessionIndex.class.getName());
+
+    /**
+     * property to set the maximum number of sessions in the index.
+     * -Dorg.jenkinsci.plugins.saml.SamlSessionIndex.maxSize=SESSIONS
+     */
+    public static final String MAX_SIZE_PROPERTY = SamlSessionIndex.class.getName() + ".maxSize";
+
+    public static final int MAX_SIZE = Integer.parseInt(System.getProperty(MAX_SIZE_PROPERTY, "10000"));
+
+    static final String LOGIN_ATTRIBUTE = SamlSessionIndex.class.getName() + ".login";
+
+    private static final Cache<String, HttpSession> SESSIONS =
+            Caffeine.newBuilder().maximumSize(MAX_SIZE).weakValues().build();
+
+    private static final Cache<String, String> BY_SESSION_INDEX =
+            Caffeine.newBuilder().maximumSize(MAX_SIZE).build();
+
+    private static final Cache<String, Set<String>> BY_NAME_ID =
+            Caffeine.newBuilder().maximumSize(MAX_SIZE).build();
+
+    private static final LongAdder LOGGED_OUT = new LongAdder();
+
+    static final SessionLogoutHandler LOGOUT_HANDLER = new LogoutHandler();
+
+    static {
+        SamlMetrics.gauge("singleLogout.indexed", SESSIONS::estimatedSize);
+        SamlMetrics.gauge("singleLogout.loggedOut", LOGGED_OUT::sum);
+    }
+
+    private SamlSessionIndex() {}
+
+    /**
+     * Index the session of a login.
+     *
+     * @param session session of the login.
+     * @param login NameID and SessionIndex of the login.
+     */
+    static void bind(@CheckForNull HttpSession session, @CheckForNull Login login) {
+        if (session == null || login == null) {
+            return;
+        }
+        String id = session.getId();
+        session.setAttribute(LOGIN_ATTRIBUTE, login);
+        SESSIONS.put(id, session);
+        if (login.sessionIndex() != null) {
+            BY_SESSION_INDEX.put(login.sessionIndex(), id);
+        }
+        BY_NAME_ID
+                .get(login.nameId(), key -> ConcurrentHashMap.newKeySet())
+                .add(id);
+    }
+
+    /**
+     * @param session session of the request.
+     * @return the SAML login of the session, null if there is none.
+     */
+    @CheckForNull
+    static Login get(@CheckForNull HttpSession session) {
+        try {
+            return session != null && session.getAttribute(LOGIN_ATTRIBUTE) instanceof Login login ? login : null;
+        } catch (IllegalStateException e) {
+            // invalidated
+            return null;
+        }
+    }
+
+    /**
+     * Invalidate the sessions of a LogoutRequest.
+     *
+     * @param key SessionIndex, or NameID if the LogoutRequest has no SessionIndex.
+     * @return the number of sessions invalidated.
+     */
+    static int logout(@CheckForNull String key) {
+        if (key == null) {
+            return 0;
+        }
+        String id = BY_SESSION_INDEX.getIfPresent(key);
+        if (id != null) {
+            return invalidate(id);
+        }
+        Set<String> ids = BY_NAME_ID.getIfPresent(key);
+        int ret = 0;
+        if (ids != null) {
+            for (String each : Set.copyOf(ids)) {
+                ret += invalidate(each);
+            }
+        }
+        return ret;
+    }
+
+    private static int invalidate(@NonNull String id) {
+        HttpSession session = SESSIONS.getIfPresent(id);
+        if (session == null) {
+            return 0;
+        }
+        LOG.log(Level.FINE, "Single Logout of the session {0}", id);
+        forget(session);
+        try {
+            session.invalidate();
+        } catch (IllegalStateException e) {
+            // already invalidated
+            return 0;
+        }
+        LOGGED_OUT.increment();
+        return 1;
+    }
+
+    /**
+     * Remove a session from the index.
+     *
+     * @param session session destroyed or logged out.
+     */
+    static void forget(@NonNull HttpSession session) {
+        String id = session.getId();
+        SESSIONS.invalidate(id);
+        Login login = get(session);
+        if (login == null) {
+            return;
+        }
+        if (login.sessionIndex() != null) {
+            BY_SESSION_INDEX.asMap().remove(login.sessionIndex(), id);
+        }
+        BY_NAME_ID.asMap().computeIfPresent(login.nameId(), (key, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * NameID and SessionIndex of a SAML login, kept in the session to send the LogoutRequest.
+     */
+    record Login(
+            @NonNull String nameId,
+            @CheckForNull String nameIdFormat,
+            @CheckForNull String nameQualifier,
+            @CheckForNull String spNameQualifier,
+            @CheckForNull String sessionIndex)
+            implements Serializable {
+
+        /**
+         * @param profile profile of the SAML Response.
+         * @return the login, null if the profile has no NameID.
+         */
+        @CheckForNull
+        static Login of(@CheckForNull SAML2Profile profile) {
+            if (profile == null || profile.getId() == null) {
+                return null;
+            }
+            return new Login(
+                    profile.getId(),
+                    profile.getSamlNameIdFormat(),
+                    profile.getSamlNameIdNameQualifier(),
+                    profile.getSamlNameIdSpNameQualifier(),
+                    profile.getSessionIndex());
+        }
+
+        /**
+         * @return a profile with what is needed to build the LogoutRequest.
+         */
+        @NonNull
+        SAML2Profile toProfile() {
+            SAML2Profile profile = new SAML2Profile();
+            profile.setId(nameId);
+            addAuthenticationAttribute(profile, SAML2Authenticator.SAML_NAME_ID_FORMAT, nameIdFormat);
+            addAuthenticationAttribute(profile, SAML2Authenticator.SAML_NAME_ID_NAME_QUALIFIER, nameQualifier);
+            addAuthenticationAttribute(profile, SAML2Authenticator.SAML_NAME_ID_SP_NAME_QUALIFIER, spNameQualifier);
+            addAuthenticationAttribute(profile, SAML2Authenticator.SESSION_INDEX, sessionIndex);
+            return profile;
+        }
+
+        private static void addAuthenticationAttribute(SAML2Profile profile, String name, String value) {
+            if (value != null) {
+                profile.addAuthenticationAttribute(name, value);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the sessions of the LogoutRequests validated by pac4j.
+     */
+    private static class LogoutHandler implements SessionLogoutHandler {
+        @Override
+        public void recordSession(CallContext ctx, String key) {
+            // the session is indexed after the login, once it is recreated
+        }
+
+        @Override
+        public void destroySession(CallContext ctx, String key) {
+            int count = logout(key);
+            LOG.log(Level.FINE, "LogoutRequest for {0} invalidated {1} sessions", new Object[] {key, count});
+        }
+
+        @Override
+        public void renewSession(CallContext ctx, String oldSessionId) {
+            // the session is never renewed after it is indexed
+        }
+
+        @Override
+        public Optional<Object> cleanRecord(String sessionId) {
+            HttpSession session = SESSIONS.getIfPresent(sessionId);
+            if (session != null) {
+                forget(session);
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Removes the sessions destroyed by the container from the index.
+     */
+    @Extension
+    public static class Listener extends jenkins.util.HttpSessionListener {
+        @Override
+        public void sessionDestroyed(HttpSessionEvent event) {
+            forget(event.getSession());
+        }
+    }
+}
@@ -20,26 +20,27 @@ package org.jenkinsci.plugins.saml;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
 /**
+ * The authorities are kept in a shared {@link SamlAuthoritySet}.
+ *
  * @see UserDetails
  */
 public class SamlUserDetails implements UserDetails {
 
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
     private final String username;
-    private final Collection<GrantedAuthority> authorities;
+    private final SamlAuthoritySet authorities;
 
     public SamlUserDetails(@NonNull String username, Collection<GrantedAuthority> authorities) {
         this.username = username;
-        this.authorities = Collections.unmodifiableCollection(authorities);
+        this.authorities = SamlAuthoritySet.of(authorities);
     }
 
-    public Collection<GrantedAuthority> getAuthorities() {
+    public SamlAuthoritySet getAuthorities() {
         return authorities;
     }
 
@@ -28,7 +28,6 @@ import jenkins.model.Jenkins;
 import jenkins.security.LastGrantedAuthoritiesProperty;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetailsService;
 
 /**
@@ -61,8 +60,7 @@ public class SamlUserDetailsService implements UserDetailsService {
             if (lastGranted != null) {
                 for (GrantedAuthority a : lastGranted.getAuthorities2()) {
                     if (a != SecurityRealm.AUTHENTICATED_AUTHORITY2) {
-                        SimpleGrantedAuthority ga = new SimpleGrantedAuthority(a.getAuthority());
-                        authorities.add(ga);
+                        authorities.add(SamlAuthoritySet.intern(a.getAuthority()));
                     }
                 }
             }
@@ -0,0 +1,230 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.User;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Saves the users modified by a login.
+ * <p>
+ * If "Save users in the background" is enabled, the login only changes the user in memory, and the user is saved by a
+ * background worker after a short delay. The users modified by several logins during the delay are saved once,
+ * in the order they were first modified. The queue is bounded: when it is full the login saves the user itself.
+ * The users waiting are saved before Jenkins stops.
+ */
+@Restricted(NoExternalUse.class)
+public final class SamlUserPersister {
+    private static final Logger LOG = Logger.getLogger(SamlUserPersister.class.getName());
+
+    /**
+     * property to set the maximum number of users waiting to be saved.
+     * -Dorg.jenkinsci.plugins.saml.SamlUserPersister.queueSize=USERS
+     */
+    public static final String QUEUE_SIZE_PROPERTY = SamlUserPersister.class.getName() + ".queueSize";
+
+    public static final int QUEUE_SIZE = Integer.parseInt(System.getProperty(QUEUE_SIZE_PROPERTY, "1000"));
+
+    static int queueSize = QUEUE_SIZE;
+
+    /**
+     * property to set the time a modified user waits to be saved, with the users modified meanwhile.
+     * -Dorg.jenkinsci.plugins.saml.SamlUserPersister.delay=MILLISECONDS
+     */
+    public static final String DELAY_PROPERTY = SamlUserPersister.class.getName() + ".delay";
+
+    public static final long DELAY = Long.parseLong(System.getProperty(DELAY_PROPERTY, "1000"));
+
+    static long delay = DELAY;
+
+    /**
+     * background worker, created on demand and stopped with Jenkins, guarded by the class.
+     */
+    private static ScheduledExecutorService persister;
+
+    /**
+     * users waiting to be saved by id, guarded by the class.
+     */
+    private static final Map<String, Pending> QUEUE = new LinkedHashMap<>();
+
+    private static boolean scheduled;
+
+    private static boolean stopped;
+
+    private static final LongAdder SAVED = new LongAdder();
+
+    private static final LongAdder COALESCED = new LongAdder();
+
+    private static final LongAdder OVERFLOWS = new LongAdder();
+
+    private static volatile long lastLag;
+
+    static {
+        SamlMetrics.gauge("userPersister.queueDepth", SamlUserPersister::getQueueDepth);
+        SamlMetrics.gauge("userPersister.lag", SamlUserPersister::getLag);
+        SamlMetrics.gauge("userPersister.lastLag", () -> lastLag);
+        SamlMetrics.gauge("userPersister.saved", SAVED::sum);
+        SamlMetrics.gauge("userPersister.coalesced", COALESCED::sum);
+        SamlMetrics.gauge("userPersister.overflows", OVERFLOWS::sum);
+    }
+
+    private SamlUserPersister() {}
+
+    /**
+     * Save a user now, or in the background if it is enabled.
+     *
+     * @param user user modified.
+     */
+    public static void save(@NonNull User user) {
+        if (!isBackground() || !enqueue(user)) {
+            saveNow(user);
+        }
+    }
+
+    /**
+     * @param user user to save in the background.
+     * @return false if the queue is full or Jenkins is stopping, the caller should save the user.
+     */
+    static synchronized boolean enqueue(@NonNull User user) {
+        if (stopped) {
+            return false;
+        }
+        Pending queued = QUEUE.get(user.getId());
+        if (queued != null) {
+            // the same user modified again before it was saved
+            QUEUE.put(user.getId(), new Pending(user, queued.since()));
+            COALESCED.increment();
+            return true;
+        }
+        if (QUEUE.size() >= queueSize) {
+            OVERFLOWS.increment();
+            return false;
+        }
+        QUEUE.put(user.getId(), new Pending(user, System.currentTimeMillis()));
+        if (!scheduled) {
+            scheduled = true;
+            if (persister == null) {
+                persister = Executors.newSingleThreadScheduledExecutor(
+                        new NamingThreadFactory(new DaemonThreadFactory(), "SAML user persister"));
+            }
+            persister.schedule(SamlUserPersister::flush, delay, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Save the users waiting.
+     */
+    static void flush() {
+        List<Pending> batch;
+        synchronized (SamlUserPersister.class) {
+            batch = new ArrayList<>(QUEUE.values());
+            QUEUE.clear();
+            scheduled = false;
+        }
+        for (Pending pending : batch) {
+            saveNow(pending.user());
+            lastLag = System.currentTimeMillis() - pending.since();
+        }
+    }
+
+    /**
+     * Accept users to save in the background, again if Jenkins was restarted in the same JVM.
+     */
+    @SuppressWarnings("unused")
+    @Initializer(after = InitMilestone.PLUGINS_STARTED)
+    public static synchronized void start() {
+        stopped = false;
+    }
+
+    /**
+     * Save the users waiting before Jenkins stops.
+     */
+    @SuppressWarnings("unused")
+    @Terminator
+    public static void shutdown() throws InterruptedException {
+        ScheduledExecutorService executor;
+        synchronized (SamlUserPersister.class) {
+            stopped = true;
+            executor = persister;
+            persister = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOG.warning("The background save of users did not finish");
+            }
+        }
+        flush();
+    }
+
+    private static void saveNow(@NonNull User user) {
+        try {
+            user.save();
+            SAVED.increment();
+        } catch (IOException e) {
+            // even if it fails, nothing critical
+            LOG.log(Level.WARNING, "Unable to save updated user data", e);
+        }
+    }
+
+    private static boolean isBackground() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null
+                && jenkins.getSecurityRealm() instanceof SamlSecurityRealm realm
+                && realm.getAdvancedConfiguration() != null
+                && realm.getAdvancedConfiguration().getBackgroundUserSave();
+    }
+
+    static synchronized int getQueueDepth() {
+        return QUEUE.size();
+    }
+
+    /**
+     * @return milliseconds the oldest user waiting has been waiting, 0 if there is none.
+     */
+    static synchronized long getLag() {
+        return QUEUE.isEmpty()
+                ? 0
+                : System.currentTimeMillis() - QUEUE.values().iterator().next().since();
+    }
+
+    /**
+     * User waiting to be saved, since it was first modified.
+     */
+    private record Pending(User user, long since) {}
+}
@@ -2,6 +2,12 @@ package org.jenkinsci.plugins.saml;
 
 import hudson.util.FormValidation;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 import net.shibboleth.shared.component.ComponentInitializationException;
 import net.shibboleth.shared.xml.XMLParserException;
 import org.apache.commons.io.IOUtils;
@@ -14,9 +20,36 @@ import org.pac4j.saml.util.Configuration;
 public class SamlValidateIdPMetadata extends OpenSAMLWrapper<FormValidation> {
 
     private final String idpMetadata;
+    private final InputStream idpMetadataStream;
+    private String validatedIdpMetadata;
+    private String entityId;
 
     public SamlValidateIdPMetadata(String idpMetadata) {
         this.idpMetadata = idpMetadata;
+        this.idpMetadataStream = null;
+    }
+
+    /**
+     * Validate the IdP Metadata as it is read, without buffering the raw document.
+     * @param idpMetadataStream IdP Metadata XML, it is not closed.
+     */
+    SamlValidateIdPMetadata(InputStream idpMetadataStream) {
+        this.idpMetadata = null;
+        this.idpMetadataStream = idpMetadataStream;
+    }
+
+    /**
+     * @return the IdP Metadata XML once it has been validated, null if it is not valid.
+     */
+    String getValidatedIdpMetadata() {
+        return validatedIdpMetadata;
+    }
+
+    /**
+     * @return the entityID of the root element once the IdP Metadata has been validated.
+     */
+    String getEntityId() {
+        return entityId;
     }
 
     /**
@@ -25,7 +58,8 @@ public class SamlValidateIdPMetadata extends OpenSAMLWrapper<FormValidation> {
      */
     @Override
     protected FormValidation process() {
-        try (final java.io.InputStream in = IOUtils.toInputStream(idpMetadata, "UTF-8")) {
+        try (final java.io.InputStream in =
+                idpMetadataStream != null ? idpMetadataStream : IOUtils.toInputStream(idpMetadata, "UTF-8")) {
             final org.w3c.dom.Document inCommonMDDoc =
                     Configuration.getParserPool().parse(in);
             final org.w3c.dom.Element metadataRoot = inCommonMDDoc.getDocumentElement();
@@ -35,7 +69,9 @@ public class SamlValidateIdPMetadata extends OpenSAMLWrapper<FormValidation> {
             idpMetadataProvider.setRequireValidMetadata(true);
             idpMetadataProvider.setId(idpMetadataProvider.getClass().getCanonicalName());
             idpMetadataProvider.initialize();
-        } catch (IOException e) {
+            entityId = metadataRoot.getAttribute("entityID");
+            validatedIdpMetadata = idpMetadata != null ? idpMetadata : serialize(inCommonMDDoc);
+        } catch (IOException | TransformerException e) {
             return FormValidation.error("The IdP Metadata not valid.", e);
         } catch (XMLParserException e) {
             return FormValidation.error("The IdP Metadata not valid XML.", e);
@@ -44,4 +80,10 @@ public class SamlValidateIdPMetadata extends OpenSAMLWrapper<FormValidation> {
         }
         return FormValidation.ok("Success");
     }
+
+    private static String serialize(org.w3c.dom.Document doc) throws TransformerException {
+        StringWriter writer = new StringWriter();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(writer));
+        return writer.toString();
+    }
 }
@@ -0,0 +1,188 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.security.SecurityRealm;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.namespace.QName;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import net.shibboleth.shared.xml.SerializeSupport;
+import net.shibboleth.shared.xml.XMLParserException;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.opensaml.xmlsec.signature.support.SignatureSupport;
+import org.opensaml.xmlsec.signature.support.SignatureValidator;
+import org.pac4j.core.context.CallContext;
+import org.pac4j.core.context.MockWebContext;
+import org.pac4j.core.context.session.MockSessionStore;
+import org.pac4j.saml.client.SAML2Client;
+import org.pac4j.saml.util.Configuration;
+
+/**
+ * Runs the SAML login path once when Jenkins starts, so the first user does not wait for the class loading,
+ * the OpenSAML initialization, the key store and IdP Metadata load and the JIT.
+ * <p>
+ * It builds a SAML client, generates an AuthnRequest that is thrown away, and signs, parses and verifies a
+ * synthetic SAML Response with the SP key. That loads the XML signature and parser code, but it is not the pac4j
+ * validation of a response: the trust of the IdP certificates and the checks of the assertion still run on the
+ * first login. It is disabled by default, the time it takes is logged and exposed in the metrics.
+ */
+@Restricted(NoExternalUse.class)
+public class SamlWarmUp extends OpenSAMLWrapper<Long> {
+    private static final Logger LOG = Logger.getLogger(SamlWarmUp.class.getName());
+
+    /**
+     * property to warm up the SAML login path when Jenkins starts.
+     * -Dorg.jenkinsci.plugins.saml.SamlWarmUp.enabled=true
+     */
+    public static final String ENABLED_PROPERTY = SamlWarmUp.class.getName() + ".enabled";
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "false"));
+
+    private static volatile long lastDuration = -1;
+    private static volatile long lastRun;
+
+    static {
+        SamlMetrics.gauge("warmUp.duration", () -> lastDuration);
+        SamlMetrics.gauge("warmUp.lastRun", () -> lastRun);
+    }
+
+    public SamlWarmUp(SamlPluginConfig samlPluginConfig) {
+        this.samlPluginConfig = samlPluginConfig;
+    }
+
+    @SuppressWarnings("unused")
+    @Initializer(after = InitMilestone.SYSTEM_CONFIG_ADAPTED)
+    public static void onStart() {
+        if (!ENABLED) {
+            return;
+        }
+        SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+        if (securityRealm instanceof SamlSecurityRealm samlSecurityRealm) {
+            SamlPluginConfig config = samlSecurityRealm.getSamlPluginConfig();
+            Timer.get().submit(() -> {
+                try {
+                    new SamlWarmUp(config).get();
+                } catch (RuntimeException e) {
+                    LOG.log(Level.WARNING, "Could not warm up the SAML login", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return time spent in milliseconds.
+     * @throws IllegalStateException if something goes wrong.
+     */
+    @Override
+    protected Long process() throws IllegalStateException {
+        long start = System.nanoTime();
+        SAML2Client client = createSAML2Client();
+        client.getRedirectionAction(new CallContext(MockWebContext.create(), new MockSessionStore()));
+        try {
+            signAndVerify(client.getCredentialProvider().getCredential(), client.getServiceProviderResolvedEntityId());
+        } catch (SecurityException
+                | MarshallingException
+                | UnmarshallingException
+                | SignatureException
+                | XMLParserException e) {
+            throw new IllegalStateException(e);
+        }
+        lastDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastRun = System.currentTimeMillis();
+        LOG.log(Level.INFO, "SAML login warmed up in {0} ms", lastDuration);
+        return lastDuration;
+    }
+
+    /**
+     * Sign a synthetic SAML Response with the SP key, serialize it, parse it back and verify the signature with the
+     * same key. The SAML client does not validate it.
+     */
+    private static void signAndVerify(Credential credential, String issuerName)
+            throws SecurityException, MarshallingException, UnmarshallingException, SignatureException,
+                    XMLParserException {
+        Instant now = Instant.now();
+        Response response = build(Response.DEFAULT_ELEMENT_NAME);
+        response.setID("_" + UUID.randomUUID());
+        response.setVersion(SAMLVersion.VERSION_20);
+        response.setIssueInstant(now);
+        response.setIssuer(issuer(issuerName));
+        Assertion assertion = build(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("_" + UUID.randomUUID());
+        assertion.setIssueInstant(now);
+        assertion.setIssuer(issuer(issuerName));
+        Subject subject = build(Subject.DEFAULT_ELEMENT_NAME);
+        NameID nameId = build(NameID.DEFAULT_ELEMENT_NAME);
+        nameId.setValue("warm-up");
+        subject.setNameID(nameId);
+        assertion.setSubject(subject);
+        response.getAssertions().add(assertion);
+
+        SignatureSigningParameters parameters = new SignatureSigningParameters();
+        parameters.setSigningCredential(credential);
+        parameters.setSignatureAlgorithm(
+                "EC".equals(credential.getPublicKey().getAlgorithm())
+                        ? SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256
+                        : SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        parameters.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+        parameters.setSignatureCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        SignatureSupport.signObject(response, parameters);
+
+        byte[] xml = SerializeSupport.nodeToString(response.getDOM()).getBytes(StandardCharsets.UTF_8);
+        Response parsed = (Response) XMLObjectSupport.unmarshallFromInputStream(
+                Configuration.getParserPool(), new ByteArrayInputStream(xml));
+        new SAMLSignatureProfileValidator().validate(parsed.getSignature());
+        SignatureValidator.validate(parsed.getSignature(), credential);
+    }
+
+    private static Issuer issuer(String name) {
+        Issuer issuer = build(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(name);
+        return issuer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends XMLObject> T build(QName name) {
+        return (T) XMLObjectSupport.buildXMLObject(name);
+    }
+}
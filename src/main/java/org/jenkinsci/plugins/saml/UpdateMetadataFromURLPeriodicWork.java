@@ -7,7 +7,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
-import org.apache.commons.lang3.StringUtils;
 
 /**
  * <p>This periodic work update the IdP Metadata File, the periodicof the execution is defined on the SAML Plugin configuration.</p>
@@ -35,7 +34,8 @@ public class UpdateMetadataFromURLPeriodicWork extends AsyncAperiodicWork {
     }
 
     /**
-     * @return the configured period, if the configured period is 0 return 10 minutes,
+     * @return how often to check if the IdP Metadata is due for download, see {@link IdpMetadataRefreshSchedule},
+     * if the configured period is 0 return 10 minutes,
      * if we are starting the Jenkins instance schedule an execution after 10 seconds.
      */
     @Override
@@ -43,6 +43,8 @@ public class UpdateMetadataFromURLPeriodicWork extends AsyncAperiodicWork {
         long ret = getConfiguredPeriod();
         if (ret == 0) {
             ret = TimeUnit.MINUTES.toMillis(10);
+        } else {
+            ret = Math.min(ret, IdpMetadataRefreshSchedule.MIN_DELAY);
         }
         return ret;
     }
@@ -64,8 +66,8 @@ public class UpdateMetadataFromURLPeriodicWork extends AsyncAperiodicWork {
         if (j.getSecurityRealm() instanceof SamlSecurityRealm) {
             SamlSecurityRealm samlSecurityRealm = (SamlSecurityRealm) j.getSecurityRealm();
             IdpMetadataConfiguration config = samlSecurityRealm.getIdpMetadataConfiguration();
-            if (config != null && config.getPeriod() != null && StringUtils.isNotBlank(config.getUrl())) {
-                ret = TimeUnit.MINUTES.toMillis(config.getPeriod());
+            if (config != null) {
+                ret = config.getPeriodMillis();
             }
         }
         return ret;
@@ -82,11 +84,11 @@ public class UpdateMetadataFromURLPeriodicWork extends AsyncAperiodicWork {
     /**
      * {@inheritDoc}
      * <p>Connect to the URL configured on the SAML configuration to get the IdP Metadata, then download it </p>
-     * <p>if the period configured is 0 it returns directly, do nothing.</p>
+     * <p>if the period configured is 0 or the next download is not due yet it returns directly, do nothing.</p>
      */
     @Override
     protected void execute(hudson.model.TaskListener listener) {
-        if (getConfiguredPeriod() == 0) {
+        if (getConfiguredPeriod() == 0 || !IdpMetadataRefreshSchedule.get().isDue()) {
             return;
         }
 
@@ -16,7 +16,9 @@ specific language governing permissions and limitations
 under the License. */
 package org.jenkinsci.plugins.saml.user;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.BulkChange;
 import hudson.Extension;
 import hudson.model.User;
 import hudson.model.UserProperty;
@@ -28,13 +30,18 @@ import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang3.time.FastDateFormat;
+import org.jenkinsci.plugins.saml.SamlLoginActivity;
 import org.jenkinsci.plugins.saml.SamlSecurityRealm;
+import org.jenkinsci.plugins.saml.SamlUserPersister;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.springframework.security.core.Authentication;
 
 /**
  * Store details about create and login processes
+ * <p>
+ * The logins are recorded in the {@link SamlLoginActivity}, the fields only keep the logins saved in the user
+ * by the previous versions.
  *
  * @author Kuisathaverat
  */
@@ -70,42 +77,47 @@ public class LoginDetailsProperty extends UserProperty {
         }
     }
 
+    /**
+     * Record a login in the {@link SamlLoginActivity}, the user is not saved.
+     */
     public void update() {
-        long now = System.currentTimeMillis();
-        if (getCreateTimestamp() == 0) {
-            setCreateTimestamp(now);
+        if (user != null) {
+            SamlLoginActivity.get().record(user.getId(), System.currentTimeMillis());
         }
+    }
 
-        setLastLoginTimestamp(now);
-        setLoginCount(getLoginCount() + 1);
-        try {
-            user.save();
-        } catch (java.io.IOException e) {
-            LOG.log(Level.WARNING, e.getMessage(), e);
-        }
+    /**
+     * @return the login activity recorded since the logins are no longer saved in the user.
+     */
+    @CheckForNull
+    private SamlLoginActivity.Activity activity() {
+        return user != null ? SamlLoginActivity.get().get(user.getId()) : null;
     }
 
     public long getCreateTimestamp() {
-        return createTimestamp;
+        SamlLoginActivity.Activity activity = activity();
+        return createTimestamp != 0 || activity == null ? createTimestamp : activity.first();
     }
 
     @SuppressWarnings("unused")
     public long getLastLoginTimestamp() {
-        return lastLoginTimestamp;
+        SamlLoginActivity.Activity activity = activity();
+        return activity != null ? Math.max(lastLoginTimestamp, activity.last()) : lastLoginTimestamp;
     }
 
     @SuppressWarnings("unused")
     public String getCreateDate() {
-        return FastDateFormat.getInstance(ISO_8601).format(new Date(createTimestamp));
+        return FastDateFormat.getInstance(ISO_8601).format(new Date(getCreateTimestamp()));
     }
 
     @SuppressWarnings("unused")
     public String getLastLoginDate() {
-        return FastDateFormat.getInstance(ISO_8601).format(new Date(lastLoginTimestamp));
+        return FastDateFormat.getInstance(ISO_8601).format(new Date(getLastLoginTimestamp()));
     }
 
     public long getLoginCount() {
-        return loginCount;
+        SamlLoginActivity.Activity activity = activity();
+        return activity != null ? loginCount + activity.count() : loginCount;
     }
 
     public void setCreateTimestamp(long createTimestamp) {
@@ -144,9 +156,16 @@ public class LoginDetailsProperty extends UserProperty {
                 User u = User.getById(username, true);
                 LoginDetailsProperty o = u.getProperty(LoginDetailsProperty.class);
                 if (o == null) {
+                    // only the first login of a user saves it
                     o = new LoginDetailsProperty();
+                    BulkChange bulkChange = new BulkChange(u);
+                    try {
+                        u.addProperty(o);
+                    } finally {
+                        bulkChange.abort();
+                    }
+                    SamlUserPersister.save(u);
                 }
-                u.addProperty(o);
                 Authentication a = Jenkins.getAuthentication2();
                 if (a.getName().equals(username)) {
                     o.update(); // just for defensive sanity checking
@@ -0,0 +1,107 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import hudson.util.Secret;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * The bundled key store is only read or created when it is used.
+ */
+@WithJenkins
+class BundleKeyStoreHolderTest {
+
+    @Test
+    void customKeyStoreDoesNotCreateTheBundledKeyStore(JenkinsRule jenkinsRule) throws IOException {
+        SamlEncryptionData encryptionData = new SamlEncryptionData(
+                BundleKeyStore.PAC4J_DEMO_KEYSTORE,
+                Secret.fromString(BundleKeyStore.PAC4J_DEMO_PASSWD),
+                Secret.fromString(BundleKeyStore.PAC4J_DEMO_PASSWD),
+                BundleKeyStore.PAC4J_DEMO_ALIAS,
+                false,
+                false);
+        SamlSecurityRealm realm = realm(encryptionData);
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+
+        assertNotNull(new SamlSPMetadataWrapper(realm.getSamlPluginConfig(), null, null).get());
+        assertFalse(keyStoreXml(jenkinsRule).exists());
+    }
+
+    @Test
+    void bundledKeyStoreIsCreatedOnFirstUseAndReadAgainAfterReload(JenkinsRule jenkinsRule) {
+        assertFalse(keyStoreXml(jenkinsRule).exists());
+
+        BundleKeyStoreHolder holder = BundleKeyStoreHolder.get();
+        BundleKeyStore keyStore = holder.getKeyStore();
+        assertTrue(keyStore.isUsingDemoKeyStore(), "the login does not generate the key");
+        assertFalse(keyStoreXml(jenkinsRule).exists());
+
+        holder.maintain();
+        assertTrue(keyStoreXml(jenkinsRule).exists());
+        assertTrue(keyStore.hasKey());
+        assertSame(keyStore, holder.getKeyStore());
+
+        holder.reload();
+        BundleKeyStore reloaded = holder.getKeyStore();
+        assertNotSame(keyStore, reloaded);
+        assertEquals(keyStore.getKeystorePath(), reloaded.getKeystorePath());
+        assertEquals(keyStore.getKsPkAlias(), reloaded.getKsPkAlias());
+        assertEquals(keyStore.getDateValidity(), reloaded.getDateValidity());
+    }
+
+    private static File keyStoreXml(JenkinsRule jenkinsRule) {
+        return new File(jenkinsRule.jenkins.getRootDir(), BundleKeyStore.SAML_JENKINS_KEYSTORE_XML);
+    }
+
+    private SamlSecurityRealm realm(SamlEncryptionData encryptionData) throws IOException {
+        String metadata;
+        try (InputStream in = getClass().getResourceAsStream("OpenSamlWrapperTest/metadataWrapper/metadata.xml")) {
+            metadata = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+        return new SamlSecurityRealm(
+                new IdpMetadataConfiguration(metadata),
+                "displayName",
+                "groups",
+                86400,
+                "uid",
+                "email",
+                null,
+                null,
+                encryptionData,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                Collections.emptyList());
+    }
+}
@@ -0,0 +1,317 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_POST_BINDING_URI;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+import javax.xml.namespace.QName;
+import net.shibboleth.shared.xml.SerializeSupport;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.common.SignableSAMLObject;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+import org.opensaml.saml.saml2.core.AuthnContext;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.LogoutRequest;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.SessionIndex;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.saml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml.saml2.core.SubjectConfirmationData;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureSupport;
+
+/**
+ * Fake IdP for the tests that send SAML messages to Jenkins: a signing key, its IdP Metadata and signed messages.
+ */
+public class FakeIdp {
+    public static final String ENTITY_ID = "https://idp.example.com/saml";
+    public static final String SSO_URL = "https://idp.example.com/sso";
+    public static final String SLO_URL = "https://idp.example.com/slo";
+    public static final String SP_ENTITY_ID = "https://jenkins.example.com/saml";
+
+    private final BasicX509Credential credential;
+
+    public FakeIdp() throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader loader = thread.getContextClassLoader();
+        thread.setContextClassLoader(InitializationService.class.getClassLoader());
+        try {
+            InitializationService.initialize();
+        } finally {
+            thread.setContextClassLoader(loader);
+        }
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        X500Name name = new X500Name("cn=idp.example.com");
+        Instant now = Instant.now();
+        X509Certificate certificate = new JcaX509CertificateConverter()
+                .getCertificate(new JcaX509v3CertificateBuilder(
+                                name,
+                                BigInteger.valueOf(now.toEpochMilli()),
+                                Date.from(now.minus(1, ChronoUnit.DAYS)),
+                                Date.from(now.plus(365, ChronoUnit.DAYS)),
+                                name,
+                                keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+        credential = new BasicX509Credential(certificate, keyPair.getPrivate());
+    }
+
+    /**
+     * @return IdP Metadata with the signing certificate, and SSO and SLO endpoints with both bindings.
+     */
+    public String getMetadata() throws Exception {
+        String certificate = Base64.getEncoder().encodeToString(credential.getEntityCertificate().getEncoded());
+        return "<?xml version=\"1.0\"?>\n"
+                + "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+                + " xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\" entityID=\"" + ENTITY_ID + "\">\n"
+                + "  <md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">\n"
+                + "    <md:KeyDescriptor use=\"signing\"><ds:KeyInfo><ds:X509Data><ds:X509Certificate>"
+                + certificate + "</ds:X509Certificate></ds:X509Data></ds:KeyInfo></md:KeyDescriptor>\n"
+                + "    <md:SingleLogoutService Binding=\"" + SAML2_REDIRECT_BINDING_URI + "\" Location=\"" + SLO_URL
+                + "\"/>\n"
+                + "    <md:SingleLogoutService Binding=\"" + SAML2_POST_BINDING_URI + "\" Location=\"" + SLO_URL
+                + "\"/>\n"
+                + "    <md:NameIDFormat>urn:oasis:names:tc:SAML:2.0:nameid-format:transient</md:NameIDFormat>\n"
+                + "    <md:SingleSignOnService Binding=\"" + SAML2_REDIRECT_BINDING_URI + "\" Location=\"" + SSO_URL
+                + "\"/>\n"
+                + "    <md:SingleSignOnService Binding=\"" + SAML2_POST_BINDING_URI + "\" Location=\"" + SSO_URL
+                + "\"/>\n"
+                + "  </md:IDPSSODescriptor>\n"
+                + "</md:EntityDescriptor>\n";
+    }
+
+    /**
+     * @param destination URL the message is sent to.
+     * @param nameId NameID of the user.
+     * @param sessionIndex SessionIndex of the login.
+     * @return a signed LogoutRequest, in base64 for the HTTP-POST binding.
+     */
+    public String logoutRequest(String destination, String nameId, String sessionIndex) throws Exception {
+        LogoutRequest request = build(LogoutRequest.DEFAULT_ELEMENT_NAME);
+        request.setID("_" + UUID.randomUUID());
+        request.setIssueInstant(Instant.now());
+        request.setVersion(SAMLVersion.VERSION_20);
+        request.setDestination(destination);
+        request.setIssuer(issuer());
+        request.setNameID(nameId(nameId));
+        SessionIndex index = build(SessionIndex.DEFAULT_ELEMENT_NAME);
+        index.setValue(sessionIndex);
+        request.getSessionIndexes().add(index);
+        return encode(sign(request));
+    }
+
+    /**
+     * @param destination URL the message is sent to.
+     * @param statusCode second level status code, like {@link StatusCode#NO_PASSIVE}.
+     * @return a signed Response without assertion, in base64 for the HTTP-POST binding.
+     */
+    public String errorResponse(String destination, String statusCode) throws Exception {
+        Response response = response(destination);
+        Status status = build(Status.DEFAULT_ELEMENT_NAME);
+        StatusCode responder = build(StatusCode.DEFAULT_ELEMENT_NAME);
+        responder.setValue(StatusCode.RESPONDER);
+        StatusCode second = build(StatusCode.DEFAULT_ELEMENT_NAME);
+        second.setValue(statusCode);
+        responder.setStatusCode(second);
+        status.setStatusCode(responder);
+        response.setStatus(status);
+        return encode(sign(response));
+    }
+
+    /**
+     * @param destination URL the message is sent to, the Assertion Consumer Service.
+     * @param nameId NameID of the user.
+     * @param sessionIndex SessionIndex of the login.
+     * @param sessionNotOnOrAfter SessionNotOnOrAfter of the login, none if null.
+     * @param attributes attributes of the user.
+     * @return a signed Response with a signed assertion, in base64 for the HTTP-POST binding.
+     */
+    public String response(
+            String destination,
+            String nameId,
+            String sessionIndex,
+            Instant sessionNotOnOrAfter,
+            Map<String, List<String>> attributes)
+            throws Exception {
+        Instant now = Instant.now();
+        Assertion assertion = build(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("_" + UUID.randomUUID());
+        assertion.setIssueInstant(now);
+        assertion.setVersion(SAMLVersion.VERSION_20);
+        assertion.setIssuer(issuer());
+
+        Subject subject = build(Subject.DEFAULT_ELEMENT_NAME);
+        subject.setNameID(nameId(nameId));
+        SubjectConfirmation confirmation = build(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
+        confirmation.setMethod(SubjectConfirmation.METHOD_BEARER);
+        SubjectConfirmationData confirmationData = build(SubjectConfirmationData.DEFAULT_ELEMENT_NAME);
+        confirmationData.setRecipient(destination);
+        confirmationData.setNotOnOrAfter(now.plus(5, ChronoUnit.MINUTES));
+        confirmation.setSubjectConfirmationData(confirmationData);
+        subject.getSubjectConfirmations().add(confirmation);
+        assertion.setSubject(subject);
+
+        Conditions conditions = build(Conditions.DEFAULT_ELEMENT_NAME);
+        conditions.setNotBefore(now.minus(1, ChronoUnit.MINUTES));
+        conditions.setNotOnOrAfter(now.plus(5, ChronoUnit.MINUTES));
+        AudienceRestriction audienceRestriction = build(AudienceRestriction.DEFAULT_ELEMENT_NAME);
+        Audience audience = build(Audience.DEFAULT_ELEMENT_NAME);
+        audience.setURI(SP_ENTITY_ID);
+        audienceRestriction.getAudiences().add(audience);
+        conditions.getAudienceRestrictions().add(audienceRestriction);
+        assertion.setConditions(conditions);
+
+        AuthnStatement authnStatement = build(AuthnStatement.DEFAULT_ELEMENT_NAME);
+        authnStatement.setAuthnInstant(now);
+        authnStatement.setSessionIndex(sessionIndex);
+        authnStatement.setSessionNotOnOrAfter(sessionNotOnOrAfter);
+        AuthnContext authnContext = build(AuthnContext.DEFAULT_ELEMENT_NAME);
+        AuthnContextClassRef classRef = build(AuthnContextClassRef.DEFAULT_ELEMENT_NAME);
+        classRef.setURI(AuthnContext.PPT_AUTHN_CTX);
+        authnContext.setAuthnContextClassRef(classRef);
+        authnStatement.setAuthnContext(authnContext);
+        assertion.getAuthnStatements().add(authnStatement);
+
+        AttributeStatement attributeStatement = build(AttributeStatement.DEFAULT_ELEMENT_NAME);
+        attributes.forEach((name, values) -> {
+            Attribute attribute = build(Attribute.DEFAULT_ELEMENT_NAME);
+            attribute.setName(name);
+            for (String value : values) {
+                XSString attributeValue = XMLObjectProviderRegistrySupport.getBuilderFactory()
+                        .<XSString>ensureBuilder(XSString.TYPE_NAME)
+                        .buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+                attributeValue.setValue(value);
+                attribute.getAttributeValues().add(attributeValue);
+            }
+            attributeStatement.getAttributes().add(attribute);
+        });
+        assertion.getAttributeStatements().add(attributeStatement);
+
+        Response response = response(destination);
+        Status status = build(Status.DEFAULT_ELEMENT_NAME);
+        StatusCode success = build(StatusCode.DEFAULT_ELEMENT_NAME);
+        success.setValue(StatusCode.SUCCESS);
+        status.setStatusCode(success);
+        response.setStatus(status);
+        response.getAssertions().add(sign(assertion));
+        return encode(sign(response));
+    }
+
+    /**
+     * @param location Location of a redirection with the HTTP-Redirect binding.
+     * @return the XML of the SAMLRequest of the redirection.
+     */
+    public static String decodeRedirect(String location) throws IOException {
+        for (String parameter : location.substring(location.indexOf('?') + 1).split("&")) {
+            if (parameter.startsWith("SAMLRequest=")) {
+                String value = URLDecoder.decode(parameter.substring("SAMLRequest=".length()), StandardCharsets.UTF_8);
+                byte[] deflated = Base64.getDecoder().decode(value);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                try (InflaterOutputStream inflater = new InflaterOutputStream(out, new Inflater(true))) {
+                    inflater.write(deflated);
+                }
+                return out.toString(StandardCharsets.UTF_8);
+            }
+        }
+        throw new IllegalArgumentException("No SAMLRequest in " + location);
+    }
+
+    private Response response(String destination) {
+        Response response = build(Response.DEFAULT_ELEMENT_NAME);
+        response.setID("_" + UUID.randomUUID());
+        response.setIssueInstant(Instant.now());
+        response.setVersion(SAMLVersion.VERSION_20);
+        response.setDestination(destination);
+        response.setIssuer(issuer());
+        return response;
+    }
+
+    private Issuer issuer() {
+        Issuer issuer = build(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(ENTITY_ID);
+        return issuer;
+    }
+
+    private NameID nameId(String value) {
+        NameID nameId = build(NameID.DEFAULT_ELEMENT_NAME);
+        nameId.setFormat(NameID.TRANSIENT);
+        nameId.setValue(value);
+        return nameId;
+    }
+
+    private <T extends SignableSAMLObject> T sign(T object) throws Exception {
+        SignatureSigningParameters parameters = new SignatureSigningParameters();
+        parameters.setSigningCredential(credential);
+        parameters.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        parameters.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+        parameters.setSignatureCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        SignatureSupport.signObject(object, parameters);
+        return object;
+    }
+
+    private static String encode(XMLObject object) throws Exception {
+        String xml = SerializeSupport.nodeToString(XMLObjectSupport.marshall(object));
+        return Base64.getEncoder().encodeToString(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends XMLObject> T build(QName name) {
+        return (T) XMLObjectSupport.buildXMLObject(name);
+    }
+}
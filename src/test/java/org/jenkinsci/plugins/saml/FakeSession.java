@@ -0,0 +1,75 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import jakarta.servlet.http.HttpSession;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.mockito.Mockito;
+
+/**
+ * Mock of an HttpSession with its attributes in a map, to verify the calls of the tested code.
+ */
+public final class FakeSession {
+
+    private FakeSession() {}
+
+    /**
+     * @return a session with a 30 minutes timeout and no attribute.
+     */
+    public static HttpSession create() {
+        return create(new HashMap<>());
+    }
+
+    /**
+     * @param attributes attributes of the session, kept in sync with it.
+     * @return a session with a 30 minutes timeout.
+     */
+    public static HttpSession create(Map<String, Object> attributes) {
+        AtomicInteger maxInactiveInterval = new AtomicInteger(1800);
+        HttpSession session = Mockito.mock(HttpSession.class);
+        when(session.getId()).thenReturn(UUID.randomUUID().toString());
+        when(session.getMaxInactiveInterval()).thenAnswer(invocation -> maxInactiveInterval.get());
+        doAnswer(invocation -> {
+                    maxInactiveInterval.set(invocation.getArgument(0));
+                    return null;
+                })
+                .when(session)
+                .setMaxInactiveInterval(anyInt());
+        when(session.getAttributeNames())
+                .thenAnswer(invocation -> Collections.enumeration(List.copyOf(attributes.keySet())));
+        when(session.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.getArgument(0)));
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(session)
+                .setAttribute(anyString(), any());
+        doAnswer(invocation -> attributes.remove(invocation.<String>getArgument(0)))
+                .when(session)
+                .removeAttribute(anyString());
+        return session;
+    }
+}
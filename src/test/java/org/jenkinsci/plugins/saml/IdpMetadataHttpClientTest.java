@@ -0,0 +1,173 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+
+package org.jenkinsci.plugins.saml;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import hudson.ProxyConfiguration;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Download of the IdP Metadata over HTTP.
+ */
+@WithJenkins
+class IdpMetadataHttpClientTest {
+
+    private static final String METADATA = "<md:EntityDescriptor entityID=\"https://idp.example.com/saml\"/>";
+
+    private JenkinsRule jenkinsRule;
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void start(JenkinsRule jenkinsRule) throws IOException {
+        this.jenkinsRule = jenkinsRule;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        IdpMetadataHttpClient.shutdown();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+        IdpMetadataHttpClient.shutdown();
+    }
+
+    @Test
+    void gzipResponse() throws IOException {
+        server.createContext("/metadata", exchange -> {
+            requests.add(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+            ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(gzip)) {
+                out.write(METADATA.getBytes(StandardCharsets.UTF_8));
+            }
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            respond(exchange, 200, gzip.toByteArray());
+        });
+
+        assertEquals(METADATA, download(url("/metadata")));
+        assertThat(requests.get(0), containsString("gzip"));
+    }
+
+    @Test
+    void errorStatus() {
+        server.createContext("/metadata", exchange -> respond(exchange, 404, new byte[0]));
+
+        IOException e = assertThrows(IOException.class, () -> download(url("/metadata")));
+        assertThat(e.getMessage(), containsString("404"));
+    }
+
+    @Test
+    void readTimeout() {
+        server.createContext("/metadata", exchange -> {
+            try {
+                Thread.sleep(5000);
+                respond(exchange, 200, METADATA.getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        int readTimeout = IdpMetadataHttpClient.readTimeout;
+        IdpMetadataHttpClient.readTimeout = 500;
+        try {
+            assertThrows(SocketTimeoutException.class, () -> download(url("/metadata")));
+        } finally {
+            IdpMetadataHttpClient.readTimeout = readTimeout;
+        }
+    }
+
+    @Test
+    void jenkinsProxyWithCredentials() throws IOException {
+        server.createContext("/", exchange -> {
+            String authorization = exchange.getRequestHeaders().getFirst("Proxy-Authorization");
+            requests.add(exchange.getRequestURI() + " " + authorization);
+            if (authorization == null) {
+                exchange.getResponseHeaders().add("Proxy-Authenticate", "Basic realm=\"proxy\"");
+                respond(exchange, 407, new byte[0]);
+            } else {
+                respond(exchange, 200, METADATA.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        jenkinsRule.jenkins.proxy = new ProxyConfiguration(
+                "127.0.0.1", server.getAddress().getPort(), "jenkins", "secret", "*.internal.example.com");
+
+        assertEquals(METADATA, download("http://idp.example.com/metadata"));
+        String credentials = Base64.getEncoder().encodeToString("jenkins:secret".getBytes(StandardCharsets.UTF_8));
+        assertEquals(
+                List.of(
+                        "http://idp.example.com/metadata null",
+                        "http://idp.example.com/metadata Basic " + credentials),
+                requests);
+    }
+
+    @Test
+    void noProxyHost() throws IOException {
+        server.createContext("/metadata", exchange -> {
+            requests.add(exchange.getRequestHeaders().getFirst("Proxy-Authorization"));
+            respond(exchange, 200, METADATA.getBytes(StandardCharsets.UTF_8));
+        });
+        // the proxy does not exist, the IdP is in the "No Proxy Host" list
+        jenkinsRule.jenkins.proxy = new ProxyConfiguration("127.0.0.1", 1, "jenkins", "secret", "127.0.0.1");
+
+        assertEquals(METADATA, download(url("/metadata")));
+        assertEquals(1, requests.size());
+        assertNull(requests.get(0));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static String download(String url) throws IOException {
+        return IdpMetadataHttpClient.get(url, in -> IOUtils.toString(in, StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * IdP entity from a Metadata Query Protocol server.
+ */
+@WithJenkins
+class IdpMetadataMdqTest {
+
+    private static final String ENTITY_ID = "http://192.168.99.100:8080/simplesaml/saml2/idp/metadata.php";
+    private static final String OTHER_ENTITY_ID = "https://other.example.com/idp";
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+    private String baseUrl;
+    private final List<String> ifNoneMatch = new ArrayList<>();
+
+    @BeforeEach
+    void start(JenkinsRule jenkinsRule) throws Exception {
+        byte[] metadata;
+        try (InputStream in = getClass().getResourceAsStream("OpenSamlWrapperTest/metadataWrapper/metadata.xml")) {
+            metadata = IOUtils.toByteArray(in);
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/mdq/entities/{sha1}" + sha1(ENTITY_ID), exchange -> {
+            String etag = exchange.getRequestHeaders().getFirst("If-None-Match");
+            ifNoneMatch.add(etag);
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            if (ETAG.equals(etag)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                send(exchange, metadata);
+            }
+            exchange.close();
+        });
+        // a valid entity descriptor, but not the one requested
+        server.createContext("/mdq/entities/{sha1}" + sha1(OTHER_ENTITY_ID), exchange -> {
+            send(exchange, metadata);
+            exchange.close();
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort() + "/mdq/";
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    void revalidateWithConditionalRequest() throws Exception {
+        String first = IdpMetadataMdq.fetch(baseUrl, ENTITY_ID);
+        String second = IdpMetadataMdq.fetch(baseUrl, ENTITY_ID);
+
+        assertEquals(first, second);
+        assertEquals(2, ifNoneMatch.size());
+        assertNull(ifNoneMatch.get(0));
+        assertEquals(ETAG, ifNoneMatch.get(1));
+    }
+
+    @Test
+    void wrongEntityIsRejected() {
+        IllegalArgumentException e =
+                assertThrows(IllegalArgumentException.class, () -> IdpMetadataMdq.fetch(baseUrl, OTHER_ENTITY_ID));
+        assertThat(
+                e.getMessage(), containsString("returned the entity " + ENTITY_ID + " instead of " + OTHER_ENTITY_ID));
+    }
+
+    private static String sha1(String entityId) {
+        return DigestUtils.sha1Hex(entityId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, byte[] metadata) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/samlmetadata+xml");
+        exchange.sendResponseHeaders(200, metadata.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(metadata);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+
+package org.jenkinsci.plugins.saml;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * When the IdP Metadata is downloaded again.
+ */
+class IdpMetadataRefreshScheduleTest {
+
+    private static final String NO_HINTS = "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+            + " entityID=\"https://idp.example.com/saml\"/>";
+
+    private final IdpMetadataRefreshSchedule schedule = new IdpMetadataRefreshSchedule();
+
+    @Test
+    void configuredPeriodIsClamped() {
+        assertNull(schedule.getDescription());
+
+        long before = System.currentTimeMillis();
+        schedule.onSuccess(NO_HINTS, 1000);
+        assertNextRefresh(before, IdpMetadataRefreshSchedule.MIN_DELAY, IdpMetadataRefreshSchedule.MIN_DELAY);
+
+        before = System.currentTimeMillis();
+        schedule.onSuccess(NO_HINTS, TimeUnit.DAYS.toMillis(10));
+        assertNextRefresh(before, IdpMetadataRefreshSchedule.MAX_DELAY, IdpMetadataRefreshSchedule.MAX_DELAY);
+
+        before = System.currentTimeMillis();
+        schedule.onSuccess(NO_HINTS, TimeUnit.HOURS.toMillis(2));
+        assertNextRefresh(before, TimeUnit.HOURS.toMillis(2), TimeUnit.HOURS.toMillis(2));
+        assertEquals(0, schedule.getFailures());
+    }
+
+    @Test
+    void halfTheTimeUntilValidUntil() {
+        Instant validUntil = Instant.now().truncatedTo(ChronoUnit.SECONDS).plus(4, ChronoUnit.HOURS);
+        long before = System.currentTimeMillis();
+        schedule.onSuccess(metadata("validUntil=\"" + validUntil + "\""), TimeUnit.DAYS.toMillis(1));
+        long after = System.currentTimeMillis();
+
+        assertEquals(validUntil.toEpochMilli(), schedule.getValidUntil());
+        assertThat(
+                schedule.getNextRefresh(),
+                allOf(
+                        greaterThanOrEqualTo((before + validUntil.toEpochMilli()) / 2),
+                        lessThanOrEqualTo((after + validUntil.toEpochMilli()) / 2)));
+        assertEquals(
+                "Next download at " + IdpMetadataRefreshSchedule.format(schedule.getNextRefresh())
+                        + ", following the validUntil/cacheDuration of the IdP Metadata",
+                schedule.getDescription());
+    }
+
+    @Test
+    void cacheDuration() {
+        long before = System.currentTimeMillis();
+        schedule.onSuccess(metadata("cacheDuration=\"PT30M\""), TimeUnit.DAYS.toMillis(1));
+        assertEquals(TimeUnit.MINUTES.toMillis(30), schedule.getCacheDuration());
+        assertNextRefresh(before, TimeUnit.MINUTES.toMillis(30), TimeUnit.MINUTES.toMillis(30));
+
+        // the period is still the limit
+        before = System.currentTimeMillis();
+        schedule.onSuccess(metadata("cacheDuration=\"PT30M\""), TimeUnit.MINUTES.toMillis(10));
+        assertNextRefresh(before, TimeUnit.MINUTES.toMillis(10), TimeUnit.MINUTES.toMillis(10));
+    }
+
+    @Test
+    void backoffWithJitter() {
+        for (int failures = 1; failures <= 6; failures++) {
+            long before = System.currentTimeMillis();
+            schedule.onFailure(TimeUnit.MINUTES.toMillis(20));
+            long backoff =
+                    Math.min(IdpMetadataRefreshSchedule.MIN_DELAY << (failures - 1), TimeUnit.MINUTES.toMillis(20));
+            assertEquals(failures, schedule.getFailures());
+            assertNextRefresh(
+                    before,
+                    Math.max(IdpMetadataRefreshSchedule.MIN_DELAY, (long) (backoff * 0.8)),
+                    (long) (backoff * 1.2));
+        }
+        assertEquals(
+                "Next download at " + IdpMetadataRefreshSchedule.format(schedule.getNextRefresh())
+                        + ", after 6 failed downloads",
+                schedule.getDescription());
+
+        schedule.onSuccess(NO_HINTS, TimeUnit.HOURS.toMillis(1));
+        assertEquals(0, schedule.getFailures());
+    }
+
+    @Test
+    void isoDates() {
+        assertEquals("2024-05-01T10:15:30Z", IdpMetadataRefreshSchedule.format(1714558530999L));
+    }
+
+    private void assertNextRefresh(long before, long minDelay, long maxDelay) {
+        long after = System.currentTimeMillis();
+        assertThat(
+                schedule.getNextRefresh(),
+                allOf(greaterThanOrEqualTo(before + minDelay), lessThanOrEqualTo(after + maxDelay)));
+    }
+
+    private static String metadata(String hints) {
+        return "<?xml version=\"1.0\"?>\n<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+                + " entityID=\"https://idp.example.com/saml\" " + hints + "/>";
+    }
+}
@@ -0,0 +1,93 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+
+package org.jenkinsci.plugins.saml;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import hudson.ExtensionList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Download of the IdP Metadata when the configuration is saved, the save does not wait for it.
+ */
+@WithJenkins
+class IdpMetadataRefresherTest {
+
+    private static final String UNREACHABLE_URL = "http://127.0.0.1:1/metadata";
+
+    @Test
+    void malformedUrlFailsOnSave(JenkinsRule jenkinsRule) {
+        IOException e = assertThrows(IOException.class, () -> realm("not a url"));
+        assertNotNull(e.getCause());
+        assertThat(e.getCause().getMessage(), containsString(SamlSecurityRealm.ERROR_MALFORMED_URL));
+    }
+
+    @Test
+    void unreachableUrlIsReportedWithoutFailingTheSave(JenkinsRule jenkinsRule) throws IOException {
+        IdpMetadataDownloadMonitor monitor = ExtensionList.lookupSingleton(IdpMetadataDownloadMonitor.class);
+        jenkinsRule.jenkins.setSecurityRealm(realm(UNREACHABLE_URL));
+        IdpMetadataRefresher.awaitIfMissing();
+        assertTrue(monitor.isActivated());
+        assertNotNull(monitor.getFailure());
+    }
+
+    @Test
+    void unreachableUrlIsRetriedInTheBackgroundWithIdpMetadata(JenkinsRule jenkinsRule) throws Exception {
+        String metadata;
+        try (InputStream in = getClass().getResourceAsStream("OpenSamlWrapperTest/metadataWrapper/metadata.xml")) {
+            metadata = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+        Files.writeString(Paths.get(SamlSecurityRealm.getIDPMetadataFilePath()), metadata);
+
+        // the IdP Metadata downloaded before is kept until the download works
+        jenkinsRule.jenkins.setSecurityRealm(realm(UNREACHABLE_URL));
+        assertEquals(metadata, Files.readString(Paths.get(SamlSecurityRealm.getIDPMetadataFilePath())));
+    }
+
+    private static SamlSecurityRealm realm(String url) throws IOException {
+        return new SamlSecurityRealm(
+                new IdpMetadataConfiguration(url, 0L),
+                "displayName",
+                "groups",
+                86400,
+                "uid",
+                "email",
+                null,
+                null,
+                null,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                Collections.emptyList());
+    }
+}
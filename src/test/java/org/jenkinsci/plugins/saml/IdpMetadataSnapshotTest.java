@@ -0,0 +1,112 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.pac4j.saml.metadata.SAML2MetadataResolver;
+
+/**
+ * Logins with the IdP Metadata snapshot after a restart.
+ */
+@WithJenkins
+class IdpMetadataSnapshotTest {
+
+    private static final String ENTITY_ID = "http://192.168.99.100:8080/simplesaml/saml2/idp/metadata.php";
+
+    private SamlSecurityRealm realm;
+
+    @BeforeEach
+    void start(JenkinsRule jenkinsRule) throws Exception {
+        String metadata;
+        try (InputStream in = getClass().getResourceAsStream("OpenSamlWrapperTest/metadataWrapper/metadata.xml")) {
+            metadata = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+        realm = new SamlSecurityRealm(
+                new IdpMetadataConfiguration(metadata),
+                "displayName",
+                "groups",
+                86400,
+                "uid",
+                "email",
+                null,
+                null,
+                null,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                Collections.emptyList());
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+        IdpMetadataSnapshot.save();
+    }
+
+    @Test
+    void loginBeforeValidationUsesTheSnapshot() {
+        IdpMetadataSnapshot.resetValidation();
+        SAML2MetadataResolver first = loginResolver();
+        IdpMetadataSnapshot.resetValidation();
+        SAML2MetadataResolver second = loginResolver();
+
+        // the IdP Metadata file is not parsed, the entity is built once from the snapshot
+        assertThat(first, instanceOf(IdpMetadataSnapshot.SnapshotMetadataResolver.class));
+        assertSame(first, second);
+        assertEquals(ENTITY_ID, first.getEntityId());
+    }
+
+    @Test
+    void snapshotOfAnotherFileIsNotUsed() throws Exception {
+        assertEquals(ENTITY_ID, IdpMetadataSnapshot.getResolver().getEntityId());
+
+        Files.writeString(
+                Paths.get(SamlSecurityRealm.getIDPMetadataFilePath()),
+                System.lineSeparator(),
+                StandardOpenOption.APPEND);
+        assertNull(IdpMetadataSnapshot.getResolver());
+    }
+
+    /**
+     * @return the IdP Metadata resolver of the SAML client of a login.
+     */
+    private SAML2MetadataResolver loginResolver() {
+        return new OpenSAMLWrapper<SAML2MetadataResolver>() {
+            {
+                samlPluginConfig = realm.getSamlPluginConfig();
+            }
+
+            @Override
+            protected SAML2MetadataResolver process() {
+                return createSAML2Client().getConfiguration().getIdentityProviderMetadataResolver();
+            }
+        }.get();
+    }
+}
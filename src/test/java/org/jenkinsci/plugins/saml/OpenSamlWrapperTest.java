@@ -19,6 +19,13 @@ package org.jenkinsci.plugins.saml;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.when;
 import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
 
@@ -28,8 +35,11 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Objects;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
@@ -129,4 +139,120 @@ class OpenSamlWrapperTest {
         assertThat(result, containsString("<md:SPSSODescriptor"));
         assertThat(result, containsString("<ds:X509Certificate>"));
     }
+
+    @Test
+    void idpMetadataSnapshot(JenkinsRule jenkinsRule) throws IOException {
+        String metadata = IOUtils.toString(
+                Objects.requireNonNull(this.getClass()
+                        .getClassLoader()
+                        .getResourceAsStream("org/jenkinsci" + "/plugins/saml"
+                                + "/OpenSamlWrapperTest/metadataWrapper/metadata.xml")),
+                StandardCharsets.UTF_8);
+        jenkinsRule.jenkins.setSecurityRealm(new SamlSecurityRealm(
+                new IdpMetadataConfiguration(metadata),
+                "displayName",
+                "groups",
+                10000,
+                "uid",
+                "email",
+                "/logout",
+                null,
+                null,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                java.util.Collections.emptyList()));
+        IdpMetadataSnapshot.save();
+        IdpMetadataSnapshot snapshot = IdpMetadataSnapshot.load();
+        assertNotNull(snapshot);
+        assertEquals("http://192.168.99.100:8080/simplesaml/saml2/idp/metadata.php", snapshot.getEntityId());
+        String entity = new OpenSAMLWrapper<String>() {
+            @Override
+            protected String process() {
+                return snapshot.toResolver().getMetadata();
+            }
+        }.get();
+        assertThat(entity, containsString("SingleSignOnService"));
+        assertThat(entity, containsString("X509Certificate"));
+
+        Files.writeString(Paths.get(SamlSecurityRealm.getIDPMetadataFilePath()), metadata + "<!-- changed -->");
+        assertNull(IdpMetadataSnapshot.load());
+    }
+
+    @Test
+    void bundledKeyStoreRotation(JenkinsRule jenkinsRule) throws IOException, ServletException {
+        String metadata = IOUtils.toString(
+                Objects.requireNonNull(this.getClass()
+                        .getClassLoader()
+                        .getResourceAsStream("org/jenkinsci" + "/plugins/saml"
+                                + "/OpenSamlWrapperTest/metadataWrapper/metadata.xml")),
+                StandardCharsets.UTF_8);
+        SamlSecurityRealm samlSecurity = new SamlSecurityRealm(
+                new IdpMetadataConfiguration(metadata),
+                "displayName",
+                "groups",
+                10000,
+                "uid",
+                "email",
+                "/logout",
+                null,
+                null,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                java.util.Collections.emptyList());
+        jenkinsRule.jenkins.setSecurityRealm(samlSecurity);
+        BundleKeyStoreHolder.get().maintain();
+        int certificates = StringUtils.countMatches(spMetadata(samlSecurity), "<ds:X509Certificate>");
+
+        BundleKeyStore ks = BundleKeyStoreHolder.get().getKeyStore();
+        long overlapDays = BundleKeyStore.overlapDays;
+        BundleKeyStore.overlapDays = 100000;
+        try {
+            assertTrue(ks.isRotationDue());
+            ks.rotate();
+        } finally {
+            BundleKeyStore.overlapDays = overlapDays;
+        }
+        assertNotNull(ks.getSuccessorAlias());
+        assertFalse(ks.promote(), "the current key has not expired");
+        assertEquals(
+                certificates + 2, StringUtils.countMatches(spMetadata(samlSecurity), "<ds:X509Certificate>"));
+
+        SamlSPMetadataWrapper wrapper = new SamlSPMetadataWrapper(samlSecurity.getSamlPluginConfig(), null, null);
+        SamlKeyRing keyRing = wrapper.loadKeyRing(ks);
+        assertNotNull(keyRing);
+        assertSame(keyRing, wrapper.loadKeyRing(ks), "the key store is not read again");
+    }
+
+    @Test
+    void bundledKeyStoreExpiredWithoutSuccessor(JenkinsRule jenkinsRule) {
+        BundleKeyStore ks = BundleKeyStoreHolder.get().getKeyStore();
+        System.setProperty(BundleKeyStore.KEY_VALIDITY_PROPERTY, "0");
+        try {
+            ks.init();
+        } finally {
+            System.clearProperty(BundleKeyStore.KEY_VALIDITY_PROPERTY);
+        }
+        assertTrue(ks.isExpired());
+        assertNull(ks.getSuccessorAlias());
+        String expired = ks.getKsPkAlias();
+
+        assertSame(ks, BundleKeyStoreHolder.get().getKeyStore());
+        assertNull(ks.getSuccessorAlias(), "the login does not generate keys");
+        assertEquals(expired, ks.getKsPkAlias());
+
+        BundleKeyStoreHolder.get().maintain();
+        assertNotEquals(expired, ks.getKsPkAlias(), "the expired key is replaced at once");
+        assertFalse(ks.isExpired());
+        assertNull(ks.getSuccessorAlias());
+        assertTrue(ks.hasKey());
+    }
+
+    private static String spMetadata(SamlSecurityRealm samlSecurity) throws IOException, ServletException {
+        HttpResponse process = new SamlSPMetadataWrapper(samlSecurity.getSamlPluginConfig(), null, null).get();
+        StaplerResponse2 mockResponse = Mockito.mock(StaplerResponse2.class);
+        StringWriter stringWriter = new StringWriter();
+        when(mockResponse.getWriter()).thenReturn(new PrintWriter(stringWriter));
+        process.generateResponse(null, mockResponse, null);
+        return stringWriter.toString();
+    }
 }
@@ -0,0 +1,124 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import hudson.util.FormValidation;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.pac4j.saml.profile.SAML2Profile;
+
+/**
+ * Extraction of the user attributes.
+ */
+class SamlAttributePlanTest {
+
+    @Test
+    void attributeNames() {
+        SAML2Profile profile = profile();
+        SamlAttributePlan plan =
+                SamlAttributePlan.compile(1, null, "uid", "mail", "displayName", "uppercase", List.of());
+
+        SamlAttributePlan.Values values = plan.extract(SamlLoginProfile.of(profile, null));
+        assertEquals("TESLA", values.username());
+        assertEquals("tesla@example.com", values.email());
+        assertNull(values.displayName());
+    }
+
+    @Test
+    void expressions() {
+        SAML2Profile profile = profile();
+        SamlAttributePlan plan = SamlAttributePlan.compile(
+                1,
+                new SamlAttributeMapping(
+                        "employeeId || mail ~ ([^@]+)@.*", "mail", "displayName || ${givenName} ${sn}"),
+                "uid",
+                null,
+                null,
+                "none",
+                List.of());
+
+        SamlAttributePlan.Values values = plan.extract(SamlLoginProfile.of(profile, null));
+        assertEquals("tesla", values.username());
+        assertEquals("tesla@example.com", values.email());
+        assertEquals("Nikola Tesla", values.displayName());
+    }
+
+    @Test
+    void onlyMappedAttributesAreKept() {
+        SamlAttributePlan plan =
+                SamlAttributePlan.compile(1, null, "uid", "mail", null, "none", List.of("groups", "givenName"));
+        SamlLoginProfile profile = SamlLoginProfile.of(profile(), plan.getProfileAttributes());
+
+        assertEquals(Set.of("uid", "mail", "givenName"), profile.attributes().keySet());
+        assertEquals("NameId", profile.id());
+        assertEquals(List.of("", "tesla@example.com"), profile.getAttribute("mail"));
+        assertEquals("tesla", plan.extract(profile).username());
+    }
+
+    @Test
+    void allAttributesAreCopied() {
+        SAML2Profile pac4jProfile = profile();
+        SamlLoginProfile profile = SamlLoginProfile.of(pac4jProfile, null);
+        pac4jProfile.addAttribute("employeeId", "1856");
+        pac4jProfile.removeAttribute("uid");
+
+        assertEquals(Set.of("uid", "mail", "givenName", "sn"), profile.attributes().keySet());
+        assertEquals("tesla", profile.getAttribute("uid"));
+    }
+
+    @Test
+    void nameIdFallback() {
+        SAML2Profile profile = profile();
+        SamlAttributePlan plan = SamlAttributePlan.compile(
+                1, new SamlAttributeMapping("employeeId", null, null), null, null, null, "lowercase", List.of());
+
+        assertEquals("nameid", plan.extract(SamlLoginProfile.of(profile, null)).username());
+    }
+
+    @Test
+    void invalidExpression() {
+        SAML2Profile profile = profile();
+        SamlAttributePlan plan = SamlAttributePlan.compile(
+                1,
+                new SamlAttributeMapping("${givenName", "mail ~ ([^@]+", null),
+                "uid",
+                "mail",
+                null,
+                null,
+                List.of());
+
+        SamlAttributePlan.Values values = plan.extract(SamlLoginProfile.of(profile, null));
+        assertEquals("tesla", values.username());
+        assertEquals("tesla@example.com", values.email());
+        assertEquals(FormValidation.Kind.ERROR, SamlAttributePlan.checkExpression("${givenName").kind);
+    }
+
+    private static SAML2Profile profile() {
+        SAML2Profile profile = new SAML2Profile();
+        profile.setId("NameId");
+        profile.addAttribute("uid", "tesla");
+        profile.addAttribute("mail", List.of("", "tesla@example.com"));
+        profile.addAttribute("givenName", "Nikola");
+        profile.addAttribute("sn", "Tesla");
+        return profile;
+    }
+}
@@ -3,13 +3,18 @@ package org.jenkinsci.plugins.saml;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
 
 import hudson.security.SecurityRealm;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -62,6 +67,131 @@ class SamlFileResourceTest {
         assertNotEquals(timestamp, obj2.lastModified());
     }
 
+    @Test
+    @LocalData("configuration")
+    void testSamlFileResourceDiskWritesOnlyChanges() throws InterruptedException, IOException {
+        File tempFile = File.createTempFile("testSamlFileResourceDisk.txt", null, tempFolder);
+        SamlFileResource obj = new SamlFileResource(tempFile.getAbsolutePath(), "data");
+        long timestamp = obj.lastModified();
+
+        Thread.sleep(1000);
+        SamlFileResource obj1 = new SamlFileResource(tempFile.getAbsolutePath(), "data");
+        assertEquals(timestamp, obj1.lastModified());
+
+        try (OutputStream out = obj1.getOutputStream()) {
+            IOUtils.write("data", out, UTF_8);
+        }
+        assertEquals(timestamp, obj1.lastModified());
+
+        SamlFileResource obj2 = new SamlFileResource(tempFile.getAbsolutePath(), "data1");
+        assertNotEquals(timestamp, obj2.lastModified());
+        assertEquals("data1", FileUtils.readFileToString(tempFile, UTF_8));
+        assertArrayEquals(new String[] {tempFile.getName()}, tempFolder.list());
+    }
+
+    @Test
+    @LocalData("configuration")
+    void testSamlFileResourceMemory() throws IOException {
+        samlSecurityRealm.getAdvancedConfiguration().setUseMemoryCache(true);
+        samlSecurityRealm.getAdvancedConfiguration().setPersistMemoryCache(false);
+        File tempFile = new File(tempFolder, "testSamlFileResourceMemory.txt");
+        SamlFileResource obj = new SamlFileResource(tempFile.getAbsolutePath(), "data");
+        assertTrue(obj.exists());
+        assertEquals(4, obj.contentLength());
+
+        try (OutputStream out = new SamlFileResource(tempFile.getAbsolutePath()).getOutputStream()) {
+            IOUtils.write("data1", out, UTF_8);
+        }
+        assertEquals("data1", IOUtils.toString(obj.getInputStream(), UTF_8));
+        assertFalse(tempFile.exists());
+    }
+
+    @Test
+    @LocalData("configuration")
+    void testSamlFileResourceMemoryReadOnlyDirectory() throws IOException {
+        samlSecurityRealm.getAdvancedConfiguration().setUseMemoryCache(true);
+        samlSecurityRealm.getAdvancedConfiguration().setPersistMemoryCache(true);
+        File readOnly = new File(tempFolder, "readOnly");
+        assertTrue(readOnly.mkdir());
+        assertTrue(readOnly.setWritable(false));
+        try {
+            assumeFalse(Files.isWritable(readOnly.toPath()), "the user can write to read-only directories");
+            String fileName = new File(readOnly, "saml-idp-metadata.xml").getAbsolutePath();
+
+            assertTrue(SamlFileResource.write(fileName, "data"));
+            assertFalse(SamlFileResource.write(fileName, "data"));
+            assertEquals("data", new String(SamlFileResource.read(fileName), UTF_8));
+
+            try (OutputStream out = new SamlFileResource(fileName).getOutputStream()) {
+                IOUtils.write("data1", out, UTF_8);
+            }
+            assertEquals("data1", new String(SamlFileResource.read(fileName), UTF_8));
+            assertFalse(new File(fileName).exists());
+        } finally {
+            readOnly.setWritable(true);
+        }
+    }
+
+    @Test
+    @LocalData("configuration")
+    void testSamlFileResourceMemoryGetsTheFilesWrittenToDisk() throws IOException {
+        File tempFile = new File(tempFolder, "testSamlFileResourceMemoryDisk.txt");
+        assertTrue(SamlFileResource.write(tempFile.getAbsolutePath(), "data"));
+        assertTrue(tempFile.delete());
+
+        samlSecurityRealm.getAdvancedConfiguration().setUseMemoryCache(true);
+        samlSecurityRealm.getAdvancedConfiguration().setPersistMemoryCache(false);
+        SamlFileResource obj = new SamlFileResource(tempFile.getAbsolutePath());
+        assertEquals("data", IOUtils.toString(obj.getInputStream(), UTF_8));
+    }
+
+    @Test
+    @LocalData("configuration")
+    void testSamlFileResourceMemoryPersistsAfterRestart() throws IOException, InterruptedException {
+        samlSecurityRealm.getAdvancedConfiguration().setUseMemoryCache(true);
+        samlSecurityRealm.getAdvancedConfiguration().setPersistMemoryCache(true);
+        File first = new File(tempFolder, "first.txt");
+        File stopping = new File(tempFolder, "stopping.txt");
+        File restarted = new File(tempFolder, "restarted.txt");
+        try {
+            assertTrue(SamlFileResource.write(first.getAbsolutePath(), "data"));
+            SamlFileResourceMemory.flush();
+            assertEquals("data", FileUtils.readFileToString(first, UTF_8));
+
+            assertTrue(SamlFileResource.write(stopping.getAbsolutePath(), "data"));
+            assertEquals("data", FileUtils.readFileToString(stopping, UTF_8), "it is saved at once while stopping");
+        } finally {
+            SamlFileResourceMemory.start();
+        }
+        assertTrue(SamlFileResource.write(restarted.getAbsolutePath(), "data"));
+        SamlFileResourceMemory.flush();
+        SamlFileResourceMemory.start();
+        assertEquals("data", FileUtils.readFileToString(restarted, UTF_8));
+    }
+
+    @Test
+    @LocalData("configuration")
+    void testFileStampIsOnlyReadAgainAfterWritesInMemory() throws IOException {
+        File file = new File(tempFolder, "keystore.jks");
+        FileUtils.write(file, "data", UTF_8);
+        String stamp = SamlFileResource.getFileStamp(file.toPath());
+        FileUtils.write(file, "data1", UTF_8);
+        assertNotEquals(stamp, SamlFileResource.getFileStamp(file.toPath()));
+
+        samlSecurityRealm.getAdvancedConfiguration().setUseMemoryCache(true);
+        stamp = SamlFileResource.getFileStamp(file.toPath());
+        FileUtils.write(file, "data22", UTF_8);
+        assertEquals(stamp, SamlFileResource.getFileStamp(file.toPath()), "the login does not check the file");
+
+        SamlFileResourceMemory.touched(file.toPath());
+        String touched = SamlFileResource.getFileStamp(file.toPath());
+        assertNotEquals(stamp, touched);
+
+        FileUtils.write(file, "data333", UTF_8);
+        SamlFileResourceMemory.forgetFileStamps();
+        assertNotEquals(touched, SamlFileResource.getFileStamp(file.toPath()));
+    }
+
     @Test
     @LocalData("configuration")
     void testGetInputStream() throws IOException {
@@ -0,0 +1,158 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.keyinfo.KeyInfoSupport;
+import org.opensaml.xmlsec.signature.KeyInfo;
+
+/**
+ * SP keys used to roll over the SP key.
+ */
+class SamlKeyRingTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private static KeyStore keyStore;
+
+    @BeforeAll
+    static void keyStore() throws Exception {
+        Thread thread = Thread.currentThread();
+        ClassLoader loader = thread.getContextClassLoader();
+        thread.setContextClassLoader(InitializationService.class.getClassLoader());
+        try {
+            InitializationService.initialize();
+        } finally {
+            thread.setContextClassLoader(loader);
+        }
+        keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, PASSWORD);
+        for (String alias : List.of("active", "old", "next")) {
+            addKey(alias);
+        }
+    }
+
+    @Test
+    void aliasesAreOnePerLineWithoutDuplicates() {
+        SamlEncryptionData encryptionData =
+                new SamlEncryptionData("/var/lib/jenkins/saml.jks", null, null, "Active", false, false);
+        encryptionData.setRolloverKeyAliases("active\nOLD\r\n  old \n\nnext\nkey,with,commas");
+
+        assertEquals(List.of("Active", "OLD", "next", "key,with,commas"), encryptionData.getPrivateKeyAliases());
+    }
+
+    @Test
+    void lookupByCertificateAndKeyName() throws Exception {
+        SamlKeyRing keyRing = SamlKeyRing.of(keyStore, List.of("Active", "OLD", "next"), PASSWORD);
+        assertEquals(3, keyRing.getCredentials().size());
+        assertEquals(certificate("active"), keyRing.getActive().getEntityCertificate());
+
+        KeyInfo byCertificate = keyInfo();
+        KeyInfoSupport.addCertificate(byCertificate, certificate("next"));
+        assertEquals(certificate("next"), single(keyRing, byCertificate));
+
+        KeyInfo byKeyName = keyInfo();
+        KeyInfoSupport.addKeyName(byKeyName, "old");
+        assertEquals(certificate("old"), single(keyRing, byKeyName));
+
+        KeyInfo unknown = keyInfo();
+        KeyInfoSupport.addKeyName(unknown, "unknown");
+        assertSame(keyRing.getCredentials(), keyRing.lookup(unknown));
+        assertSame(keyRing.getCredentials(), keyRing.lookup(null));
+    }
+
+    @Test
+    void rolloverKeyDescriptors() throws Exception {
+        SamlKeyRing keyRing = SamlKeyRing.of(keyStore, List.of("active", "next"), PASSWORD);
+        String metadata = "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\""
+                + " entityID=\"https://jenkins.example.com/saml\">"
+                + "<md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">"
+                + "<md:Extensions/><md:KeyDescriptor use=\"signing\"/>"
+                + "<md:AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\""
+                + " Location=\"https://jenkins.example.com/securityRealm/finishLogin\" index=\"0\"/>"
+                + "</md:SPSSODescriptor></md:EntityDescriptor>";
+
+        String ret = keyRing.addRolloverKeyDescriptors(metadata);
+        assertEquals(2, StringUtils.countMatches(ret, "<md:KeyDescriptor"));
+        assertEquals(1, StringUtils.countMatches(ret, "use=\"encryption\""));
+        assertTrue(ret.indexOf("use=\"encryption\"") > ret.indexOf("use=\"signing\""));
+        assertTrue(ret.indexOf("use=\"encryption\"") < ret.indexOf("AssertionConsumerService"));
+        assertTrue(ret.contains(Base64.getEncoder().encodeToString(certificate("next").getEncoded())));
+
+        assertEquals(metadata, SamlKeyRing.of(keyStore, List.of("active"), PASSWORD)
+                .addRolloverKeyDescriptors(metadata));
+    }
+
+    private static X509Certificate single(SamlKeyRing keyRing, KeyInfo keyInfo) {
+        List<? extends Credential> ret = keyRing.lookup(keyInfo);
+        assertEquals(1, ret.size());
+        return ((BasicX509Credential) ret.get(0)).getEntityCertificate();
+    }
+
+    private static KeyInfo keyInfo() {
+        return (KeyInfo) XMLObjectSupport.buildXMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+    }
+
+    private static X509Certificate certificate(String alias) throws Exception {
+        return (X509Certificate) keyStore.getCertificate(alias);
+    }
+
+    private static void addKey(String alias) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        X500Name name = new X500Name("cn=" + alias);
+        Instant now = Instant.now();
+        X509Certificate certificate = new JcaX509CertificateConverter()
+                .getCertificate(new JcaX509v3CertificateBuilder(
+                                name,
+                                BigInteger.valueOf(now.toEpochMilli()),
+                                Date.from(now.minus(1, ChronoUnit.DAYS)),
+                                Date.from(now.plus(365, ChronoUnit.DAYS)),
+                                name,
+                                keyPair.getPublic())
+                        .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+        keyStore.setKeyEntry(alias, keyPair.getPrivate(), PASSWORD, new Certificate[] {certificate});
+    }
+}
@@ -0,0 +1,122 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Login activity store.
+ */
+class SamlLoginActivityTest {
+
+    @TempDir
+    File rootDir;
+
+    @Test
+    void loginsAreAggregatedAndReadBack() {
+        SamlLoginActivity activity = new SamlLoginActivity(rootDir);
+        activity.record("alice", 1000);
+        activity.record("bob", 2000);
+        activity.record("alice", 3000);
+        activity.close();
+        File records = new File(rootDir, SamlLoginActivity.RECORDS_FILE_NAME);
+        assertEquals(3 * SamlLoginActivity.RECORD_SIZE, records.length());
+
+        SamlLoginActivity reloaded = new SamlLoginActivity(rootDir);
+        assertEquals(new SamlLoginActivity.Activity(1000, 3000, 2), reloaded.get("alice"));
+        assertEquals(new SamlLoginActivity.Activity(2000, 2000, 1), reloaded.get("bob"));
+        assertNull(reloaded.get("carol"));
+        assertEquals(Set.of("alice"), reloaded.since(2500).keySet());
+        assertEquals(Set.of("alice", "bob"), reloaded.since(0).keySet());
+    }
+
+    @Test
+    void userIdsAreKeptAsTheyAre() {
+        SamlLoginActivity activity = new SamlLoginActivity(rootDir);
+        activity.record("Alice.Smith", 1000);
+        activity.close();
+
+        assertEquals(Set.of("Alice.Smith"), new SamlLoginActivity(rootDir).since(0).keySet());
+    }
+
+    @Test
+    void removedUserIsForgotten() throws IOException {
+        SamlLoginActivity activity = new SamlLoginActivity(rootDir);
+        activity.record("alice", 1000);
+        activity.record("bob", 2000);
+        activity.remove("alice");
+        activity.remove("carol");
+        assertNull(activity.get("alice"));
+        assertEquals(Set.of("bob"), activity.since(0).keySet());
+        activity.close();
+
+        SamlLoginActivity reloaded = new SamlLoginActivity(rootDir);
+        assertNull(reloaded.get("alice"));
+        reloaded.compact();
+        assertEquals(1, reloaded.getRecords());
+        reloaded.record("alice", 3000);
+        reloaded.close();
+        assertEquals(new SamlLoginActivity.Activity(3000, 3000, 1), new SamlLoginActivity(rootDir).get("alice"));
+    }
+
+    @Test
+    void compactionKeepsTheAggregates() throws IOException {
+        SamlLoginActivity activity = new SamlLoginActivity(rootDir);
+        for (int i = 0; i <= SamlLoginActivity.COMPACTION_THRESHOLD; i++) {
+            activity.record(i % 2 == 0 ? "alice" : "bob", i);
+        }
+        assertTrue(activity.needsCompaction());
+        activity.compact();
+        assertFalse(activity.needsCompaction());
+        assertEquals(2, activity.getRecords());
+        activity.record("alice", 20000);
+        activity.close();
+
+        SamlLoginActivity reloaded = new SamlLoginActivity(rootDir);
+        assertEquals(3, reloaded.getRecords());
+        assertEquals(new SamlLoginActivity.Activity(0, 20000, 5002), reloaded.get("alice"));
+        assertEquals(new SamlLoginActivity.Activity(1, 9999, 5000), reloaded.get("bob"));
+    }
+
+    @Test
+    void incompleteRecordIsDropped() throws IOException {
+        SamlLoginActivity activity = new SamlLoginActivity(rootDir);
+        activity.record("alice", 1000);
+        activity.close();
+        File records = new File(rootDir, SamlLoginActivity.RECORDS_FILE_NAME);
+        try (FileOutputStream out = new FileOutputStream(records, true)) {
+            out.write(new byte[] {0, 0, 0});
+        }
+
+        SamlLoginActivity reloaded = new SamlLoginActivity(rootDir);
+        assertEquals(new SamlLoginActivity.Activity(1000, 1000, 1), reloaded.get("alice"));
+        reloaded.record("alice", 2000);
+        reloaded.close();
+        assertEquals(new SamlLoginActivity.Activity(1000, 2000, 2), new SamlLoginActivity(rootDir).get("alice"));
+    }
+}
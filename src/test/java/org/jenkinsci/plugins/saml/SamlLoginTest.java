@@ -0,0 +1,291 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import hudson.model.User;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.Page;
+import org.htmlunit.WebRequest;
+import org.htmlunit.util.NameValuePair;
+import org.jenkinsci.plugins.saml.conf.Attribute;
+import org.jenkinsci.plugins.saml.conf.AttributeEntry;
+import org.jenkinsci.plugins.saml.user.LoginDetailsProperty;
+import org.jenkinsci.plugins.saml.user.SamlCustomProperty;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.LogRecorder;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.opensaml.saml.saml2.core.StatusCode;
+
+/**
+ * Logins with a fake IdP, the SAML Response is sent to <code>securityRealm/finishLogin</code>.
+ */
+@WithJenkins
+class SamlLoginTest {
+
+    private JenkinsRule jenkinsRule;
+
+    private FakeIdp idp;
+
+    public final LogRecorder logs = new LogRecorder().record(SamlSecurityRealm.class, Level.FINER);
+
+    @BeforeEach
+    void start(JenkinsRule jenkinsRule) throws Exception {
+        this.jenkinsRule = jenkinsRule;
+        this.idp = new FakeIdp();
+    }
+
+    @Test
+    void minimalProfileKeepsOnlyTheMappedAttributes() throws Exception {
+        SamlAdvancedConfiguration advancedConfiguration = advancedConfiguration();
+        advancedConfiguration.setMinimalProfile(true);
+        List<AttributeEntry> customAttributes = new ArrayList<>();
+        customAttributes.add(new Attribute("department", "Department"));
+        SamlSecurityRealm realm = configure(advancedConfiguration, customAttributes);
+        logs.capture(100);
+
+        Page page = finishLogin(
+                realm,
+                "tesla",
+                Map.of(
+                        "uid", List.of("tesla"),
+                        "displayName", List.of("Nikola Tesla"),
+                        "groups", List.of("inventors"),
+                        "department", List.of("Research"),
+                        "photo", List.of("a large picture")),
+                null);
+        assertEquals(302, page.getWebResponse().getStatusCode());
+
+        SamlLoginProfile profile = loginProfile();
+        assertEquals(Set.of("uid", "displayName", "groups", "department"), profile.attributes().keySet());
+
+        User user = User.getById("tesla", false);
+        assertNotNull(user);
+        assertEquals("Nikola Tesla", user.getFullName());
+        assertThat(user.getAuthorities(), hasItem("inventors"));
+        SamlCustomProperty property = user.getProperty(SamlCustomProperty.class);
+        assertNotNull(property);
+        assertEquals("Research", property.getAttributes().get(0).getValue());
+    }
+
+    @Test
+    void loginSavesTheUserInTheBackground() throws Exception {
+        SamlAdvancedConfiguration advancedConfiguration = advancedConfiguration();
+        advancedConfiguration.setBackgroundUserSave(true);
+        SamlSecurityRealm realm = configure(advancedConfiguration, List.of());
+        long delay = SamlUserPersister.delay;
+        SamlUserPersister.delay = TimeUnit.HOURS.toMillis(1);
+        try {
+            long saved = SamlMetrics.toJSON().getLong("userPersister.saved");
+
+            Map<String, List<String>> attributes =
+                    Map.of("uid", List.of("edison"), "displayName", List.of("Thomas Edison"));
+            finishLogin(realm, "edison", attributes, null);
+
+            // the first login adds the login details and sets the full name, the user is saved once later
+            assertEquals(1, SamlUserPersister.getQueueDepth());
+            assertEquals(saved, SamlMetrics.toJSON().getLong("userPersister.saved"));
+            User user = User.getById("edison", false);
+            assertNotNull(user);
+            LoginDetailsProperty loginDetails = user.getProperty(LoginDetailsProperty.class);
+            assertNotNull(loginDetails);
+            assertEquals(1, loginDetails.getLoginCount());
+
+            SamlUserPersister.flush();
+            assertEquals(0, SamlUserPersister.getQueueDepth());
+            assertEquals(saved + 1, SamlMetrics.toJSON().getLong("userPersister.saved"));
+        } finally {
+            SamlUserPersister.flush();
+            SamlUserPersister.delay = delay;
+        }
+    }
+
+    @Test
+    void loginActivityKeepsTheUserIdAndIsRemovedWithTheUser() throws Exception {
+        SamlSecurityRealm realm = configure(advancedConfiguration(), List.of());
+
+        finishLogin(realm, "Curie", Map.of("uid", List.of("Marie.Curie")), null);
+
+        assertThat(SamlLoginActivity.get().since(0).keySet(), hasItem("Marie.Curie"));
+        assertNotNull(SamlLoginActivity.get().get("marie.curie"));
+        User user = User.getById("Marie.Curie", false);
+        assertNotNull(user);
+        user.delete();
+        assertNull(SamlLoginActivity.get().get("Marie.Curie"));
+    }
+
+    @Test
+    void passiveLoginSendsAPassiveAuthnRequest() throws Exception {
+        SamlAdvancedConfiguration advancedConfiguration = advancedConfiguration();
+        advancedConfiguration.setPassiveLogin(true);
+        configure(advancedConfiguration, List.of());
+
+        String location = commenceLogin("");
+        assertThat(location, startsWith(FakeIdp.SSO_URL + "?"));
+        assertThat(FakeIdp.decodeRedirect(location), containsString("IsPassive=\"true\""));
+
+        String interactive = commenceLogin("passive=false");
+        assertThat(FakeIdp.decodeRedirect(interactive), not(containsString("IsPassive=\"true\"")));
+    }
+
+    @Test
+    void passiveParameterIsIgnoredWithoutTheOption() throws Exception {
+        configure(advancedConfiguration(), List.of());
+
+        assertThat(FakeIdp.decodeRedirect(commenceLogin("passive=true")), not(containsString("IsPassive=\"true\"")));
+    }
+
+    @Test
+    void noPassiveResponseFallsBackToAnInteractiveLogin() throws Exception {
+        SamlAdvancedConfiguration advancedConfiguration = advancedConfiguration();
+        advancedConfiguration.setPassiveLogin(true);
+        SamlSecurityRealm realm = configure(advancedConfiguration, List.of());
+        String from = "/manage/";
+
+        String location = commenceLogin("from=" + URLEncoder.encode(from, StandardCharsets.UTF_8));
+        String relayState = parameter(location, "RelayState");
+        String destination = realm.getSamlPluginConfig().getConsumerServiceUrl();
+        Page page = post(destination, idp.errorResponse(destination, StatusCode.NO_PASSIVE), relayState);
+
+        assertEquals(302, page.getWebResponse().getStatusCode());
+        assertEquals(
+                jenkinsRule.getURL() + "securityRealm/commenceLogin?passive=false&from="
+                        + URLEncoder.encode(from, StandardCharsets.UTF_8),
+                page.getWebResponse().getResponseHeaderValue("Location"));
+    }
+
+    /**
+     * @return the advanced configuration with the entityID of the SP the fake IdP sends its assertions to.
+     */
+    static SamlAdvancedConfiguration advancedConfiguration() {
+        return new SamlAdvancedConfiguration(false, null, FakeIdp.SP_ENTITY_ID, null);
+    }
+
+    private SamlSecurityRealm configure(
+            SamlAdvancedConfiguration advancedConfiguration, List<AttributeEntry> customAttributes) throws Exception {
+        SamlSecurityRealm realm = new SamlSecurityRealm(
+                new IdpMetadataConfiguration(idp.getMetadata()),
+                "displayName",
+                "groups",
+                86400,
+                "uid",
+                "email",
+                null,
+                advancedConfiguration,
+                null,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                customAttributes);
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+        return realm;
+    }
+
+    /**
+     * @param query query of the request to <code>securityRealm/commenceLogin</code>.
+     * @return the location the browser is redirected to.
+     */
+    private String commenceLogin(String query) throws Exception {
+        try (JenkinsRule.WebClient webClient = webClient()) {
+            Page page = webClient.goTo("securityRealm/commenceLogin?" + query, null);
+            assertEquals(302, page.getWebResponse().getStatusCode());
+            return page.getWebResponse().getResponseHeaderValue("Location");
+        }
+    }
+
+    private static String parameter(String location, String name) {
+        for (String parameter : location.substring(location.indexOf('?') + 1).split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return URLDecoder.decode(parameter.substring(name.length() + 1), StandardCharsets.UTF_8);
+            }
+        }
+        throw new IllegalArgumentException("No " + name + " in " + location);
+    }
+
+    /**
+     * Send a successful SAML Response to <code>securityRealm/finishLogin</code>.
+     *
+     * @param relayState RelayState of the AuthnRequest, none if null.
+     * @return the response of Jenkins.
+     */
+    private Page finishLogin(
+            SamlSecurityRealm realm, String nameId, Map<String, List<String>> attributes, String relayState)
+            throws Exception {
+        String destination = realm.getSamlPluginConfig().getConsumerServiceUrl();
+        String response = idp.response(destination, nameId, UUID.randomUUID().toString(), null, attributes);
+        return post(destination, response, relayState);
+    }
+
+    private Page post(String destination, String samlResponse, String relayState) throws Exception {
+        List<NameValuePair> parameters = new ArrayList<>();
+        parameters.add(new NameValuePair("SAMLResponse", samlResponse));
+        if (relayState != null) {
+            parameters.add(new NameValuePair("RelayState", relayState));
+        }
+        WebRequest request = new WebRequest(new URL(destination), HttpMethod.POST);
+        request.setRequestParameters(parameters);
+        try (JenkinsRule.WebClient webClient = webClient()) {
+            return webClient.getPage(request);
+        }
+    }
+
+    /**
+     * @return the profile of the last login, from the log of the security realm.
+     */
+    private SamlLoginProfile loginProfile() {
+        SamlLoginProfile ret = null;
+        for (LogRecord record : logs.getRecords()) {
+            Object[] parameters = record.getParameters();
+            if (parameters != null && parameters.length == 1 && parameters[0] instanceof SamlLoginProfile profile) {
+                ret = profile;
+            }
+        }
+        assertNotNull(ret, "no login");
+        return ret;
+    }
+
+    private JenkinsRule.WebClient webClient() {
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+        webClient.setJavaScriptEnabled(false);
+        webClient.setRedirectEnabled(false);
+        webClient.setThrowExceptionOnFailingStatusCode(false);
+        return webClient;
+    }
+}
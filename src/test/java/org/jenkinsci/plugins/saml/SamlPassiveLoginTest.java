@@ -0,0 +1,57 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.Test;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.mockito.Mockito;
+
+/**
+ * Passive login attempts.
+ */
+class SamlPassiveLoginTest {
+
+    @Test
+    void passiveOnlyIfEnabledAndNotDisabledByTheRequest() {
+        StaplerRequest2 request = Mockito.mock(StaplerRequest2.class);
+        assertNull(SamlPassiveLogin.of(request, false));
+        assertNotNull(SamlPassiveLogin.of(request, true));
+        assertFalse(SamlPassiveLogin.of(request, true).background());
+
+        when(request.getParameter("background")).thenReturn("true");
+        assertTrue(SamlPassiveLogin.of(request, true).background());
+
+        when(request.getParameter("passive")).thenReturn("false");
+        assertNull(SamlPassiveLogin.of(request, true));
+    }
+
+    @Test
+    void responseIsMatchedOnce() {
+        SamlPassiveLogin.remember("relay-state", new SamlPassiveLogin.Attempt(false));
+        assertNull(SamlPassiveLogin.take("other-relay-state"));
+        assertNotNull(SamlPassiveLogin.take("relay-state"));
+        assertNull(SamlPassiveLogin.take("relay-state"));
+        assertNull(SamlPassiveLogin.take(null));
+    }
+}
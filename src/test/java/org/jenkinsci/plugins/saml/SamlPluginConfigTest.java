@@ -0,0 +1,95 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Settings shared by the logins.
+ */
+class SamlPluginConfigTest {
+
+    @Test
+    void fingerprintChangesWithTheKeyAliases() {
+        String fingerprint = config(encryption("key-1", "key-0")).getFingerprint();
+
+        assertEquals(fingerprint, config(encryption("key-1", "key-0")).getFingerprint());
+        assertNotEquals(fingerprint, config(encryption("key-2", "key-0")).getFingerprint());
+        assertNotEquals(fingerprint, config(encryption("key-1", "key-9")).getFingerprint());
+    }
+
+    @Test
+    void nestedSettingsAreCopied() {
+        IdpMetadataConfiguration idpMetadataConfiguration =
+                new IdpMetadataConfiguration("https://idp.example.com/metadata", 0L);
+        SamlAdvancedConfiguration advancedConfiguration = new SamlAdvancedConfiguration(false, null, null, null);
+        SamlEncryptionData encryptionData = encryption("key-1", null);
+        SamlPluginConfig config = new SamlPluginConfig(
+                "displayName",
+                "groups",
+                86400,
+                "email",
+                idpMetadataConfiguration,
+                "none",
+                "uid",
+                null,
+                SAML2_REDIRECT_BINDING_URI,
+                encryptionData,
+                advancedConfiguration,
+                List.of());
+        String fingerprint = config.getFingerprint();
+
+        idpMetadataConfiguration.setMirrorUrls("https://mirror.example.com/metadata");
+        advancedConfiguration.setSingleLogout(true);
+        encryptionData.setRolloverKeyAliases("key-0");
+
+        assertNull(config.getIdpMetadataConfiguration().getMirrorUrls());
+        assertFalse(config.isSingleLogout());
+        assertNull(config.getEncryptionData().getRolloverKeyAliases());
+        assertEquals(fingerprint, config.getFingerprint());
+    }
+
+    private static SamlEncryptionData encryption(String alias, String rolloverAliases) {
+        SamlEncryptionData ret = new SamlEncryptionData("/var/lib/jenkins/saml.jks", null, null, alias, false, false);
+        ret.setRolloverKeyAliases(rolloverAliases);
+        return ret;
+    }
+
+    private static SamlPluginConfig config(SamlEncryptionData encryptionData) {
+        return new SamlPluginConfig(
+                "displayName",
+                "groups",
+                86400,
+                "email",
+                new IdpMetadataConfiguration("https://idp.example.com/metadata", 0L),
+                "none",
+                "uid",
+                null,
+                SAML2_REDIRECT_BINDING_URI,
+                encryptionData,
+                null,
+                List.of());
+    }
+}
@@ -27,13 +27,18 @@ import static org.hamcrest.core.IsIterableContaining.hasItem;
 import static org.hamcrest.core.StringContains.containsString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_POST_BINDING_URI;
 import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
 
 import hudson.XmlFile;
+import hudson.model.User;
 import hudson.security.AuthorizationStrategy;
 import hudson.security.SecurityRealm;
+import hudson.util.FormValidation;
 import hudson.util.Secret;
 import java.io.File;
 import java.io.IOException;
@@ -41,6 +46,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
@@ -102,6 +108,20 @@ class SamlSecurityRealmTest {
         assertEquals(SAML2_REDIRECT_BINDING_URI, samlSecurityRealm.getBinding());
     }
 
+    @LocalData("testReadSimpleConfiguration")
+    @Test
+    void samlPluginConfigIsSharedUntilReconfigured() throws IOException {
+        SamlPluginConfig config = samlSecurityRealm.getSamlPluginConfig();
+        assertSame(config, samlSecurityRealm.getSamlPluginConfig());
+        assertTrue(config.getVersion() > 0);
+
+        samlSecurityRealm.setProperties(List.of());
+        SamlPluginConfig reconfigured = samlSecurityRealm.getSamlPluginConfig();
+        assertNotSame(config, reconfigured);
+        assertTrue(reconfigured.getVersion() > config.getVersion());
+        assertEquals(config.getFingerprint(), reconfigured.getFingerprint());
+    }
+
     @LocalData
     @Test
     void testReadSimpleConfigurationHTTPPost() throws IOException {
@@ -289,6 +309,124 @@ class SamlSecurityRealmTest {
                 records.get(0).getMessage(), allOf(containsString("Found 3 empty groups"), containsString("user123")));
     }
 
+    @LocalData("samlProfileWithEmptyGroups")
+    @Test
+    void samlGroupsFilter() {
+        SamlGroupsFilter filter = new SamlGroupsFilter("jenkins-.*", "jenkins-old-.*");
+        filter.setRenames(List.of(new SamlGroupRename("CN=([^,]+),OU=Jenkins,.*", "$1")));
+        filter.setPrefix("saml-");
+        filter.setCaseConversion("lowercase");
+        samlSecurityRealm.setGroupsFilter(filter);
+
+        SAML2Profile samlProfile = new SAML2Profile();
+        samlProfile.addAttribute(
+                samlSecurityRealm.getGroupsAttributeName(),
+                List.of(
+                        "jenkins-Admins",
+                        "jenkins-old-admins",
+                        "DL-all-staff",
+                        "CN=Developers,OU=Jenkins,DC=example,DC=com",
+                        "CN=Developers,OU=Sales,DC=example,DC=com"));
+        samlProfile.addAttribute(samlSecurityRealm.getUsernameAttributeName(), "user123");
+        List<String> names = samlSecurityRealm.loadGrantedAuthorities(samlProfile).stream()
+                .map(GrantedAuthority::getAuthority)
+                .toList();
+        assertEquals(List.of("authenticated", "saml-jenkins-admins", "saml-developers"), names);
+
+        samlSecurityRealm.setGroupsFilter(null);
+        assertEquals(6, samlSecurityRealm.loadGrantedAuthorities(samlProfile).size());
+    }
+
+    @Test
+    void samlGroupsFilterWithBackReferencesAndNamedGroups() {
+        SamlGroupsFilter filter = new SamlGroupsFilter("(?<app>[a-z]+)-.*", "(\\w)\\1.*");
+        filter.setRenames(List.of(
+                new SamlGroupRename("CN=(?<name>[^,]+),.*", "${name}"), new SamlGroupRename("(x)-(\\w+)", "$2")));
+        assertTrue(SamlGroupsFilter.isStandalone("(\\w)\\1.*"));
+        assertTrue(SamlGroupsFilter.isStandalone("(?<app>[a-z]+)"));
+        assertFalse(SamlGroupsFilter.isStandalone("(?<=a)\\\\1(?<!b)"));
+
+        assertNull(filter.apply("aab"));
+        assertEquals("abc-dev", filter.apply("abc-dev"));
+        assertEquals("Developers", filter.apply("CN=Developers,DC=example"));
+        assertEquals("admins", filter.apply("x-admins"));
+        assertNull(filter.apply("ABC"));
+    }
+
+    @Test
+    void samlGroupRenameReplacesTheWholeGroupName() {
+        SamlGroupsFilter filter = new SamlGroupsFilter(null, null);
+        filter.setRenames(List.of(new SamlGroupRename("(a|ab)", "X")));
+        assertEquals("X", filter.apply("ab"));
+        assertEquals("X", filter.apply("a"));
+
+        // a back reference in a pattern makes the rules be applied one by one
+        filter = new SamlGroupsFilter(null, "(\\w)\\1");
+        filter.setRenames(List.of(new SamlGroupRename("(a|ab)", "X")));
+        assertEquals("X", filter.apply("ab"));
+        assertNull(filter.apply("aa"));
+    }
+
+    @Test
+    void samlGroupRenameReplacementValidation() {
+        assertEquals(FormValidation.Kind.OK, SamlGroupRename.checkReplacement("CN=([^,]+),.*", "$1").kind);
+        assertEquals(FormValidation.Kind.OK, SamlGroupRename.checkReplacement("CN=(?<cn>[^,]+),.*", "${cn}").kind);
+        assertEquals(FormValidation.Kind.OK, SamlGroupRename.checkReplacement("(", "$1").kind);
+        assertEquals(FormValidation.Kind.ERROR, SamlGroupRename.checkReplacement("CN=([^,]+),.*", "$2").kind);
+        assertEquals(FormValidation.Kind.ERROR, SamlGroupRename.checkReplacement("CN=([^,]+),.*", "${cn}").kind);
+        assertEquals(FormValidation.Kind.ERROR, SamlGroupRename.checkReplacement("CN=([^,]+),.*", "a\\").kind);
+    }
+
+    @LocalData("samlProfileWithEmptyGroups")
+    @Test
+    void samlGroupMapping() throws IOException {
+        FileUtils.writeStringToFile(
+                new File(jenkinsRule.jenkins.getRootDir(), SamlGroupMapping.FILE_NAME),
+                "8f3c2a10-5b7e-4d1a-9c2f-0e6b7d4a1f22=jenkins-admins\n",
+                StandardCharsets.UTF_8);
+        SamlGroupMapping.invalidate();
+
+        SAML2Profile samlProfile = new SAML2Profile();
+        samlProfile.addAttribute(
+                samlSecurityRealm.getGroupsAttributeName(),
+                List.of("8f3c2a10-5b7e-4d1a-9c2f-0e6b7d4a1f22", "0d9e7a55-1c3b-4e8f-a2d6-5b4c3f2e1a00"));
+        samlProfile.addAttribute(samlSecurityRealm.getUsernameAttributeName(), "user123");
+        List<String> names = samlSecurityRealm.loadGrantedAuthorities(samlProfile).stream()
+                .map(GrantedAuthority::getAuthority)
+                .toList();
+        assertEquals(List.of("authenticated", "jenkins-admins", "0d9e7a55-1c3b-4e8f-a2d6-5b4c3f2e1a00"), names);
+        assertThat(
+                SamlMetrics.toJSON().getJSONArray("groupMapping.unmapped"),
+                hasItem("0d9e7a55-1c3b-4e8f-a2d6-5b4c3f2e1a00"));
+    }
+
+    @LocalData("samlProfileWithEmptyGroups")
+    @Test
+    void samlAuthoritiesAreInternedAndShared() {
+        SAML2Profile samlProfile = new SAML2Profile();
+        samlProfile.addAttribute(samlSecurityRealm.getGroupsAttributeName(), List.of("group-1", "group-2", "group-1"));
+        samlProfile.addAttribute(samlSecurityRealm.getUsernameAttributeName(), "user123");
+        SamlUserDetails user1 = new SamlUserDetails("user1", samlSecurityRealm.loadGrantedAuthorities(samlProfile));
+        SamlUserDetails user2 = new SamlUserDetails("user2", samlSecurityRealm.loadGrantedAuthorities(samlProfile));
+
+        assertSame(user1.getAuthorities(), user2.getAuthorities());
+        assertEquals(3, user1.getAuthorities().size());
+        assertTrue(user1.getAuthorities().contains(new SimpleGrantedAuthority("group-2")));
+        assertTrue(user1.getAuthorities().contains(SecurityRealm.AUTHENTICATED_AUTHORITY2));
+        assertFalse(user1.getAuthorities().contains(new SimpleGrantedAuthority("group-3")));
+        assertEquals(
+                Set.of(
+                        SecurityRealm.AUTHENTICATED_AUTHORITY2,
+                        new SimpleGrantedAuthority("group-1"),
+                        new SimpleGrantedAuthority("group-2")),
+                user1.getAuthorities());
+
+        SamlAuthenticationToken token = new SamlAuthenticationToken(user1);
+        assertSame(user1.getAuthorities(), token.getAuthorities());
+        assertEquals(token, new SamlAuthenticationToken(user1));
+        assertTrue(SamlMetrics.toJSON().getLong("authorities.internedBytes") > 0);
+    }
+
     // config.xml from saml-plugin 0.14
     @Test
     @LocalData
@@ -309,6 +447,95 @@ class SamlSecurityRealmTest {
         assertThat(idpMetadata, equalTo(configuredMetadata));
     }
 
+    @Test
+    @LocalData("testReadSimpleConfiguration")
+    void inlineIdPMetadataIsStoredOutOfConfigTest() throws IOException {
+        IdpMetadataConfiguration metadataConfiguration = samlSecurityRealm.getIdpMetadataConfiguration();
+        String digest = metadataConfiguration.getXmlDigest();
+        assertTrue(StringUtils.isNotBlank(digest));
+        File blob = new File(
+                new File(jenkinsRule.getInstance().getRootDir(), IdpMetadataBlobStore.FOLDER_NAME),
+                digest + ".xml.gz");
+        assertTrue(blob.exists());
+        assertThat(metadataConfiguration.getXml(), containsString("simpleSAMLphpIdpHosted"));
+
+        jenkinsRule.getInstance().save();
+        String config = FileUtils.readFileToString(
+                new File(jenkinsRule.getInstance().getRootDir(), "config.xml"), StandardCharsets.UTF_8);
+        assertThat(config, containsString(digest));
+        assertThat(config, not(containsString("EntityDescriptor")));
+    }
+
+    @Test
+    @LocalData("testReadSimpleConfiguration")
+    void unusedIdPMetadataIsRemovedAfterTheSave() throws Exception {
+        File folder = new File(jenkinsRule.getInstance().getRootDir(), IdpMetadataBlobStore.FOLDER_NAME);
+        String xml = samlSecurityRealm.getIdpMetadataConfiguration().getXml();
+        File first = new File(folder, samlSecurityRealm.getIdpMetadataConfiguration().getXmlDigest() + ".xml.gz");
+        long retentionDays = IdpMetadataBlobStore.retentionDays;
+        IdpMetadataBlobStore.retentionDays = 0;
+        try {
+            SamlSecurityRealm second = realmWithIdpMetadata(xml + "<!-- second -->");
+            assertTrue(first.exists(), "nothing is removed before the save");
+            jenkinsRule.getInstance().setSecurityRealm(second);
+            jenkinsRule.getInstance().save();
+            assertTrue(first.exists(), "the previous configuration can be restored");
+
+            SamlSecurityRealm third = realmWithIdpMetadata(xml + "<!-- third -->");
+            jenkinsRule.getInstance().setSecurityRealm(third);
+            jenkinsRule.getInstance().save();
+            assertFalse(first.exists());
+            assertTrue(new File(folder, second.getIdpMetadataConfiguration().getXmlDigest() + ".xml.gz").exists());
+            assertTrue(new File(folder, third.getIdpMetadataConfiguration().getXmlDigest() + ".xml.gz").exists());
+        } finally {
+            IdpMetadataBlobStore.retentionDays = retentionDays;
+        }
+    }
+
+    @Test
+    @LocalData("testReadSimpleConfiguration")
+    void unusedIdPMetadataIsKeptForTheRetentionPeriod() throws Exception {
+        File folder = new File(jenkinsRule.getInstance().getRootDir(), IdpMetadataBlobStore.FOLDER_NAME);
+        String xml = samlSecurityRealm.getIdpMetadataConfiguration().getXml();
+        File first = new File(folder, samlSecurityRealm.getIdpMetadataConfiguration().getXmlDigest() + ".xml.gz");
+        for (String version : List.of("second", "third")) {
+            jenkinsRule.getInstance().setSecurityRealm(realmWithIdpMetadata(xml + "<!-- " + version + " -->"));
+            jenkinsRule.getInstance().save();
+        }
+        assertTrue(first.exists());
+    }
+
+    private static SamlSecurityRealm realmWithIdpMetadata(String xml) throws IOException {
+        return new SamlSecurityRealm(
+                new IdpMetadataConfiguration(xml),
+                "displayName",
+                "groups",
+                86400,
+                "uid",
+                "email",
+                null,
+                null,
+                null,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                Collections.emptyList());
+    }
+
+    @Test
+    @LocalData("testReadSimpleConfiguration")
+    void usersModifiedByLoginsAreSavedOnceInTheBackground() {
+        User user = User.getById("user-persister", true);
+        user.setFullName("User Persister");
+        assertTrue(SamlUserPersister.enqueue(user));
+        assertTrue(SamlUserPersister.enqueue(user));
+        assertEquals(1, SamlUserPersister.getQueueDepth());
+
+        SamlUserPersister.flush();
+        assertEquals(0, SamlUserPersister.getQueueDepth());
+        assertTrue(new File(user.getUserFolder(), "config.xml").exists());
+        assertTrue(SamlMetrics.toJSON().getLong("userPersister.coalesced") >= 1);
+    }
+
     private static BlankGrantedAuthorityTypeSafeMatcher blankGrantedAuthority() {
         return new BlankGrantedAuthorityTypeSafeMatcher();
     }
@@ -0,0 +1,85 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.model.UnprotectedRootAction;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.kohsuke.stapler.StaplerRequest2;
+
+/**
+ * Expiry of a real session at the SessionNotOnOrAfter of the assertion.
+ */
+@WithJenkins
+class SamlSessionExpiryFilterTest {
+
+    @Test
+    void expiredSessionBecomesAnonymous(JenkinsRule jenkinsRule) throws Exception {
+        jenkinsRule.jenkins.setSecurityRealm(jenkinsRule.createDummySecurityRealm());
+        long expired = SamlMetrics.toJSON().getLong("session.expired");
+        try (JenkinsRule.WebClient webClient = jenkinsRule.createWebClient()) {
+            webClient.login("alice");
+            assertEquals("alice", whoAmI(webClient));
+
+            webClient.goTo("expireSession", null);
+            assertEquals(Jenkins.ANONYMOUS2.getName(), whoAmI(webClient));
+        }
+        assertTrue(SamlMetrics.toJSON().getLong("session.expired") > expired);
+    }
+
+    private static String whoAmI(JenkinsRule.WebClient webClient) throws Exception {
+        String json = webClient
+                .goTo("whoAmI/api/json", "application/json")
+                .getWebResponse()
+                .getContentAsString();
+        return JSONObject.fromObject(json).getString("name");
+    }
+
+    /**
+     * Marks the session of the request as expired, without lowering its timeout, as the ExpiryFilter has to end it.
+     */
+    @TestExtension
+    public static class ExpireSession implements UnprotectedRootAction {
+        @Override
+        public String getIconFileName() {
+            return null;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return null;
+        }
+
+        @Override
+        public String getUrlName() {
+            return "expireSession";
+        }
+
+        public void doIndex(StaplerRequest2 request) {
+            request.getSession()
+                    .setAttribute(SamlSessionExpiry.EXPIRY_ATTRIBUTE, System.currentTimeMillis() - 1000);
+        }
+    }
+}
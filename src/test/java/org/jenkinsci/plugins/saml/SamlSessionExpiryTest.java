@@ -0,0 +1,62 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import jakarta.servlet.http.HttpSession;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Expiry of the SAML sessions at the SessionNotOnOrAfter of the assertion.
+ */
+class SamlSessionExpiryTest {
+
+    @Test
+    void sessionTimeoutIsCappedByTheMaximumAuthenticationLifetime() {
+        HttpSession session = FakeSession.create();
+        SamlSessionExpiry.bind(session, Instant.now().plus(8, ChronoUnit.HOURS), 600);
+
+        verify(session).setMaxInactiveInterval(600);
+        assertFalse(SamlSessionExpiry.isExpired(session));
+    }
+
+    @Test
+    void sessionTimeoutIsKeptIfShorter() {
+        HttpSession session = FakeSession.create();
+        SamlSessionExpiry.bind(session, Instant.now().plus(8, ChronoUnit.HOURS), 86400);
+
+        verify(session, never()).setMaxInactiveInterval(anyInt());
+    }
+
+    @Test
+    void expiredSessionIsSwept() {
+        HttpSession session = FakeSession.create();
+        SamlSessionExpiry.bind(session, Instant.now().minusSeconds(1), 86400);
+
+        assertTrue(SamlSessionExpiry.isExpired(session));
+        SamlSessionExpiry.sweep();
+        verify(session).invalidate();
+    }
+}
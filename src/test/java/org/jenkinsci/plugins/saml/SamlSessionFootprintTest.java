@@ -0,0 +1,59 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import jakarta.servlet.http.HttpSession;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Session cleanup and size of the SAML logins.
+ */
+class SamlSessionFootprintTest {
+
+    @Test
+    void attributesAddedDuringValidationAreRemoved() {
+        Map<String, Object> attributes = new HashMap<>();
+        HttpSession session = FakeSession.create(attributes);
+        attributes.put("jenkins.attribute", "kept");
+        Set<String> before = SamlSessionFootprint.attributeNames(session);
+        attributes.put("SAML2Client$samlRequestId", "_id");
+        attributes.put("pac4jRequestedUrl", "https://jenkins.example.com/");
+
+        SamlSessionFootprint.removeAddedAttributes(session, before);
+        assertEquals(Set.of("jenkins.attribute"), attributes.keySet());
+    }
+
+    @Test
+    void sessionSizeIsMeasured() {
+        HttpSession session = FakeSession.create();
+        SamlUserDetails userDetails = new SamlUserDetails("tesla", List.of(new SimpleGrantedAuthority("group-1")));
+        for (int i = 0; i < SamlSessionFootprint.SAMPLE_RATE; i++) {
+            SamlSessionFootprint.record(session, new SamlAuthenticationToken(userDetails));
+        }
+        assertTrue(SamlMetrics.toJSON().getLong("session.samples") > 0);
+        assertTrue(SamlMetrics.toJSON().getLong("session.maxSize") > 0);
+    }
+}
@@ -0,0 +1,78 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import jakarta.servlet.http.HttpSession;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lookup of the sessions of a SAML Single Logout.
+ */
+class SamlSessionIndexTest {
+
+    @Test
+    void logoutBySessionIndexInvalidatesOnlyThatSession() {
+        String nameId = UUID.randomUUID().toString();
+        HttpSession first = FakeSession.create();
+        HttpSession second = FakeSession.create();
+        SamlSessionIndex.bind(first, login(nameId, "index-1"));
+        SamlSessionIndex.bind(second, login(nameId, "index-2"));
+
+        assertEquals(1, SamlSessionIndex.logout("index-1"));
+        verify(first).invalidate();
+        verify(second, never()).invalidate();
+        assertEquals(0, SamlSessionIndex.logout("index-1"));
+    }
+
+    @Test
+    void logoutByNameIdInvalidatesAllTheSessions() {
+        String nameId = UUID.randomUUID().toString();
+        HttpSession first = FakeSession.create();
+        HttpSession second = FakeSession.create();
+        SamlSessionIndex.bind(first, login(nameId, null));
+        SamlSessionIndex.bind(second, login(nameId, null));
+
+        assertEquals(2, SamlSessionIndex.logout(nameId));
+        verify(first).invalidate();
+        verify(second).invalidate();
+    }
+
+    @Test
+    void destroyedSessionIsForgotten() {
+        String nameId = UUID.randomUUID().toString();
+        HttpSession session = FakeSession.create();
+        SamlSessionIndex.bind(session, login(nameId, "index-3"));
+        assertEquals(nameId, SamlSessionIndex.get(session).nameId());
+
+        SamlSessionIndex.forget(session);
+        assertEquals(0, SamlSessionIndex.logout("index-3"));
+        assertEquals(0, SamlSessionIndex.logout(nameId));
+        verify(session, never()).invalidate();
+        assertNull(SamlSessionIndex.get(null));
+    }
+
+    private static SamlSessionIndex.Login login(String nameId, String sessionIndex) {
+        return new SamlSessionIndex.Login(nameId, null, null, null, sessionIndex);
+    }
+}
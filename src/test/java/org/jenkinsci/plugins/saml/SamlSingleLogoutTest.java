@@ -0,0 +1,159 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_POST_BINDING_URI;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import jakarta.servlet.http.HttpSession;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import jenkins.model.Jenkins;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.Page;
+import org.htmlunit.WebRequest;
+import org.htmlunit.util.NameValuePair;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.kohsuke.stapler.Stapler;
+import org.opensaml.saml.saml2.core.NameID;
+
+/**
+ * SAML Single Logout with a fake IdP.
+ */
+@WithJenkins
+class SamlSingleLogoutTest {
+
+    private JenkinsRule jenkinsRule;
+
+    private FakeIdp idp;
+
+    @BeforeEach
+    void start(JenkinsRule jenkinsRule) throws Exception {
+        this.jenkinsRule = jenkinsRule;
+        this.idp = new FakeIdp();
+    }
+
+    @Test
+    void logoutRequestOfTheIdpInvalidatesTheSession() throws Exception {
+        SamlSecurityRealm realm = configure(SAML2_POST_BINDING_URI);
+        String nameId = UUID.randomUUID().toString();
+        HttpSession session = FakeSession.create();
+        HttpSession other = FakeSession.create();
+        SamlSessionIndex.bind(session, login(nameId, "index-1"));
+        SamlSessionIndex.bind(other, login(nameId, "index-2"));
+
+        try (JenkinsRule.WebClient webClient = webClient()) {
+            String destination = realm.getSamlPluginConfig().getSingleLogoutServiceUrl();
+            WebRequest request = new WebRequest(new URL(destination), HttpMethod.POST);
+            request.setRequestParameters(
+                    List.of(new NameValuePair("SAMLRequest", idp.logoutRequest(destination, nameId, "index-1"))));
+            Page page = webClient.getPage(request);
+            assertThat(page.getWebResponse().getStatusCode(), lessThan(400));
+        }
+        verify(session).invalidate();
+        verify(other, never()).invalidate();
+    }
+
+    @Test
+    void logoutSendsTheBrowserToTheIdpWithRedirectBinding() throws Exception {
+        SamlSecurityRealm realm = configure(SAML2_REDIRECT_BINDING_URI);
+
+        String url = postLogOutUrl(realm);
+        assertThat(url, startsWith(FakeIdp.SLO_URL + "?"));
+        String logoutRequest = FakeIdp.decodeRedirect(url);
+        assertThat(logoutRequest, containsString("LogoutRequest"));
+        assertThat(logoutRequest, containsString("index-1"));
+    }
+
+    @Test
+    void logoutSendsTheBrowserToTheIdpWithPostBinding() throws Exception {
+        SamlSecurityRealm realm = configure(SAML2_POST_BINDING_URI);
+
+        String url = postLogOutUrl(realm);
+        String pending = jenkinsRule.getURL() + SamlSecurityRealm.SINGLE_LOGOUT_URL_PATH + "?pending=";
+        assertThat(url, startsWith(pending));
+        try (JenkinsRule.WebClient webClient = webClient()) {
+            String form = webClient.getPage(url).getWebResponse().getContentAsString();
+            assertThat(form, containsString("SAMLRequest"));
+            assertThat(form, containsString(FakeIdp.SLO_URL));
+
+            // the form is sent once
+            Page again = webClient.getPage(url);
+            assertEquals(302, again.getWebResponse().getStatusCode());
+            assertThat(
+                    again.getWebResponse().getResponseHeaderValue("Location"),
+                    containsString(SamlLogoutAction.POST_LOGOUT_URL));
+        }
+    }
+
+    /**
+     * @return the URL of the browser after the logout of a SAML login.
+     */
+    private String postLogOutUrl(SamlSecurityRealm realm) throws Exception {
+        SamlSessionIndex.Login login = login(UUID.randomUUID().toString(), "index-1");
+        return jenkinsRule.executeOnServer(() -> {
+            Stapler.getCurrentRequest2().setAttribute(SamlSessionIndex.LOGIN_ATTRIBUTE, login);
+            return realm.getPostLogOutUrl2(Stapler.getCurrentRequest2(), Jenkins.ANONYMOUS2);
+        });
+    }
+
+    private SamlSecurityRealm configure(String binding) throws Exception {
+        SamlAdvancedConfiguration advancedConfiguration =
+                new SamlAdvancedConfiguration(false, null, FakeIdp.SP_ENTITY_ID, null);
+        advancedConfiguration.setSingleLogout(true);
+        SamlSecurityRealm realm = new SamlSecurityRealm(
+                new IdpMetadataConfiguration(idp.getMetadata()),
+                "displayName",
+                "groups",
+                86400,
+                "uid",
+                "email",
+                null,
+                advancedConfiguration,
+                null,
+                "none",
+                binding,
+                Collections.emptyList());
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+        return realm;
+    }
+
+    private JenkinsRule.WebClient webClient() {
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+        webClient.setJavaScriptEnabled(false);
+        webClient.setRedirectEnabled(false);
+        webClient.setThrowExceptionOnFailingStatusCode(false);
+        return webClient;
+    }
+
+    private static SamlSessionIndex.Login login(String nameId, String sessionIndex) {
+        return new SamlSessionIndex.Login(nameId, NameID.TRANSIENT, null, null, sessionIndex);
+    }
+}
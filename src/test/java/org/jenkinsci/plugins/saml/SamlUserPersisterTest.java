@@ -0,0 +1,109 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import hudson.model.User;
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Background save of the users modified by the logins.
+ */
+@WithJenkins
+class SamlUserPersisterTest {
+
+    private final int queueSize = SamlUserPersister.queueSize;
+
+    private final long delay = SamlUserPersister.delay;
+
+    @BeforeEach
+    void start(JenkinsRule jenkinsRule) throws Exception {
+        SamlAdvancedConfiguration advancedConfiguration =
+                new SamlAdvancedConfiguration(false, null, FakeIdp.SP_ENTITY_ID, null);
+        advancedConfiguration.setBackgroundUserSave(true);
+        jenkinsRule.jenkins.setSecurityRealm(new SamlSecurityRealm(
+                new IdpMetadataConfiguration(new FakeIdp().getMetadata()),
+                "displayName",
+                "groups",
+                86400,
+                "uid",
+                "email",
+                null,
+                advancedConfiguration,
+                null,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                Collections.emptyList()));
+        // nothing is saved by the worker during the test
+        SamlUserPersister.delay = TimeUnit.HOURS.toMillis(1);
+    }
+
+    @AfterEach
+    void stop() {
+        SamlUserPersister.flush();
+        SamlUserPersister.queueSize = queueSize;
+        SamlUserPersister.delay = delay;
+    }
+
+    @Test
+    void userIsSavedByTheLoginWhenTheQueueIsFull() {
+        SamlUserPersister.queueSize = 1;
+        User queued = User.getById("queued", true);
+        User overflow = User.getById("overflow", true);
+        long overflows = SamlMetrics.toJSON().getLong("userPersister.overflows");
+
+        SamlUserPersister.save(queued);
+        SamlUserPersister.save(overflow);
+
+        assertEquals(1, SamlUserPersister.getQueueDepth());
+        assertFalse(configFile(queued).exists());
+        assertTrue(configFile(overflow).exists());
+        assertEquals(overflows + 1, SamlMetrics.toJSON().getLong("userPersister.overflows"));
+    }
+
+    @Test
+    void shutdownSavesTheUsersWaiting() throws Exception {
+        User user = User.getById("waiting", true);
+        SamlUserPersister.save(user);
+        assertEquals(1, SamlUserPersister.getQueueDepth());
+
+        SamlUserPersister.shutdown();
+        assertEquals(0, SamlUserPersister.getQueueDepth());
+        assertTrue(configFile(user).exists());
+        // Jenkins is stopping, the logins save the users themselves
+        assertFalse(SamlUserPersister.enqueue(user));
+
+        SamlUserPersister.start();
+        assertTrue(SamlUserPersister.enqueue(user));
+    }
+
+    private static File configFile(User user) {
+        return new File(user.getUserFolder(), "config.xml");
+    }
+}
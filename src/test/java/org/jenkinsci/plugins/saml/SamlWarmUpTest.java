@@ -0,0 +1,71 @@
+/* Licensed to Jenkins CI under one or more contributor license
+agreements.  See the NOTICE file distributed with this work
+for additional information regarding copyright ownership.
+Jenkins CI licenses this file to you under the Apache License,
+Version 2.0 (the "License"); you may not use this file except
+in compliance with the License.  You may obtain a copy of the
+License at
+
+  http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing,
+software distributed under the License is distributed on an
+"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+KIND, either express or implied.  See the License for the
+specific language governing permissions and limitations
+under the License. */
+
+package org.jenkinsci.plugins.saml;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.opensaml.saml.common.xml.SAMLConstants.SAML2_REDIRECT_BINDING_URI;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Warm-up of the SAML login path.
+ */
+@WithJenkins
+class SamlWarmUpTest {
+
+    @Test
+    void warmUpSignsAndVerifiesAndPublishesTheDuration(JenkinsRule jenkinsRule) throws Exception {
+        String metadata;
+        try (InputStream in = getClass().getResourceAsStream("OpenSamlWrapperTest/metadataWrapper/metadata.xml")) {
+            metadata = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+        SamlSecurityRealm realm = new SamlSecurityRealm(
+                new IdpMetadataConfiguration(metadata),
+                "displayName",
+                "groups",
+                86400,
+                "uid",
+                "email",
+                null,
+                null,
+                null,
+                "none",
+                SAML2_REDIRECT_BINDING_URI,
+                Collections.emptyList());
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+        long before = System.currentTimeMillis();
+
+        Long duration = new SamlWarmUp(realm.getSamlPluginConfig()).get();
+
+        assertNotNull(duration);
+        assertThat(duration, greaterThanOrEqualTo(0L));
+        JSONObject metrics = SamlMetrics.toJSON();
+        assertEquals(duration.longValue(), metrics.getLong("warmUp.duration"));
+        assertThat(metrics.getLong("warmUp.lastRun"), greaterThanOrEqualTo(before));
+    }
+}